@@ -24,12 +24,21 @@ package ch.njol.skript;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Matcher;
 
 import org.bukkit.event.Event;
@@ -51,6 +60,7 @@ import ch.njol.skript.lang.Condition;
 import ch.njol.skript.lang.Conditional;
 import ch.njol.skript.lang.Expression;
 import ch.njol.skript.lang.Loop;
+import ch.njol.skript.lang.ParseCache;
 import ch.njol.skript.lang.ParseContext;
 import ch.njol.skript.lang.SelfRegisteringSkriptEvent;
 import ch.njol.skript.lang.SkriptEvent;
@@ -69,6 +79,8 @@ import ch.njol.skript.localization.Message;
 import ch.njol.skript.localization.PluralizingArgsMessage;
 import ch.njol.skript.log.CountingLogHandler;
 import ch.njol.skript.log.ErrorDescLogHandler;
+import ch.njol.skript.log.LogEntry;
+import ch.njol.skript.log.LogHandler;
 import ch.njol.skript.log.ParseLogHandler;
 import ch.njol.skript.log.RetainingLogHandler;
 import ch.njol.skript.log.SkriptLogger;
@@ -233,23 +245,29 @@ final public class ScriptLoader {
 	 * @return Info on the loaded scripts
 	 */
 	public final static ScriptInfo loadScripts(final File directory) {
-		final ScriptInfo i = new ScriptInfo();
+		final List<File> files = new ArrayList<File>();
+		addScripts(directory, files);
 		final boolean wasLocal = Language.setUseLocal(false);
 		try {
-			final File[] files = directory.listFiles(scriptFilter);
-			Arrays.sort(files);
-			for (final File f : files) {
-				if (f.isDirectory()) {
-					i.add(loadScripts(f));
-				} else {
-					i.add(loadScript(f));
-				}
-			}
+			return loadScripts(files);
 		} finally {
 			if (wasLocal)
 				Language.setUseLocal(true);
 		}
-		return i;
+	}
+	
+	/**
+	 * Adds all enabled scripts in the given directory and its subdirectories to the given list in the order they should be loaded in.
+	 */
+	private final static void addScripts(final File directory, final List<File> files) {
+		final File[] fs = directory.listFiles(scriptFilter);
+		Arrays.sort(fs);
+		for (final File f : fs) {
+			if (f.isDirectory())
+				addScripts(f, files);
+			else
+				files.add(f);
+		}
 	}
 	
 	/**
@@ -260,13 +278,11 @@ final public class ScriptLoader {
 	 */
 	public final static ScriptInfo loadScripts(final File[] files) {
 		Arrays.sort(files);
-		final ScriptInfo i = new ScriptInfo();
+		final ScriptInfo i;
 		final boolean wasLocal = Language.setUseLocal(false);
 		try {
-			for (final File f : files) {
-				assert f != null : Arrays.toString(files);
-				i.add(loadScript(f));
-			}
+			assert !Arrays.asList(files).contains(null) : Arrays.toString(files);
+			i = loadScripts(Arrays.asList(files));
 		} finally {
 			if (wasLocal)
 				Language.setUseLocal(true);
@@ -281,293 +297,594 @@ final public class ScriptLoader {
 		return i;
 	}
 	
-	@SuppressWarnings("unchecked")
-	private final static ScriptInfo loadScript(final File f) {
-//		File cache = null;
-//		if (SkriptConfig.enableScriptCaching.value()) {
-//			cache = new File(f.getParentFile(), "cache" + File.separator + f.getName() + "c");
-//			if (cache.exists()) {
-//				final RetainingLogHandler log = SkriptLogger.startRetainingLog();
-//				ObjectInputStream in = null;
-//				try {
-//					in = new ObjectInputStream(new FileInputStream(cache));
-//					final long lastModified = in.readLong();
-//					if (lastModified == f.lastModified()) {
-//						final SerializedScript script = (SerializedScript) in.readObject();
-//						triggersLoop: for (final Trigger t : script.triggers) {
-//							if (t.getEvent() instanceof SelfRegisteringSkriptEvent) {
-//								((SelfRegisteringSkriptEvent) t.getEvent()).register(t);
-//								SkriptEventHandler.addSelfRegisteringTrigger(t);
-//							} else {
-//								for (final SkriptEventInfo<?> e : Skript.getEvents()) {
-//									if (e.c == t.getEvent().getClass()) {
-//										SkriptEventHandler.addTrigger(e.events, t);
-//										continue triggersLoop;
-//									}
-//								}
-//								throw new EmptyStackException();
-//							}
-//						}
-//						for (final ScriptCommand c : script.commands) {
-//							Commands.registerCommand(c);
-//						}
-//						log.printLog();
-//						return new ScriptInfo(1, script.triggers.size(), script.commands.size());
-//					} else {
-//						cache.delete();
-//					}
-//				} catch (final Exception e) {
-//					if (Skript.testing()) {
-//						System.err.println("[debug] Error loading cached script '" + f.getName() + "':");
-//						e.printStackTrace();
-//					}
-//					unloadScript(f);
-//					if (in != null) {
-//						try {
-//							in.close();
-//						} catch (final IOException e1) {}
-//					}
-//					cache.delete();
-//				} finally {
-//					log.stop();
-//					if (in != null) {
-//						try {
-//							in.close();
-//						} catch (final IOException e) {}
-//					}
-//				}
-//			}
-//		}
+	private final static ThreadFactory readerThreadFactory = new ThreadFactory() {
+		@Override
+		public Thread newThread(final @Nullable Runnable r) {
+			assert r != null;
+			final Thread t = Skript.newThread(r, "Skript script reader");
+			t.setDaemon(true);
+			return t;
+		}
+	};
+	
+	/**
+	 * Loads the given scripts in the given order.
+	 * <p>
+	 * The scripts are read and split into nodes on a few other threads while the scripts read so far are parsed on this thread. Parsing itself cannot be done concurrently
+	 * as it uses and modifies lots of global state, e.g. the registered functions, the triggers of events or the commands of the server.
+	 */
+	private final static ScriptInfo loadScripts(final List<File> files) {
+		final ScriptInfo i = new ScriptInfo();
+		final int threads = Math.min(files.size() - 1, Runtime.getRuntime().availableProcessors());
+		if (threads <= 0) {
+			for (final File f : files) {
+				assert f != null;
+				i.add(loadScript(new ReadScript(f)));
+			}
+			return i;
+		}
+		final ExecutorService readers = Executors.newFixedThreadPool(threads, readerThreadFactory);
 		try {
-			final Config config = new Config(f, true, false, ":");
+			final List<Future<ReadScript>> read = new ArrayList<Future<ReadScript>>(files.size());
+			for (final File f : files) {
+				assert f != null;
+				read.add(readers.submit(new Callable<ReadScript>() {
+					@Override
+					public ReadScript call() {
+						return new ReadScript(f);
+					}
+				}));
+			}
+			for (int j = 0; j < files.size(); j++) {
+				ReadScript script;
+				try {
+					script = read.get(j).get();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					script = new ReadScript(files.get(j));
+				} catch (final ExecutionException e) { // only errors, as ReadScript catches all exceptions
+					script = new ReadScript(files.get(j));
+				}
+				i.add(loadScript(script));
+			}
+		} finally {
+			readers.shutdownNow();
+		}
+		return i;
+	}
+	
+	/**
+	 * A script that has been read and split into nodes, but not parsed yet. Can be created on any thread.
+	 */
+	private final static class ReadScript {
+		
+		final File file;
+		@Nullable
+		private Config config = null;
+		@Nullable
+		private Exception error = null;
+		@Nullable
+		final ParseCache cache;
+		
+		/**
+		 * Messages logged while reading the script, to be logged on the main thread when the script is parsed
+		 */
+		final List<LogEntry> log = new ArrayList<LogEntry>();
+		
+		ReadScript(final File file) {
+			this.file = file;
+			final LogHandler h = SkriptLogger.startLogHandler(new LogHandler() {
+				@Override
+				public LogResult log(final LogEntry entry) {
+					log.add(entry);
+					return LogResult.CACHED;
+				}
+			});
+			try {
+				try {
+					config = new Config(file, true, false, ":");
+				} catch (final Exception e) {
+					error = e;
+				}
+				cache = error == null && SkriptConfig.enableScriptCaching.value() ? ParseCache.load(file, getCacheFile(file)) : null;
+			} finally {
+				h.stop();
+			}
+		}
+		
+		/**
+		 * @return The read script
+		 * @throws Exception The exception that occurred while reading the script, if any
+		 */
+		Config getConfig() throws Exception {
+			final Exception error = this.error;
+			if (error != null)
+				throw error;
+			final Config config = this.config;
+			assert config != null;
+			return config;
+		}
+		
+	}
+	
+	private final static ScriptInfo loadScript(final ReadScript script) {
+		final File f = script.file;
+		SkriptLogger.logAll(script.log);
+		final ParseCache cache = script.cache;
+		boolean loaded = false;
+		try {
+			final Config config = script.getConfig();
+			if (cache != null)
+				cache.start();
 			if (SkriptConfig.keepConfigsLoaded.value())
 				SkriptConfig.configs.add(config);
-			int numTriggers = 0;
-			int numCommands = 0;
-			int numFunctions = 0;
-			
 			currentAliases.clear();
 			currentOptions.clear();
 			currentScript = config;
 			
-//			final SerializedScript script = new SerializedScript();
-			
 			final CountingLogHandler numErrors = SkriptLogger.startLogHandler(new CountingLogHandler(SkriptLogger.SEVERE));
 			
 			try {
+				final List<LoadedSection> sections = new ArrayList<LoadedSection>();
 				for (final Node cnode : config.getMainNode()) {
 					if (!(cnode instanceof SectionNode)) {
 						Skript.error("invalid line - all code has to be put into triggers");
 						continue;
 					}
 					
-					final SectionNode node = ((SectionNode) cnode);
-					String event = node.getKey();
-					if (event == null)
-						continue;
-					
-					if (event.equalsIgnoreCase("aliases")) {
-						node.convertToEntries(0, "=");
-						for (final Node n : node) {
-							if (!(n instanceof EntryNode)) {
-								Skript.error("invalid line in aliases section");
-								continue;
-							}
-							final ItemType t = Aliases.parseAlias(((EntryNode) n).getValue());
-							if (t == null)
-								continue;
-							currentAliases.put(((EntryNode) n).getKey().toLowerCase(), t);
-						}
-						continue;
-					} else if (event.equalsIgnoreCase("options")) {
-						node.convertToEntries(0);
-						for (final Node n : node) {
-							if (!(n instanceof EntryNode)) {
-								Skript.error("invalid line in options");
-								continue;
-							}
-							currentOptions.put(((EntryNode) n).getKey(), ((EntryNode) n).getValue());
-						}
-						continue;
-					} else if (event.equalsIgnoreCase("variables")) {
-						// TODO allow to make these override existing variables
-						node.convertToEntries(0, "=");
-						for (final Node n : node) {
-							if (!(n instanceof EntryNode)) {
-								Skript.error("Invalid line in variables section");
-								continue;
-							}
-							String name = ((EntryNode) n).getKey().toLowerCase(Locale.ENGLISH);
-							if (name.startsWith("{") && name.endsWith("}"))
-								name = "" + name.substring(1, name.length() - 1);
-							final String var = name;
-							name = StringUtils.replaceAll(name, "%(.+)?%", new Callback<String, Matcher>() {
-								@Override
-								@Nullable
-								public String run(final Matcher m) {
-									if (m.group(1).contains("{") || m.group(1).contains("}") || m.group(1).contains("%")) {
-										Skript.error("'" + var + "' is not a valid name for a default variable");
-										return null;
-									}
-									final ClassInfo<?> ci = Classes.getClassInfoFromUserInput("" + m.group(1));
-									if (ci == null) {
-										Skript.error("Can't understand the type '" + m.group(1) + "'");
-										return null;
-									}
-									return "<" + ci.getCodeName() + ">";
-								}
-							});
-							if (name == null) {
-								continue;
-							} else if (name.contains("%")) {
-								Skript.error("Invalid use of percent signs in variable name");
-								continue;
-							}
-							if (Variables.getVariable(name, null, false) != null)
-								continue;
-							Object o;
-							final ParseLogHandler log = SkriptLogger.startParseLogHandler();
-							try {
-								o = Classes.parseSimple(((EntryNode) n).getValue(), Object.class, ParseContext.SCRIPT);
-								if (o == null) {
-									log.printError("Can't understand the value '" + ((EntryNode) n).getValue() + "'");
-									continue;
-								}
-								log.printLog();
-							} finally {
-								log.stop();
-							}
-							@SuppressWarnings("null")
-							final ClassInfo<?> ci = Classes.getSuperClassInfo(o.getClass());
-							if (ci.getSerializer() == null) {
-								Skript.error("Can't save '" + ((EntryNode) n).getValue() + "' in a variable");
-								continue;
-							} else if (ci.getSerializeAs() != null) {
-								final ClassInfo<?> as = Classes.getExactClassInfo(ci.getSerializeAs());
-								if (as == null) {
-									assert false : ci;
-									continue;
-								}
-								o = Converters.convert(o, as.getC());
-								if (o == null) {
-									Skript.error("Can't save '" + ((EntryNode) n).getValue() + "' in a variable");
-									continue;
-								}
-							}
-							Variables.setVariable(name, o, null, false);
-						}
-						continue;
-					}
-					
-					if (!SkriptParser.validateLine(event))
-						continue;
-					
-					if (event.toLowerCase().startsWith("command ")) {
-						
-						setCurrentEvent("command", CommandEvent.class);
-						
-						final ScriptCommand c = Commands.loadCommand(node);
-						if (c != null) {
-							numCommands++;
-//							script.commands.add(c);
-						}
-						
-						deleteCurrentEvent();
-						
-						continue;
-					} else if (event.toLowerCase().startsWith("function ")) {
-						
-						setCurrentEvent("function", FunctionEvent.class);
-						
-						final Function<?> func = Functions.loadFunction(node);
-						if (func != null) {
-							numFunctions++;
+					final LoadedSection s = loadSection((SectionNode) cnode);
+					sections.add(s);
+					final Trigger trigger = s.trigger;
+					if (trigger != null) {
+						if (trigger.getEvent() instanceof SelfRegisteringSkriptEvent) {
+							((SelfRegisteringSkriptEvent) trigger.getEvent()).register(trigger);
+							SkriptEventHandler.addSelfRegisteringTrigger(trigger);
+						} else {
+							final Class<? extends Event>[] events = s.events;
+							assert events != null;
+							SkriptEventHandler.addTrigger(events, trigger);
 						}
-						
-						deleteCurrentEvent();
-						
-						continue;
-					}
-					
-					if (Skript.logVeryHigh() && !Skript.debug())
-						Skript.info("loading trigger '" + event + "'");
-					
-					if (StringUtils.startsWithIgnoreCase(event, "on "))
-						event = "" + event.substring("on ".length());
-					
-					event = replaceOptions(event);
-					
-					final NonNullPair<SkriptEventInfo<?>, SkriptEvent> parsedEvent = SkriptParser.parseEvent(event, "can't understand this event: '" + node.getKey() + "'");
-					if (parsedEvent == null)
-						continue;
-					
-					if (Skript.debug() || node.debug())
-						Skript.debug(event + " (" + parsedEvent.getSecond().toString(null, true) + "):");
-					
-					setCurrentEvent("" + parsedEvent.getFirst().getName().toLowerCase(Locale.ENGLISH), parsedEvent.getFirst().events);
-					final Trigger trigger;
-					try {
-						trigger = new Trigger(config.getFile(), event, parsedEvent.getSecond(), loadItems(node));
-					} finally {
-						deleteCurrentEvent();
-					}
-					
-					if (parsedEvent.getSecond() instanceof SelfRegisteringSkriptEvent) {
-						((SelfRegisteringSkriptEvent) parsedEvent.getSecond()).register(trigger);
-						SkriptEventHandler.addSelfRegisteringTrigger(trigger);
-					} else {
-						SkriptEventHandler.addTrigger(parsedEvent.getFirst().events, trigger);
 					}
-					
-//					script.triggers.add(trigger);
-					
-					numTriggers++;
 				}
 				
+				synchronized (loadedSections) {
+					loadedSections.put(f, sections);
+				}
+				
+				final ScriptInfo info = getInfo(sections);
+				
 				if (Skript.logHigh())
-					Skript.info("loaded " + numTriggers + " trigger" + (numTriggers == 1 ? "" : "s") + " and " + numCommands + " command" + (numCommands == 1 ? "" : "s") + " from '" + config.getFileName() + "'");
+					Skript.info("loaded " + info.triggers + " trigger" + (info.triggers == 1 ? "" : "s") + " and " + info.commands + " command" + (info.commands == 1 ? "" : "s") + " from '" + config.getFileName() + "'");
 				
 				currentScript = null;
+				
+				loaded = numErrors.getCount() == 0;
+				
+				return info;
 			} finally {
 				numErrors.stop();
 			}
-			
-//			if (SkriptConfig.enableScriptCaching.value() && cache != null) {
-//				if (numErrors.getCount() > 0) {
-//					ObjectOutputStream out = null;
-//					try {
-//						cache.getParentFile().mkdirs();
-//						out = new ObjectOutputStream(new FileOutputStream(cache));
-//						out.writeLong(f.lastModified());
-//						out.writeObject(script);
-//					} catch (final NotSerializableException e) {
-//						Skript.exception(e, "Cannot cache " + f.getName());
-//						if (out != null)
-//							out.close();
-//						cache.delete();
-//					} catch (final IOException e) {
-//						Skript.warning("Cannot cache " + f.getName() + ": " + e.getLocalizedMessage());
-//						if (out != null)
-//							out.close();
-//						cache.delete();
-//					} finally {
-//						if (out != null)
-//							out.close();
-//					}
-//				}
-//			}
-			
-			return new ScriptInfo(1, numTriggers, numCommands, numFunctions);
 		} catch (final IOException e) {
 			Skript.error("Could not load " + f.getName() + ": " + ExceptionUtils.toString(e));
 		} catch (final Exception e) {
 			Skript.exception(e, "Could not load " + f.getName());
 		} finally {
 			SkriptLogger.setNode(null);
+			if (cache != null)
+				cache.stop(loaded);
 		}
 		return new ScriptInfo();
 	}
 	
+	/**
+	 * A top-level section of a loaded script and what has been loaded from it. Used by {@link #reloadScript(File)} to only load the sections that have been changed.
+	 */
+	private final static class LoadedSection {
+		
+		@Nullable
+		final String key;
+		/**
+		 * The section as written in the script, used to find out whether it has been changed
+		 */
+		final String source;
+		boolean hadErrors = false;
+		
+		@Nullable
+		Trigger trigger = null;
+		/**
+		 * The events the trigger has been registered for if it is not self-registering
+		 */
+		@Nullable
+		Class<? extends Event>[] events = null;
+		@Nullable
+		ScriptCommand command = null;
+		@Nullable
+		Function<?> function = null;
+		
+		LoadedSection(final SectionNode node) {
+			key = node.getKey();
+			source = getSource(node);
+		}
+		
+		static String getSource(final SectionNode node) {
+			final StringWriter w = new StringWriter();
+			node.save(new PrintWriter(w));
+			return "" + w;
+		}
+		
+		/**
+		 * @return Whether a section with the given key can be loaded and unloaded on its own, i.e. whether it is a trigger or a command
+		 */
+		static boolean isReloadable(final @Nullable String key) {
+			return key != null && !key.equalsIgnoreCase("aliases") && !key.equalsIgnoreCase("options") && !key.equalsIgnoreCase("variables")
+					&& !key.toLowerCase().startsWith("function ");
+		}
+		
+	}
+	
+	/**
+	 * The sections of all loaded scripts
+	 */
+	private final static Map<File, List<LoadedSection>> loadedSections = new HashMap<File, List<LoadedSection>>();
+	
+	private final static ScriptInfo getInfo(final List<LoadedSection> sections) {
+		final ScriptInfo i = new ScriptInfo(1, 0, 0, 0);
+		for (final LoadedSection s : sections) {
+			if (s.trigger != null)
+				i.triggers++;
+			if (s.command != null)
+				i.commands++;
+			if (s.function != null)
+				i.functions++;
+		}
+		return i;
+	}
+	
+	/**
+	 * Loads a top-level section of the current script, but does not register the trigger loaded from it (if any).
+	 */
+	private final static LoadedSection loadSection(final SectionNode node) {
+		final LoadedSection s = new LoadedSection(node);
+		final CountingLogHandler errors = SkriptLogger.startLogHandler(new CountingLogHandler(SkriptLogger.SEVERE));
+		try {
+			loadSection_(node, s);
+		} finally {
+			errors.stop();
+		}
+		s.hadErrors = errors.getCount() > 0;
+		return s;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private final static void loadSection_(final SectionNode node, final LoadedSection s) {
+		String event = node.getKey();
+		if (event == null)
+			return;
+		
+		if (event.equalsIgnoreCase("aliases")) {
+			node.convertToEntries(0, "=");
+			for (final Node n : node) {
+				if (!(n instanceof EntryNode)) {
+					Skript.error("invalid line in aliases section");
+					continue;
+				}
+				final ItemType t = Aliases.parseAlias(((EntryNode) n).getValue());
+				if (t == null)
+					continue;
+				currentAliases.put(((EntryNode) n).getKey().toLowerCase(), t);
+			}
+			return;
+		} else if (event.equalsIgnoreCase("options")) {
+			node.convertToEntries(0);
+			for (final Node n : node) {
+				if (!(n instanceof EntryNode)) {
+					Skript.error("invalid line in options");
+					continue;
+				}
+				currentOptions.put(((EntryNode) n).getKey(), ((EntryNode) n).getValue());
+			}
+			return;
+		} else if (event.equalsIgnoreCase("variables")) {
+			// TODO allow to make these override existing variables
+			node.convertToEntries(0, "=");
+			for (final Node n : node) {
+				if (!(n instanceof EntryNode)) {
+					Skript.error("Invalid line in variables section");
+					continue;
+				}
+				String name = ((EntryNode) n).getKey().toLowerCase(Locale.ENGLISH);
+				if (name.startsWith("{") && name.endsWith("}"))
+					name = "" + name.substring(1, name.length() - 1);
+				final String var = name;
+				name = StringUtils.replaceAll(name, "%(.+)?%", new Callback<String, Matcher>() {
+					@Override
+					@Nullable
+					public String run(final Matcher m) {
+						if (m.group(1).contains("{") || m.group(1).contains("}") || m.group(1).contains("%")) {
+							Skript.error("'" + var + "' is not a valid name for a default variable");
+							return null;
+						}
+						final ClassInfo<?> ci = Classes.getClassInfoFromUserInput("" + m.group(1));
+						if (ci == null) {
+							Skript.error("Can't understand the type '" + m.group(1) + "'");
+							return null;
+						}
+						return "<" + ci.getCodeName() + ">";
+					}
+				});
+				if (name == null) {
+					continue;
+				} else if (name.contains("%")) {
+					Skript.error("Invalid use of percent signs in variable name");
+					continue;
+				}
+				if (Variables.getVariable(name, null, false) != null)
+					continue;
+				Object o;
+				final ParseLogHandler log = SkriptLogger.startParseLogHandler();
+				try {
+					o = Classes.parseSimple(((EntryNode) n).getValue(), Object.class, ParseContext.SCRIPT);
+					if (o == null) {
+						log.printError("Can't understand the value '" + ((EntryNode) n).getValue() + "'");
+						continue;
+					}
+					log.printLog();
+				} finally {
+					log.stop();
+				}
+				@SuppressWarnings("null")
+				final ClassInfo<?> ci = Classes.getSuperClassInfo(o.getClass());
+				if (ci.getSerializer() == null) {
+					Skript.error("Can't save '" + ((EntryNode) n).getValue() + "' in a variable");
+					continue;
+				} else if (ci.getSerializeAs() != null) {
+					final ClassInfo<?> as = Classes.getExactClassInfo(ci.getSerializeAs());
+					if (as == null) {
+						assert false : ci;
+						continue;
+					}
+					o = Converters.convert(o, as.getC());
+					if (o == null) {
+						Skript.error("Can't save '" + ((EntryNode) n).getValue() + "' in a variable");
+						continue;
+					}
+				}
+				Variables.setVariable(name, o, null, false);
+			}
+			return;
+		}
+		
+		if (!SkriptParser.validateLine(event))
+			return;
+		
+		if (event.toLowerCase().startsWith("command ")) {
+			
+			setCurrentEvent("command", CommandEvent.class);
+			
+			s.command = Commands.loadCommand(node);
+			
+			deleteCurrentEvent();
+			
+			return;
+		} else if (event.toLowerCase().startsWith("function ")) {
+			
+			setCurrentEvent("function", FunctionEvent.class);
+			
+			s.function = Functions.loadFunction(node);
+			
+			deleteCurrentEvent();
+			
+			return;
+		}
+		
+		if (Skript.logVeryHigh() && !Skript.debug())
+			Skript.info("loading trigger '" + event + "'");
+		
+		if (StringUtils.startsWithIgnoreCase(event, "on "))
+			event = "" + event.substring("on ".length());
+		
+		event = replaceOptions(event);
+		
+		final NonNullPair<SkriptEventInfo<?>, SkriptEvent> parsedEvent = SkriptParser.parseEvent(event, "can't understand this event: '" + node.getKey() + "'");
+		if (parsedEvent == null)
+			return;
+		
+		if (Skript.debug() || node.debug())
+			Skript.debug(event + " (" + parsedEvent.getSecond().toString(null, true) + "):");
+		
+		setCurrentEvent("" + parsedEvent.getFirst().getName().toLowerCase(Locale.ENGLISH), parsedEvent.getFirst().events);
+		final Trigger trigger;
+		try {
+			trigger = new Trigger(node.getConfig().getFile(), event, parsedEvent.getSecond(), loadItems(node));
+			trigger.setLine(node.getLine());
+		} finally {
+			deleteCurrentEvent();
+		}
+		
+		s.trigger = trigger;
+		s.events = parsedEvent.getFirst().events;
+	}
+	
+	/**
+	 * @param script
+	 * @return The file to store the {@link ParseCache} of the given script in
+	 */
+	private final static File getCacheFile(final File script) {
+		final File scriptsFolder = new File(Skript.getInstance().getDataFolder(), Skript.SCRIPTSFOLDER + File.separator);
+		final String path = scriptsFolder.toURI().relativize(script.getAbsoluteFile().toURI()).getPath();
+		return new File(Skript.getInstance().getDataFolder(), "cache" + File.separator + path + "c");
+	}
+	
+	/**
+	 * Reloads the specified script.
+	 * <p>
+	 * If only triggers and commands have been changed, added or removed since the script was loaded, only these are loaded and swapped with the old ones, while everything
+	 * else stays loaded. Otherwise the whole script is unloaded and loaded again.
+	 * 
+	 * @param script
+	 * @return Info on the reloaded script
+	 */
+	final static ScriptInfo reloadScript(final File script) {
+		final List<LoadedSection> old;
+		synchronized (loadedSections) {
+			old = loadedSections.get(script);
+		}
+		final boolean wasLocal = Language.setUseLocal(false);
+		try {
+			final ReadScript read = new ReadScript(script);
+			if (old != null) {
+				final ScriptInfo i = reloadChangedSections(read, old);
+				if (i != null)
+					return i;
+			}
+			unloadScript(script);
+			final ScriptInfo i = loadScript(read);
+			synchronized (loadedScripts) {
+				loadedScripts.add(i);
+			}
+			SkriptEventHandler.registerBukkitEvents();
+			return i;
+		} finally {
+			if (wasLocal)
+				Language.setUseLocal(true);
+		}
+	}
+	
+	/**
+	 * Loads the sections of a script that have been changed, added or removed, and keeps all others.
+	 * 
+	 * @param script
+	 * @param old The sections the script had when it was loaded
+	 * @return Info on the reloaded script, or null if the script has to be reloaded completely as other sections than triggers and commands have been changed.
+	 */
+	@Nullable
+	private final static ScriptInfo reloadChangedSections(final ReadScript script, final List<LoadedSection> old) {
+		final Config config;
+		try {
+			config = script.getConfig();
+		} catch (final Exception e) {
+			return null;
+		}
+		
+		final List<SectionNode> nodes = new ArrayList<SectionNode>();
+		for (final Node n : config.getMainNode()) {
+			if (!(n instanceof SectionNode))
+				return null;
+			nodes.add((SectionNode) n);
+		}
+		
+		final Map<String, LinkedList<LoadedSection>> unchanged = new HashMap<String, LinkedList<LoadedSection>>();
+		for (final LoadedSection s : old) {
+			if (s.hadErrors) // load again to print the errors again
+				continue;
+			LinkedList<LoadedSection> l = unchanged.get(s.source);
+			if (l == null)
+				unchanged.put(s.source, l = new LinkedList<LoadedSection>());
+			l.add(s);
+		}
+		final LoadedSection[] kept = new LoadedSection[nodes.size()];
+		final List<LoadedSection> removed = new ArrayList<LoadedSection>(old);
+		for (int i = 0; i < kept.length; i++) {
+			final SectionNode node = nodes.get(i);
+			final LinkedList<LoadedSection> l = unchanged.get(LoadedSection.getSource(node));
+			if (l != null && !l.isEmpty()) {
+				kept[i] = l.removeFirst();
+				removed.remove(kept[i]);
+			} else if (!LoadedSection.isReloadable(node.getKey())) {
+				return null;
+			}
+		}
+		for (final LoadedSection s : removed) {
+			if (!LoadedSection.isReloadable(s.key))
+				return null;
+		}
+		
+		SkriptLogger.logAll(script.log);
+		
+		currentAliases.clear();
+		currentOptions.clear();
+		currentScript = config;
+		try {
+			for (final LoadedSection s : removed) {
+				final ScriptCommand c = s.command;
+				if (c != null)
+					Commands.unregisterCommand(c);
+			}
+			
+			final List<LoadedSection> sections = new ArrayList<LoadedSection>(nodes.size());
+			final List<Trigger> oldTriggers = new ArrayList<Trigger>(), newTriggers = new ArrayList<Trigger>();
+			final List<Class<? extends Event>[]> newEvents = new ArrayList<Class<? extends Event>[]>();
+			int numLoaded = 0;
+			for (int i = 0; i < kept.length; i++) {
+				final SectionNode node = nodes.get(i);
+				LoadedSection s = kept[i];
+				if (s == null) {
+					s = loadSection(node);
+					numLoaded++;
+					final Trigger t = s.trigger;
+					if (t != null) {
+						// replace the old trigger of the same event to not change the order in which triggers are executed
+						Trigger replaced = null;
+						for (final LoadedSection r : removed) {
+							final Trigger rt = r.trigger;
+							if (rt != null && !oldTriggers.contains(rt) && r.key != null && r.key.equals(node.getKey())) {
+								replaced = rt;
+								break;
+							}
+						}
+						oldTriggers.add(replaced);
+						newTriggers.add(t);
+						newEvents.add(s.events);
+					}
+				} else {
+					if (s.key != null && (s.key.equalsIgnoreCase("aliases") || s.key.equalsIgnoreCase("options"))) // required to load the other sections
+						loadSection(node);
+					final Trigger t = s.trigger;
+					if (t != null)
+						t.setLine(node.getLine());
+				}
+				sections.add(s);
+			}
+			for (final LoadedSection r : removed) {
+				final Trigger rt = r.trigger;
+				if (rt != null && !oldTriggers.contains(rt)) {
+					oldTriggers.add(rt);
+					newTriggers.add(null);
+					newEvents.add(null);
+				}
+			}
+			
+			SkriptEventHandler.replaceTriggers(oldTriggers, newTriggers, newEvents);
+			SkriptEventHandler.registerBukkitEvents();
+			
+			synchronized (loadedSections) {
+				loadedSections.put(script.file, sections);
+			}
+			final ScriptInfo info = getInfo(sections);
+			synchronized (loadedScripts) {
+				loadedScripts.subtract(getInfo(old));
+				loadedScripts.add(info);
+			}
+			
+			if (Skript.logHigh())
+				Skript.info("reloaded " + numLoaded + " and removed " + removed.size() + " of the sections of '" + config.getFileName() + "'");
+			
+			return info;
+		} finally {
+			currentScript = null;
+			SkriptLogger.setNode(null);
+		}
+	}
+	
+	/**
+	 * Forgets the sections of all scripts. Must be called when all scripts are unloaded at once.
+	 */
+	final static void clearLoadedSections() {
+		synchronized (loadedSections) {
+			loadedSections.clear();
+		}
+	}
+	
 	/**
 	 * Unloads enabled scripts from the specified directory and its subdirectories.
 	 * 
@@ -606,6 +923,9 @@ final public class ScriptLoader {
 	}
 	
 	private final static ScriptInfo unloadScript_(final File script) {
+		synchronized (loadedSections) {
+			loadedSections.remove(script);
+		}
 		final ScriptInfo info = SkriptEventHandler.removeTriggers(script);
 		synchronized (loadedScripts) {
 			loadedScripts.subtract(info);
@@ -652,7 +972,7 @@ final public class ScriptLoader {
 					continue;
 				if (Skript.debug() || n.debug())
 					Skript.debug(indentation + stmt.toString(null, true));
-				items.add(stmt);
+				items.add(stmt.setLine(n.getLine()));
 				if (stmt instanceof Delay)
 					hasDelayBefore = Kleenean.TRUE;
 			} else if (n instanceof SectionNode) {
@@ -683,7 +1003,7 @@ final public class ScriptLoader {
 					if (Skript.debug() || n.debug())
 						Skript.debug(indentation + "loop " + loopedExpr.toString(null, true) + ":");
 					final Kleenean hadDelayBefore = hasDelayBefore;
-					items.add(new Loop(loopedExpr, (SectionNode) n));
+					items.add(new Loop(loopedExpr, (SectionNode) n).setLine(n.getLine()));
 					if (hadDelayBefore != Kleenean.TRUE && hasDelayBefore != Kleenean.FALSE)
 						hasDelayBefore = Kleenean.UNKNOWN;
 				} else if (StringUtils.startsWithIgnoreCase(name, "while ")) {
@@ -694,7 +1014,7 @@ final public class ScriptLoader {
 					if (Skript.debug() || n.debug())
 						Skript.debug(indentation + "while " + c.toString(null, true) + ":");
 					final Kleenean hadDelayBefore = hasDelayBefore;
-					items.add(new While(c, (SectionNode) n));
+					items.add(new While(c, (SectionNode) n).setLine(n.getLine()));
 					if (hadDelayBefore != Kleenean.TRUE && hasDelayBefore != Kleenean.FALSE)
 						hasDelayBefore = Kleenean.UNKNOWN;
 				} else if (name.equalsIgnoreCase("else")) {
@@ -733,7 +1053,7 @@ final public class ScriptLoader {
 						Skript.debug(indentation + cond.toString(null, true) + ":");
 					final Kleenean hadDelayBefore = hasDelayBefore;
 					hadDelayBeforeLastIf = hadDelayBefore;
-					items.add(new Conditional(cond, (SectionNode) n));
+					items.add(new Conditional(cond, (SectionNode) n).setLine(n.getLine()));
 					hasDelayBefore = hadDelayBefore.or(hasDelayBefore.and(Kleenean.UNKNOWN));
 				}
 			}
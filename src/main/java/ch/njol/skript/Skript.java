@@ -75,9 +75,11 @@ import ch.njol.skript.classes.data.JavaClasses;
 import ch.njol.skript.classes.data.SkriptClasses;
 import ch.njol.skript.command.Commands;
 import ch.njol.skript.doc.Documentation;
+import ch.njol.skript.entity.EntityIndex;
 import ch.njol.skript.events.EvtSkript;
 import ch.njol.skript.hooks.Hook;
 import ch.njol.skript.lang.Condition;
+import ch.njol.skript.lang.DelayScheduler;
 import ch.njol.skript.lang.Effect;
 import ch.njol.skript.lang.Expression;
 import ch.njol.skript.lang.ExpressionInfo;
@@ -627,6 +629,7 @@ public final class Skript extends JavaPlugin implements Listener {
 		SkriptEventHandler.removeAllTriggers();
 		Commands.clearCommands();
 		Functions.clearFunctions();
+		ScriptLoader.clearLoadedSections();
 	}
 	
 	/**
@@ -687,6 +690,8 @@ public final class Skript extends JavaPlugin implements Listener {
 		disableScripts();
 		
 		Bukkit.getScheduler().cancelTasks(this);
+		EntityIndex.setEnabled(false);
+		DelayScheduler.clear();
 		
 		for (final Closeable c : closeOnDisable) {
 			try {
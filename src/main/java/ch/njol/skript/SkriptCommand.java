@@ -3,6 +3,7 @@ package ch.njol.skript;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.List;
 
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
@@ -16,6 +17,9 @@ import ch.njol.skript.Updater.UpdateState;
 import ch.njol.skript.Updater.VersionInfo;
 import ch.njol.skript.classes.Converter;
 import ch.njol.skript.command.CommandHelp;
+import ch.njol.skript.lang.Trigger;
+import ch.njol.skript.lang.TriggerProfiler;
+import ch.njol.skript.lang.TriggerProfiler.Entry;
 import ch.njol.skript.localization.ArgsMessage;
 import ch.njol.skript.localization.Language;
 import ch.njol.skript.localization.PluralizingArgsMessage;
@@ -74,6 +78,10 @@ public class SkriptCommand implements CommandExecutor {
 					.add("check")
 					.add("changes")
 					.add("download")
+			).add(new CommandHelp("profile", Color.DARK_RED)
+					.add("start")
+					.add("stop")
+					.add("dump")
 			//			).add(new CommandHelp("variable", "Commands for modifying variables", ChatColor.DARK_RED)
 //					.add("set", "Creates a new variable or changes an existing one")
 //					.add("delete", "Deletes a variable")
@@ -110,6 +118,22 @@ public class SkriptCommand implements CommandExecutor {
 		Skript.message(sender, StringUtils.fixCapitalization(what));
 	}
 	
+	/**
+	 * The default number of triggers and lines listed by <tt>/skript profile dump</tt>
+	 */
+	private final static int PROFILE_DUMP_SIZE = 10;
+	
+	private final static void profileEntries(final CommandSender sender, final List<Entry> entries) {
+		for (final Entry e : entries) {
+			final Trigger t = e.item.getTrigger();
+			final File script = t == null ? null : t.getScript();
+			final String allocated = e.allocatedBytes < 0 ? "" : Language.format(NODE + ".profile.allocated", Skript.toString(e.allocatedBytes / 1024.));
+			message(sender, "profile.entry", e.invocations, Skript.toString(e.totalNanos / 1000000.), Skript.toString(e.invocations == 0 ? 0 : e.totalNanos / 1000000. / e.invocations),
+					Skript.toString(e.maxNanos / 1000000.), allocated, e.item instanceof Trigger ? ((Trigger) e.item).getName() : e.item.toString(),
+					script == null ? "<unknown>" : script.getName(), e.item.getLine());
+		}
+	}
+	
 	private final static void error(final CommandSender sender, String what, final Object... args) {
 		what = args.length == 0 ? Language.get(NODE + "." + what) : PluralizingArgsMessage.format(Language.format(NODE + "." + what, args));
 		Skript.error(sender, StringUtils.fixCapitalization(what));
@@ -151,8 +175,7 @@ public class SkriptCommand implements CommandExecutor {
 							return true;
 						}
 						reloading(sender, "script", f.getName());
-						ScriptLoader.unloadScript(f);
-						ScriptLoader.loadScripts(new File[] {f});
+						ScriptLoader.reloadScript(f);
 						reloaded(sender, r, "script", f.getName());
 					} else {
 						reloading(sender, "scripts in folder", f.getName());
@@ -397,6 +420,34 @@ public class SkriptCommand implements CommandExecutor {
 				} finally {
 					Updater.stateLock.writeLock().unlock();
 				}
+			} else if (args[0].equalsIgnoreCase("profile")) {
+				if (args[1].equalsIgnoreCase("start")) {
+					info(sender, TriggerProfiler.start() ? "profile.started" : "profile.already running");
+				} else if (args[1].equalsIgnoreCase("stop")) {
+					if (TriggerProfiler.stop())
+						info(sender, "profile.stopped", Skript.toString(TriggerProfiler.getDuration() / 1000.));
+					else
+						info(sender, "profile.not running");
+				} else if (args[1].equalsIgnoreCase("dump")) {
+					int amount = PROFILE_DUMP_SIZE;
+					if (args.length >= 3 && args[2].matches("\\d+")) {
+						final String a2 = args[2];
+						assert a2 != null;
+						amount = Utils.parseInt(a2);
+					}
+					final List<Entry> triggers = TriggerProfiler.getHottest(true, amount);
+					if (triggers.isEmpty()) {
+						info(sender, TriggerProfiler.isRunning() ? "profile.no data" : "profile.not running");
+						return true;
+					}
+					info(sender, "profile.triggers", triggers.size(), Skript.toString(TriggerProfiler.getDuration() / 1000.));
+					profileEntries(sender, triggers);
+					final List<Entry> items = TriggerProfiler.getHottest(false, amount);
+					if (!items.isEmpty()) {
+						info(sender, "profile.items", items.size());
+						profileEntries(sender, items);
+					}
+				}
 			} else if (args[0].equalsIgnoreCase("help")) {
 				skriptCommandHelp.showHelp(sender);
 			}
@@ -38,12 +38,15 @@ import ch.njol.skript.config.EnumParser;
 import ch.njol.skript.config.Option;
 import ch.njol.skript.config.OptionSection;
 import ch.njol.skript.config.SectionNode;
+import ch.njol.skript.entity.EntityIndex;
+import ch.njol.skript.lang.DelayScheduler;
 import ch.njol.skript.localization.Language;
 import ch.njol.skript.log.SkriptLogger;
 import ch.njol.skript.log.Verbosity;
 import ch.njol.skript.util.FileUtils;
 import ch.njol.skript.util.Task;
 import ch.njol.skript.util.Timespan;
+import ch.njol.skript.variables.Variables;
 import ch.njol.util.Setter;
 
 /**
@@ -92,6 +95,15 @@ public abstract class SkriptConfig {
 	// everything handled by Variables
 	public final static OptionSection databases = new OptionSection("databases");
 	
+	public final static Option<Timespan> variableChangesSaveInterval = new Option<Timespan>("variable changes save interval", Timespan.fromTicks(1))
+			.optional(true)
+			.setter(new Setter<Timespan>() {
+				@Override
+				public void set(final Timespan t) {
+					Variables.setSaveInterval(t.getTicks());
+				}
+			});
+	
 	public final static Option<Boolean> usePlayerUUIDsInVariableNames = new Option<Boolean>("use player UUIDs in variable names", false); // TODO change to true later (as well as in the default config)
 	
 	@SuppressWarnings("null")
@@ -158,6 +170,24 @@ public abstract class SkriptConfig {
 	public final static Option<Boolean> keepConfigsLoaded = new Option<Boolean>("keep configs loaded", false)
 			.optional(true);
 	
+	public final static Option<Boolean> indexEntities = new Option<Boolean>("index entities", false)
+			.optional(true)
+			.setter(new Setter<Boolean>() {
+				@Override
+				public void set(final Boolean b) {
+					EntityIndex.setEnabled(b);
+				}
+			});
+	
+	public final static Option<Integer> delayBudget = new Option<Integer>("delay budget", 20)
+			.optional(true)
+			.setter(new Setter<Integer>() {
+				@Override
+				public void set(final Integer ms) {
+					DelayScheduler.setBudget(ms * 1000000L);
+				}
+			});
+	
 	/**
 	 * This should only be used in special cases
 	 */
@@ -23,12 +23,14 @@ package ch.njol.skript;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
+import java.util.Map.Entry;
 import java.util.Set;
 
 import org.bukkit.Bukkit;
@@ -43,10 +45,15 @@ import org.bukkit.plugin.EventExecutor;
 import org.eclipse.jdt.annotation.Nullable;
 
 import ch.njol.skript.ScriptLoader.ScriptInfo;
+import ch.njol.skript.aliases.ItemData;
+import ch.njol.skript.aliases.ItemType;
 import ch.njol.skript.command.Commands;
 import ch.njol.skript.lang.SelfRegisteringSkriptEvent;
+import ch.njol.skript.lang.SkriptEvent;
 import ch.njol.skript.lang.Trigger;
+import ch.njol.skript.lang.TypeFilteredEvent;
 import ch.njol.skript.lang.function.Functions;
+import ch.njol.util.coll.CollectionUtils;
 
 /**
  * @author Peter Güttinger
@@ -58,42 +65,178 @@ public abstract class SkriptEventHandler {
 	
 	private final static List<Trigger> selfRegisteredTriggers = new ArrayList<Trigger>();
 	
-	private final static Iterator<Trigger> getTriggers(final Class<? extends Event> event) {
-		return new Iterator<Trigger>() {
-			@Nullable
-			private Class<?> e = event;
-			@Nullable
-			private Iterator<Trigger> current = null;
+	/**
+	 * The triggers to check for a concrete event class.
+	 * <p>
+	 * Triggers of {@link TypeFilteredEvent}s are additionally indexed by the type ids they apply to, and for each id by the data values they can apply to, so that an event only
+	 * has to check the triggers that can apply to the type of its block or item. Only triggers of a single TypeFilteredEvent class are indexed per event class, which is always the
+	 * case for Skript's own events.
+	 */
+	private final static class EventTriggers {
+		
+		/**
+		 * Bits 0 to 15 represent the data values 0 to 15, bit 16 all other data values
+		 */
+		private final static int ALL_DATA = 0x1FFFF;
+		
+		/**
+		 * Types with higher ids are not indexed, which makes their triggers be checked for every event
+		 */
+		private final static int MAX_ID = 4095;
+		
+		/**
+		 * All triggers in the order they have to be checked
+		 */
+		final Trigger[] triggers;
+		
+		/**
+		 * Used to get the type of an event, or null if no trigger is indexed
+		 */
+		@Nullable
+		final TypeFilteredEvent filter;
+		
+		/**
+		 * The triggers to check for events whose type is not in {@link #byId}, i.e. all triggers that are not indexed
+		 */
+		final Trigger[] unfiltered;
+		
+		/**
+		 * The triggers to check for each type id, i.e. all triggers that are not indexed and the indexed triggers that apply to the id, or null for ids no indexed trigger applies to
+		 */
+		final Trigger[][] byId;
+		
+		/**
+		 * The data values (see {@link #ALL_DATA}) each trigger of {@link #byId} applies to
+		 */
+		final int[][] dataById;
+		
+		EventTriggers(final List<Trigger> ts) {
+			triggers = ts.toArray(new Trigger[ts.size()]);
 			
-			@Override
-			public boolean hasNext() {
-				Iterator<Trigger> current = this.current;
-				Class<?> e = this.e;
-				while (current == null || !current.hasNext()) {
-					if (e == null || !Event.class.isAssignableFrom(e))
-						return false;
-					final List<Trigger> l = triggers.get(e);
-					this.current = current = l == null ? null : l.iterator();
-					this.e = e = e.getSuperclass();
+			TypeFilteredEvent filter = null;
+			final List<Map<Integer, Integer>> masks = new ArrayList<Map<Integer, Integer>>(triggers.length);
+			final Set<Integer> ids = new HashSet<Integer>();
+			for (final Trigger t : triggers) {
+				final SkriptEvent e = t.getEvent();
+				Map<Integer, Integer> m = null;
+				if (e instanceof TypeFilteredEvent && (filter == null || filter.getClass() == e.getClass())) {
+					m = getDataMasks((TypeFilteredEvent) e);
+					if (m != null) {
+						filter = (TypeFilteredEvent) e;
+						ids.addAll(m.keySet());
+					}
 				}
-				return true;
+				masks.add(m);
 			}
+			this.filter = filter;
 			
-			@Override
-			public Trigger next() {
-				final Iterator<Trigger> current = this.current;
-				if (current == null || !hasNext())
-					throw new NoSuchElementException();
-				final Trigger next = current.next();
-				assert next != null;
-				return next;
+			final List<Trigger> unfiltered = new ArrayList<Trigger>();
+			for (int i = 0; i < triggers.length; i++) {
+				if (masks.get(i) == null)
+					unfiltered.add(triggers[i]);
 			}
+			this.unfiltered = unfiltered.size() == triggers.length ? triggers : unfiltered.toArray(new Trigger[unfiltered.size()]);
 			
-			@Override
-			public void remove() {
-				throw new UnsupportedOperationException();
+			final int length = ids.isEmpty() ? 0 : Collections.max(ids) + 1;
+			byId = new Trigger[length][];
+			dataById = new int[length][];
+			for (final int id : ids) {
+				final List<Trigger> l = new ArrayList<Trigger>();
+				final List<Integer> data = new ArrayList<Integer>();
+				for (int i = 0; i < triggers.length; i++) {
+					final Map<Integer, Integer> m = masks.get(i);
+					final Integer mask = m == null ? Integer.valueOf(ALL_DATA) : m.get(id);
+					if (mask == null)
+						continue;
+					l.add(triggers[i]);
+					data.add(mask);
+				}
+				byId[id] = l.toArray(new Trigger[l.size()]);
+				final int[] d = new int[data.size()];
+				for (int i = 0; i < d.length; i++)
+					d[i] = data.get(i);
+				dataById[id] = d;
+			}
+		}
+		
+		/**
+		 * @return The data values each type id of the given event's types applies to, or null if the event's triggers can't be indexed
+		 */
+		@Nullable
+		private final static Map<Integer, Integer> getDataMasks(final TypeFilteredEvent e) {
+			final ItemType[] types = e.getFilterTypes();
+			if (types == null)
+				return null;
+			final Map<Integer, Integer> r = new HashMap<Integer, Integer>();
+			for (final ItemType t : types) {
+				for (final ItemData d : t.getTypes()) {
+					final int id = d.getId();
+					if (id < 0 || id > MAX_ID)
+						return null;
+					final Integer old = r.get(id);
+					r.put(id, (old == null ? 0 : old) | getDataMask(d));
+				}
 			}
-		};
+			return r;
+		}
+		
+		private final static int getDataMask(final ItemData d) {
+			if (d.dataMin == -1)
+				return ALL_DATA;
+			int mask = 0;
+			for (int data = d.dataMin; data <= d.dataMax && data <= 15; data++)
+				mask |= 1 << data;
+			if (d.dataMax > 15)
+				mask |= 1 << 16;
+			return mask;
+		}
+		
+		final static int getDataBit(final short data) {
+			return 0 <= data && data <= 15 ? 1 << data : 1 << 16;
+		}
+		
+	}
+	
+	private final static EventTriggers noTriggers = new EventTriggers(new ArrayList<Trigger>());
+	
+	/**
+	 * Maps concrete event classes to all triggers that have to be checked for them, i.e. the triggers of the class and all its superclasses in that order. Filled lazily, and
+	 * replaced with an empty map whenever {@link #triggers} changes.
+	 * <p>
+	 * The map is never modified after being published (copy on write) as events can be called asynchronously.
+	 */
+	private static volatile IdentityHashMap<Class<?>, EventTriggers> dispatch = new IdentityHashMap<Class<?>, EventTriggers>();
+	
+	private final static EventTriggers getTriggers(final Class<? extends Event> event) {
+		final EventTriggers ts = dispatch.get(event);
+		if (ts != null)
+			return ts;
+		return buildTriggers(event);
+	}
+	
+	private final static synchronized EventTriggers buildTriggers(final Class<? extends Event> event) {
+		final IdentityHashMap<Class<?>, EventTriggers> dispatch = SkriptEventHandler.dispatch;
+		EventTriggers ts = dispatch.get(event);
+		if (ts != null)
+			return ts;
+		final List<Trigger> l = new ArrayList<Trigger>();
+		for (Class<?> e = event; e != null && Event.class.isAssignableFrom(e); e = e.getSuperclass()) {
+			final List<Trigger> t = triggers.get(e);
+			if (t != null)
+				l.addAll(t);
+		}
+		ts = l.isEmpty() ? noTriggers : new EventTriggers(l);
+		final IdentityHashMap<Class<?>, EventTriggers> d = new IdentityHashMap<Class<?>, EventTriggers>(dispatch);
+		d.put(event, ts);
+		SkriptEventHandler.dispatch = d;
+		return ts;
+	}
+	
+	/**
+	 * Must be called whenever {@link #triggers} is modified.
+	 */
+	private final static synchronized void invalidateDispatch() {
+		dispatch = new IdentityHashMap<Class<?>, EventTriggers>();
 	}
 	
 	@Nullable
@@ -113,23 +256,43 @@ public abstract class SkriptEventHandler {
 	
 	static void check(final Event e) {
 		@SuppressWarnings("null")
-		Iterator<Trigger> ts = getTriggers(e.getClass());
-		if (!ts.hasNext())
+		final EventTriggers et = getTriggers(e.getClass());
+		if (et.triggers.length == 0)
 			return;
 		
+		// only check the triggers that can apply to the type of the event's block or item
+		Trigger[] ts = et.triggers;
+		int[] data = null;
+		int dataBit = 0;
+		final TypeFilteredEvent filter = et.filter;
+		if (filter != null) {
+			final int key = filter.getFilterKey(e);
+			if (key != -1) {
+				final int id = key >>> 16;
+				if (id < et.byId.length && et.byId[id] != null) {
+					ts = et.byId[id];
+					data = et.dataById[id];
+					dataBit = EventTriggers.getDataBit((short) key);
+				} else {
+					ts = et.unfiltered;
+				}
+				if (ts.length == 0)
+					return;
+			}
+		}
+		
 		if (Skript.logVeryHigh()) {
 			boolean hasTrigger = false;
-			while (ts.hasNext()) {
-				if (ts.next().getEvent().check(e)) {
+			for (int i = 0; i < ts.length; i++) {
+				if (data != null && (data[i] & dataBit) == 0)
+					continue;
+				if (ts[i].getEvent().check(e)) {
 					hasTrigger = true;
 					break;
 				}
 			}
 			if (!hasTrigger)
 				return;
-			final Class<? extends Event> c = e.getClass();
-			assert c != null;
-			ts = getTriggers(c);
 			
 			logEventStart(e);
 		}
@@ -142,8 +305,10 @@ public abstract class SkriptEventHandler {
 			return;
 		}
 		
-		while (ts.hasNext()) {
-			final Trigger t = ts.next();
+		for (int i = 0; i < ts.length; i++) {
+			if (data != null && (data[i] & dataBit) == 0)
+				continue;
+			final Trigger t = ts[i];
 			if (!t.getEvent().check(e))
 				continue;
 			logTriggerStart(t);
@@ -192,6 +357,7 @@ public abstract class SkriptEventHandler {
 				triggers.put(e, ts = new ArrayList<Trigger>());
 			ts.add(trigger);
 		}
+		invalidateDispatch();
 	}
 	
 	/**
@@ -232,6 +398,8 @@ public abstract class SkriptEventHandler {
 			}
 		}
 		
+		invalidateDispatch();
+		
 		info.commands = Commands.unregisterCommands(script);
 		
 		info.functions = Functions.clearFunctions(script);
@@ -239,8 +407,66 @@ public abstract class SkriptEventHandler {
 		return info;
 	}
 	
+	/**
+	 * Replaces triggers of a script with new ones at once, i.e. an event that is called from another thread while this method is running sees either all old or all new
+	 * triggers.
+	 * <p>
+	 * All lists must have the same size. A new trigger takes the place of the old trigger at the same index in the events they have in common, and either trigger can be
+	 * null to only add or only remove a trigger.
+	 * 
+	 * @param oldTriggers
+	 * @param newTriggers
+	 * @param newEvents The events to register the new triggers for, ignored for self-registering triggers
+	 */
+	static synchronized void replaceTriggers(final List<Trigger> oldTriggers, final List<Trigger> newTriggers, final List<Class<? extends Event>[]> newEvents) {
+		assert oldTriggers.size() == newTriggers.size() && newTriggers.size() == newEvents.size();
+		for (int i = 0; i < oldTriggers.size(); i++) {
+			final Trigger o = oldTriggers.get(i), n = newTriggers.get(i);
+			final Class<? extends Event>[] events = n == null || n.getEvent() instanceof SelfRegisteringSkriptEvent ? null : newEvents.get(i);
+			if (o != null) {
+				if (o.getEvent() instanceof SelfRegisteringSkriptEvent) {
+					((SelfRegisteringSkriptEvent) o.getEvent()).unregister(o);
+					selfRegisteredTriggers.remove(o);
+				} else {
+					final Iterator<Entry<Class<? extends Event>, List<Trigger>>> iter = triggers.entrySet().iterator();
+					while (iter.hasNext()) {
+						final Entry<Class<? extends Event>, List<Trigger>> e = iter.next();
+						final List<Trigger> ts = e.getValue();
+						final int index = ts.indexOf(o);
+						if (index == -1)
+							continue;
+						if (events != null && CollectionUtils.contains(events, e.getKey())) {
+							ts.set(index, n);
+						} else {
+							ts.remove(index);
+							if (ts.isEmpty())
+								iter.remove();
+						}
+					}
+				}
+			}
+			if (n != null) {
+				if (n.getEvent() instanceof SelfRegisteringSkriptEvent) {
+					((SelfRegisteringSkriptEvent) n.getEvent()).register(n);
+					selfRegisteredTriggers.add(n);
+				} else {
+					assert events != null;
+					for (final Class<? extends Event> e : events) {
+						List<Trigger> ts = triggers.get(e);
+						if (ts == null)
+							triggers.put(e, ts = new ArrayList<Trigger>());
+						if (!ts.contains(n))
+							ts.add(n);
+					}
+				}
+			}
+		}
+		invalidateDispatch();
+	}
+	
 	static void removeAllTriggers() {
 		triggers.clear();
+		invalidateDispatch();
 		for (final Trigger t : selfRegisteredTriggers)
 			((SelfRegisteringSkriptEvent) t.getEvent()).unregisterAll();
 		selfRegisteredTriggers.clear();
@@ -25,6 +25,7 @@ import java.io.File;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -464,6 +465,7 @@ public abstract class Commands {
 		final ScriptCommand c;
 		try {
 			c = new ScriptCommand(config, command, "" + pattern.toString(), currentArguments, description, usage, aliases, permission, permissionMessage, executableBy, ScriptLoader.loadItems(trigger));
+			c.trigger.setLine(node.getLine());
 		} finally {
 			Commands.currentArguments = null;
 		}
@@ -511,6 +513,20 @@ public abstract class Commands {
 		return numCommands;
 	}
 	
+	/**
+	 * Unregisters a single command, e.g. to replace it with a changed version.
+	 * 
+	 * @param command
+	 */
+	public static void unregisterCommand(final ScriptCommand command) {
+		command.unregisterHelp();
+		if (commandMap != null) {
+			assert cmKnownCommands != null;// && cmAliases != null;
+			command.unregister(commandMap, cmKnownCommands, cmAliases);
+		}
+		commands.values().removeAll(Collections.singleton(command));
+	}
+	
 	private static boolean registeredListeners = false;
 	
 	public final static void registerListeners() {
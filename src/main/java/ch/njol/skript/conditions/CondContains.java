@@ -28,7 +28,6 @@ import org.eclipse.jdt.annotation.Nullable;
 import ch.njol.skript.Skript;
 import ch.njol.skript.SkriptConfig;
 import ch.njol.skript.aliases.ItemType;
-import ch.njol.skript.classes.Comparator.Relation;
 import ch.njol.skript.doc.Description;
 import ch.njol.skript.doc.Examples;
 import ch.njol.skript.doc.Name;
@@ -39,7 +38,6 @@ import ch.njol.skript.lang.SkriptParser.ParseResult;
 import ch.njol.skript.lang.Variable;
 import ch.njol.skript.log.ParseLogHandler;
 import ch.njol.skript.log.SkriptLogger;
-import ch.njol.skript.registrations.Comparators;
 import ch.njol.util.Checker;
 import ch.njol.util.Kleenean;
 import ch.njol.util.StringUtils;
@@ -97,36 +95,36 @@ public class CondContains extends Condition {
 	
 	@Override
 	public boolean check(final Event e) {
+		if (containers instanceof Variable && !containers.isSingle()) {
+			final Variable<?> list = (Variable<?>) containers;
+			return items.check(e, new Checker<Object>() {
+				@Override
+				public boolean check(final Object item) {
+					return list.contains(e, item);
+				}
+			}, isNegated());
+		}
 		return containers.check(e, new Checker<Object>() {
 			@Override
 			public boolean check(final Object container) {
-				if (containers instanceof Variable && !containers.isSingle()) {
+				if (container instanceof Inventory) {
+					final Inventory invi = (Inventory) container;
 					return items.check(e, new Checker<Object>() {
 						@Override
-						public boolean check(final Object item) {
-							return Relation.EQUAL.is(Comparators.compare(container, item));
+						public boolean check(final Object type) {
+							return type instanceof ItemType && ((ItemType) type).isContainedIn(invi);
+						}
+					}, isNegated());
+				} else if (container instanceof String) {
+					final String s = (String) container;
+					return items.check(e, new Checker<Object>() {
+						@Override
+						public boolean check(final Object type) {
+							return type instanceof String && StringUtils.contains(s, (String) type, SkriptConfig.caseSensitive.value());
 						}
 					}, isNegated());
-				} else {
-					if (container instanceof Inventory) {
-						final Inventory invi = (Inventory) container;
-						return items.check(e, new Checker<Object>() {
-							@Override
-							public boolean check(final Object type) {
-								return type instanceof ItemType && ((ItemType) type).isContainedIn(invi);
-							}
-						}, isNegated());
-					} else if (container instanceof String) {
-						final String s = (String) container;
-						return items.check(e, new Checker<Object>() {
-							@Override
-							public boolean check(final Object type) {
-								return type instanceof String && StringUtils.contains(s, (String) type, SkriptConfig.caseSensitive.value());
-							}
-						}, isNegated());
-					}
-					return false;
 				}
+				return false;
 			}
 		});
 	}
@@ -21,11 +21,6 @@
 
 package ch.njol.skript.effects;
 
-import java.util.Collections;
-import java.util.Set;
-import java.util.WeakHashMap;
-
-import org.bukkit.Bukkit;
 import org.bukkit.event.Event;
 import org.eclipse.jdt.annotation.Nullable;
 
@@ -34,7 +29,9 @@ import ch.njol.skript.doc.Description;
 import ch.njol.skript.doc.Examples;
 import ch.njol.skript.doc.Name;
 import ch.njol.skript.doc.Since;
+import ch.njol.skript.lang.DelayScheduler;
 import ch.njol.skript.lang.Effect;
+import ch.njol.skript.lang.ExecutionFrame;
 import ch.njol.skript.lang.Expression;
 import ch.njol.skript.lang.SkriptParser.ParseResult;
 import ch.njol.skript.lang.TriggerItem;
@@ -69,30 +66,27 @@ public class Delay extends Effect {
 	@Nullable
 	protected TriggerItem walk(final Event e) {
 		debug(e, true);
-		final long start = Skript.debug() ? System.nanoTime() : 0;
 		final TriggerItem next = getNext();
 		if (next != null) {
-			delayed.add(e);
+			addDelayedEvent(e);
 			final Timespan d = duration.getSingle(e);
 			if (d == null)
 				return null;
-			Bukkit.getScheduler().scheduleSyncDelayedTask(Skript.getInstance(), new Runnable() {
-				@Override
-				public void run() {
-					if (Skript.debug())
-						Skript.info(getIndentation() + "... continuing after " + (System.nanoTime() - start) / 1000000000. + "s");
-					TriggerItem.walk(next, e);
-				}
-			}, d.getTicks());
+			DelayScheduler.schedule(this, next, e, d.getTicks());
 		}
 		return null;
 	}
 	
-	@SuppressWarnings("null")
-	protected final static Set<Event> delayed = Collections.newSetFromMap(new WeakHashMap<Event, Boolean>());
+	/**
+	 * Marks the given event as delayed, i.e. the triggers handling it will continue after the event is over.
+	 */
+	protected final static void addDelayedEvent(final Event e) {
+		ExecutionFrame.getOrCreate(e).setDelayed();
+	}
 	
 	public final static boolean isDelayed(final Event e) {
-		return delayed.contains(e);
+		final ExecutionFrame frame = ExecutionFrame.get(e);
+		return frame != null && frame.isDelayed();
 	}
 	
 	@Override
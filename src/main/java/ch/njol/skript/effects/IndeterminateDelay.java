@@ -23,11 +23,10 @@ package ch.njol.skript.effects;
 
 import static ch.njol.skript.effects.Delay.*;
 
-import org.bukkit.Bukkit;
 import org.bukkit.event.Event;
 import org.eclipse.jdt.annotation.Nullable;
 
-import ch.njol.skript.Skript;
+import ch.njol.skript.lang.DelayScheduler;
 import ch.njol.skript.lang.TriggerItem;
 import ch.njol.skript.util.Timespan;
 
@@ -40,21 +39,13 @@ public class IndeterminateDelay extends Delay {
 	@Nullable
 	protected TriggerItem walk(final Event e) {
 		debug(e, true);
-		final long start = Skript.debug() ? System.nanoTime() : 0;
 		final TriggerItem next = getNext();
 		if (next != null) {
-			delayed.add(e);
+			addDelayedEvent(e);
 			final Timespan d = duration.getSingle(e);
 			if (d == null)
 				return null;
-			Bukkit.getScheduler().scheduleSyncDelayedTask(Skript.getInstance(), new Runnable() {
-				@Override
-				public void run() {
-					if (Skript.debug())
-						Skript.info(getIndentation() + "... continuing after " + (System.nanoTime() - start) / 1000000000. + "s");
-					TriggerItem.walk(next, e);
-				}
-			}, d.getTicks());
+			DelayScheduler.schedule(this, next, e, d.getTicks());
 		}
 		return null;
 	}
@@ -431,7 +431,7 @@ public abstract class EntityData<E extends Entity> implements SyntaxElement, Ygg
 		assert worlds != null && worlds.length > 0 : Arrays.toString(worlds);
 		final List<E> list = new ArrayList<E>();
 		for (final World w : worlds) {
-			for (final E e : w.getEntitiesByClass(getType()))
+			for (final E e : EntityIndex.getEntities(w, getType()))
 				if (match(e))
 					list.add(e);
 		}
@@ -467,7 +467,7 @@ public abstract class EntityData<E extends Entity> implements SyntaxElement, Ygg
 		if (worlds == null)
 			worlds = Bukkit.getWorlds().toArray(new World[0]);
 		for (final World w : worlds) {
-			for (final E e : w.getEntitiesByClass(type)) {
+			for (final E e : EntityIndex.getEntities(w, type)) {
 				for (final EntityData<?> t : types) {
 					if (t.isInstance(e)) {
 						list.add(e);
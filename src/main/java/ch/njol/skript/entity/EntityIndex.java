@@ -0,0 +1,439 @@
+/*
+ *   This file is part of Skript.
+ * 
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.entity;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Boat;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.FallingBlock;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.entity.Minecart;
+import org.bukkit.entity.Player;
+import org.bukkit.entity.Projectile;
+import org.bukkit.entity.TNTPrimed;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.CreatureSpawnEvent;
+import org.bukkit.event.entity.EntityDeathEvent;
+import org.bukkit.event.entity.EntityPortalEvent;
+import org.bukkit.event.entity.EntityTeleportEvent;
+import org.bukkit.event.entity.ItemSpawnEvent;
+import org.bukkit.event.entity.ProjectileLaunchEvent;
+import org.bukkit.event.vehicle.VehicleCreateEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.Skript;
+import ch.njol.skript.bukkitutil.PlayerUtils;
+import ch.njol.skript.util.Task;
+
+/**
+ * An optional index of all non-player entities by world, chunk and type, enabled with the option 'index entities' in the config.
+ * <p>
+ * Entities are added and removed when they spawn, die or their chunk is (un)loaded, moved when they are teleported, and all positions are synchronised with the worlds every
+ * {@link #SYNC_PERIOD} ticks, which also picks up entities that appeared or vanished without an event. Radius queries thus search around the given radius as far as an
+ * entity can have walked since the last synchronisation, and then check the actual world and distance. Entities that can move faster than that, e.g. projectiles, minecarts
+ * or anything that was flying around at the last synchronisation, are not indexed by chunk but checked by every radius query. Players are never indexed but taken from the
+ * list of online players.
+ * <p>
+ * The index is only used on Bukkit's main thread, other threads (and the index while it is disabled) fall back to {@link World#getEntitiesByClass(Class)}.
+ * 
+ * @author Peter Güttinger
+ */
+public final class EntityIndex {
+	
+	private EntityIndex() {}
+	
+	/**
+	 * How often the positions of all entities are synchronised, in ticks
+	 */
+	public final static int SYNC_PERIOD = 10;
+	
+	/**
+	 * The maximum speed in blocks per tick at which entities are assumed to move between synchronisations. Entities that are faster are {@link #isFast(Entity) fast}.
+	 */
+	final static double MAX_SPEED = 1;
+	
+	/**
+	 * The 'chunk' of fast entities. Not a valid chunk as worlds are much smaller than 2<sup>31</sup> chunks.
+	 */
+	final static long FAST = key(Integer.MIN_VALUE, 0);
+	
+	final static class WorldIndex {
+		final Map<Long, Set<Entity>> chunks = new HashMap<Long, Set<Entity>>();
+		/**
+		 * Indexed by the runtime class of the entities
+		 */
+		final Map<Class<?>, Set<Entity>> types = new HashMap<Class<?>, Set<Entity>>();
+		final Map<Entity, Long> positions = new HashMap<Entity, Long>();
+		
+		void add(final Entity e, final long chunk) {
+			final Long old = positions.put(e, chunk);
+			if (old != null) {
+				if (old.longValue() == chunk)
+					return;
+				removeFromChunk(e, old);
+			} else {
+				Set<Entity> t = types.get(e.getClass());
+				if (t == null)
+					types.put(e.getClass(), t = new HashSet<Entity>());
+				t.add(e);
+			}
+			Set<Entity> c = chunks.get(chunk);
+			if (c == null)
+				chunks.put(chunk, c = new HashSet<Entity>());
+			c.add(e);
+		}
+		
+		void remove(final Entity e) {
+			final Long old = positions.remove(e);
+			if (old == null)
+				return;
+			removeFromChunk(e, old);
+			final Set<Entity> t = types.get(e.getClass());
+			if (t != null) {
+				t.remove(e);
+				if (t.isEmpty())
+					types.remove(e.getClass());
+			}
+		}
+		
+		private void removeFromChunk(final Entity e, final Long chunk) {
+			final Set<Entity> c = chunks.get(chunk);
+			if (c != null) {
+				c.remove(e);
+				if (c.isEmpty())
+					chunks.remove(chunk);
+			}
+		}
+		
+		/**
+		 * Adds all valid entities of the given type which are still in this index' world to the given list.
+		 */
+		@SuppressWarnings("unchecked")
+		<E extends Entity> void getEntities(final World world, final Class<E> type, final List<E> r) {
+			for (final Entry<Class<?>, Set<Entity>> t : types.entrySet()) {
+				if (!type.isAssignableFrom(t.getKey()))
+					continue;
+				for (final Entity e : t.getValue()) {
+					if (e.isValid() && e.getWorld() == world)
+						r.add((E) e);
+				}
+			}
+		}
+		
+		/**
+		 * Adds all valid entities of the given type within the given radius of the given location to the given list.
+		 * 
+		 * @param margin How far entities may have moved since they were indexed, in blocks
+		 */
+		@SuppressWarnings("unchecked")
+		<E extends Entity> void getNearbyEntities(final Location center, final double radius, final double margin, final Class<? extends E> type, final @Nullable Entity exclude, final List<E> r) {
+			final World world = center.getWorld();
+			final double radiusSquared = radius * radius * Skript.EPSILON_MULT;
+			final int minX = (int) Math.floor(center.getX() - radius - margin) >> 4, maxX = (int) Math.floor(center.getX() + radius + margin) >> 4;
+			final int minZ = (int) Math.floor(center.getZ() - radius - margin) >> 4, maxZ = (int) Math.floor(center.getZ() + radius + margin) >> 4;
+			final Iterator<Set<Entity>> cs;
+			if ((long) (maxX - minX + 1) * (maxZ - minZ + 1) > chunks.size()) {
+				cs = chunks.values().iterator();
+			} else {
+				final List<Set<Entity>> l = new ArrayList<Set<Entity>>();
+				for (int x = minX; x <= maxX; x++) {
+					for (int z = minZ; z <= maxZ; z++) {
+						final Set<Entity> c = chunks.get(key(x, z));
+						if (c != null)
+							l.add(c);
+					}
+				}
+				final Set<Entity> fast = chunks.get(FAST);
+				if (fast != null)
+					l.add(fast);
+				cs = l.iterator();
+			}
+			while (cs.hasNext()) {
+				for (final Entity e : cs.next()) {
+					if (e == exclude || !type.isInstance(e) || !e.isValid() || e.getWorld() != world)
+						continue;
+					if (e.getLocation().distanceSquared(center) <= radiusSquared)
+						r.add((E) e);
+				}
+			}
+		}
+	}
+	
+	private final static Map<World, WorldIndex> worlds = new HashMap<World, WorldIndex>();
+	
+	private static boolean enabled = false;
+	
+	@Nullable
+	private static Task syncTask = null;
+	
+	/**
+	 * {@link System#nanoTime()} of the last synchronisation
+	 */
+	private static long lastSync = 0;
+	
+	private final static Listener listener = new Listener() {
+		@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+		public void onCreatureSpawn(final CreatureSpawnEvent e) {
+			add(e.getEntity());
+		}
+		
+		@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+		public void onItemSpawn(final ItemSpawnEvent e) {
+			add(e.getEntity());
+		}
+		
+		@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+		public void onProjectileLaunch(final ProjectileLaunchEvent e) {
+			add(e.getEntity());
+		}
+		
+		@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+		public void onVehicleCreate(final VehicleCreateEvent e) {
+			add(e.getVehicle());
+		}
+		
+		@EventHandler(priority = EventPriority.MONITOR)
+		public void onDeath(final EntityDeathEvent e) {
+			final LivingEntity en = e.getEntity();
+			final WorldIndex w = worlds.get(en.getWorld());
+			if (w != null)
+				w.remove(en);
+		}
+		
+		@EventHandler(priority = EventPriority.MONITOR)
+		public void onChunkLoad(final ChunkLoadEvent e) {
+			final Chunk c = e.getChunk();
+			final WorldIndex w = getIndex(c.getWorld());
+			final long chunk = key(c.getX(), c.getZ());
+			for (final Entity en : c.getEntities()) {
+				if (!(en instanceof Player))
+					w.add(en, chunk);
+			}
+		}
+		
+		@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+		public void onChunkUnload(final ChunkUnloadEvent e) {
+			final Chunk c = e.getChunk();
+			final WorldIndex w = worlds.get(c.getWorld());
+			if (w == null)
+				return;
+			for (final Entity en : c.getEntities())
+				w.remove(en);
+			// entities that were last seen in this chunk but have moved out of it are found by the next synchronisation
+		}
+		
+		@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+		public void onTeleport(final EntityTeleportEvent e) {
+			teleported(e.getEntity(), e.getTo());
+		}
+		
+		// has its own handler list, i.e. is not passed to onTeleport
+		@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+		public void onPortal(final EntityPortalEvent e) {
+			teleported(e.getEntity(), e.getTo());
+		}
+		
+		@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+		public void onWorldUnload(final WorldUnloadEvent e) {
+			worlds.remove(e.getWorld());
+		}
+	};
+	
+	/**
+	 * Enables or disables the index. Must be called on Bukkit's main thread while Skript is enabled.
+	 * 
+	 * @param enable
+	 */
+	public static void setEnabled(final boolean enable) {
+		if (enable == enabled)
+			return;
+		enabled = enable;
+		if (enable) {
+			Bukkit.getPluginManager().registerEvents(listener, Skript.getInstance());
+			sync();
+			syncTask = new Task(Skript.getInstance(), SYNC_PERIOD, SYNC_PERIOD) {
+				@Override
+				public void run() {
+					sync();
+				}
+			};
+		} else {
+			HandlerList.unregisterAll(listener);
+			final Task t = syncTask;
+			if (t != null)
+				t.cancel();
+			syncTask = null;
+			worlds.clear();
+		}
+	}
+	
+	/**
+	 * @return Whether the index is enabled and can be used from the current thread
+	 */
+	public static boolean isAvailable() {
+		return enabled && Bukkit.isPrimaryThread();
+	}
+	
+	final static long key(final int chunkX, final int chunkZ) {
+		return (long) chunkX << 32 | chunkZ & 0xFFFFFFFFL;
+	}
+	
+	final static WorldIndex getIndex(final World world) {
+		WorldIndex w = worlds.get(world);
+		if (w == null)
+			worlds.put(world, w = new WorldIndex());
+		return w;
+	}
+	
+	/**
+	 * @return Whether the given entity might move further than {@link #MAX_SPEED} blocks per tick until the next synchronisation
+	 */
+	final static boolean isFast(final Entity e) {
+		if (e instanceof Projectile || e instanceof Minecart || e instanceof Boat || e instanceof FallingBlock || e instanceof TNTPrimed)
+			return true;
+		return e.getVelocity().lengthSquared() > MAX_SPEED * MAX_SPEED;
+	}
+	
+	final static long chunk(final Entity e, final Location l) {
+		return isFast(e) ? FAST : key(l.getBlockX() >> 4, l.getBlockZ() >> 4);
+	}
+	
+	final static void add(final Entity e) {
+		if (e instanceof Player)
+			return;
+		final Location l = e.getLocation();
+		getIndex(l.getWorld()).add(e, chunk(e, l));
+	}
+	
+	/**
+	 * Moves an entity that is about to be teleported to its destination.
+	 * 
+	 * @param e
+	 * @param to The destination, or null if unknown, in which case the entity is only removed and will be found again by the next synchronisation.
+	 */
+	final static void teleported(final Entity e, final @Nullable Location to) {
+		if (e instanceof Player)
+			return;
+		final WorldIndex from = worlds.get(e.getWorld());
+		if (from != null)
+			from.remove(e);
+		if (to != null && to.getWorld() != null)
+			getIndex(to.getWorld()).add(e, chunk(e, to));
+	}
+	
+	/**
+	 * Updates the chunks of all entities, adds entities that were not yet indexed and removes those that no longer exist.
+	 */
+	final static void sync() {
+		lastSync = System.nanoTime();
+		final Set<World> loaded = new HashSet<World>(Bukkit.getWorlds());
+		worlds.keySet().retainAll(loaded);
+		for (final World world : loaded) {
+			final WorldIndex w = getIndex(world);
+			final Set<Entity> old = new HashSet<Entity>(w.positions.keySet());
+			for (final Entity e : world.getEntities()) {
+				if (e instanceof Player)
+					continue;
+				old.remove(e);
+				w.add(e, chunk(e, e.getLocation()));
+			}
+			for (final Entity e : old)
+				w.remove(e);
+		}
+	}
+	
+	/**
+	 * @param world
+	 * @param type
+	 * @return All entities of the given type in the given world, including players. Uses the index if it is available.
+	 */
+	@SuppressWarnings({"unchecked", "null"})
+	public static <E extends Entity> Collection<? extends E> getEntities(final World world, final Class<E> type) {
+		if (!isAvailable())
+			return world.getEntitiesByClass(type);
+		final List<E> r = new ArrayList<E>();
+		if (type.isAssignableFrom(Player.class)) {
+			for (final Player p : PlayerUtils.getOnlinePlayers()) {
+				if (p.getWorld() == world)
+					r.add((E) p);
+			}
+		}
+		if (type == Player.class)
+			return r;
+		final WorldIndex w = worlds.get(world);
+		if (w != null)
+			w.getEntities(world, type, r);
+		return r;
+	}
+	
+	/**
+	 * @param center
+	 * @param radius
+	 * @param type
+	 * @param exclude An entity to exclude from the result, usually the entity at the center
+	 * @return All entities of the given type within the given radius of the given location, including players, or null if the index is not available.
+	 */
+	@SuppressWarnings("unchecked")
+	@Nullable
+	public static <E extends Entity> List<E> getNearbyEntities(final Location center, final double radius, final Class<? extends E> type, final @Nullable Entity exclude) {
+		if (!isAvailable())
+			return null;
+		final World world = center.getWorld();
+		final double radiusSquared = radius * radius * Skript.EPSILON_MULT;
+		final List<E> r = new ArrayList<E>();
+		if (type.isAssignableFrom(Player.class)) {
+			for (final Player p : PlayerUtils.getOnlinePlayers()) {
+				if (p != exclude && p.getWorld() == world && p.getLocation().distanceSquared(center) <= radiusSquared)
+					r.add((E) p);
+			}
+		}
+		if (type == Player.class)
+			return r;
+		final WorldIndex w = worlds.get(world);
+		if (w != null) {
+			// ticks take at least 50 ms, thus this over- rather than underestimates the ticks since the last synchronisation
+			final long ticks = (System.nanoTime() - lastSync) / 50000000 + 1;
+			w.getNearbyEntities(center, radius, ticks * MAX_SPEED, type, exclude, r);
+		}
+		return r;
+	}
+	
+}
@@ -48,6 +48,7 @@ import ch.njol.skript.entity.EntityData;
 import ch.njol.skript.lang.Literal;
 import ch.njol.skript.lang.SkriptEvent;
 import ch.njol.skript.lang.SkriptParser.ParseResult;
+import ch.njol.skript.lang.TypeFilteredEvent;
 import ch.njol.skript.registrations.Classes;
 import ch.njol.util.Checker;
 
@@ -55,7 +56,7 @@ import ch.njol.util.Checker;
  * @author Peter Güttinger
  */
 @SuppressWarnings({"deprecation", "unchecked"})
-public class EvtBlock extends SkriptEvent {
+public class EvtBlock extends SkriptEvent implements TypeFilteredEvent {
 	
 	static {
 		// TODO 'block destroy' event for any kind of block destruction (player, water, trampling, fall (sand, toches, ...), etc) -> BlockPhysicsEvent?
@@ -103,6 +104,39 @@ public class EvtBlock extends SkriptEvent {
 		}
 		if (types == null)
 			return true;
+		final int key = getFilterKey(e);
+		if (key == -1) {
+			if (Skript.isRunningMinecraft(1, 4, 3) && e instanceof HangingEvent) {
+				final EntityData<?> d = EntityData.fromEntity(((HangingEvent) e).getEntity());
+				return types.check(e, new Checker<ItemType>() {
+					@Override
+					public boolean check(final @Nullable ItemType t) {
+						return t != null && Relation.EQUAL.is(DefaultComparators.entityItemComparator.compare(d, t));
+					}
+				});
+			}
+			assert false;
+			return false;
+		}
+		final int id = key >>> 16;
+		final short durability = (short) key;
+		return types.check(e, new Checker<ItemType>() {
+			@Override
+			public boolean check(final @Nullable ItemType t) {
+				return t != null && t.isOfType(id, durability);
+			}
+		});
+	}
+	
+	@Override
+	@Nullable
+	public ItemType[] getFilterTypes() {
+		return types == null ? null : types.getAll();
+	}
+	
+	@SuppressWarnings("null")
+	@Override
+	public int getFilterKey(final Event e) {
 		final int id;
 		final short durability;
 		if (e instanceof BlockEvent) {
@@ -120,24 +154,10 @@ public class EvtBlock extends SkriptEvent {
 		} else if (e instanceof PaintingEvent) {
 			id = Material.PAINTING.getId();
 			durability = 0;
-		} else if (Skript.isRunningMinecraft(1, 4, 3) && e instanceof HangingEvent) {
-			final EntityData<?> d = EntityData.fromEntity(((HangingEvent) e).getEntity());
-			return types.check(e, new Checker<ItemType>() {
-				@Override
-				public boolean check(final @Nullable ItemType t) {
-					return t != null && Relation.EQUAL.is(DefaultComparators.entityItemComparator.compare(d, t));
-				}
-			});
 		} else {
-			assert false;
-			return false;
+			return -1; // hanging entities are compared to the types as entities
 		}
-		return types.check(e, new Checker<ItemType>() {
-			@Override
-			public boolean check(final @Nullable ItemType t) {
-				return t != null && t.isOfType(id, durability);
-			}
-		});
+		return id << 16 | durability & 0xFFFF;
 	}
 	
 	@Override
@@ -21,6 +21,8 @@
 
 package ch.njol.skript.events;
 
+import java.util.Arrays;
+
 import org.bukkit.block.Block;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
@@ -38,6 +40,7 @@ import ch.njol.skript.entity.EntityData;
 import ch.njol.skript.lang.Literal;
 import ch.njol.skript.lang.SkriptEvent;
 import ch.njol.skript.lang.SkriptParser.ParseResult;
+import ch.njol.skript.lang.TypeFilteredEvent;
 import ch.njol.skript.log.ErrorQuality;
 import ch.njol.util.Checker;
 import ch.njol.util.coll.CollectionUtils;
@@ -46,7 +49,7 @@ import ch.njol.util.coll.CollectionUtils;
  * @author Peter Güttinger
  */
 @SuppressWarnings("unchecked")
-public class EvtClick extends SkriptEvent {
+public class EvtClick extends SkriptEvent implements TypeFilteredEvent {
 	
 	// Important: a click on an entity fires both an PlayerInteractEntityEvent and a PlayerInteractEvent
 	
@@ -151,6 +154,35 @@ public class EvtClick extends SkriptEvent {
 		return true;
 	}
 	
+	/**
+	 * Only clicks on blocks are filtered, as clicks on entities are compared to the types as entities.
+	 */
+	@SuppressWarnings("null")
+	@Override
+	@Nullable
+	public ItemType[] getFilterTypes() {
+		final Literal<?> types = this.types;
+		if (types == null)
+			return null;
+		final Object[] ts = types.getAll();
+		for (final Object t : ts) {
+			if (!(t instanceof ItemType))
+				return null;
+		}
+		return Arrays.copyOf(ts, ts.length, ItemType[].class);
+	}
+	
+	@SuppressWarnings("deprecation")
+	@Override
+	public int getFilterKey(final Event e) {
+		if (!(e instanceof PlayerInteractEvent))
+			return -1;
+		final Block b = ((PlayerInteractEvent) e).getClickedBlock();
+		if (b == null)
+			return 0; // like ItemType.isOfType(null)
+		return b.getTypeId() << 16 | b.getData() & 0xFFFF;
+	}
+	
 	@Override
 	public String toString(final @Nullable Event e, final boolean debug) {
 		return (click == LEFT ? "left" : click == RIGHT ? "right" : "") + "click" + (types != null ? " on " + types.toString(e, debug) : "") + (tools != null ? " holding " + tools.toString(e, debug) : "");
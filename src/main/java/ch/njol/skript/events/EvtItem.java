@@ -36,12 +36,13 @@ import ch.njol.skript.aliases.ItemType;
 import ch.njol.skript.lang.Literal;
 import ch.njol.skript.lang.SkriptEvent;
 import ch.njol.skript.lang.SkriptParser.ParseResult;
+import ch.njol.skript.lang.TypeFilteredEvent;
 import ch.njol.util.Checker;
 
 /**
  * @author Peter Güttinger
  */
-public class EvtItem extends SkriptEvent {
+public class EvtItem extends SkriptEvent implements TypeFilteredEvent {
 	private final static boolean hasConsumeEvent = Skript.classExists("org.bukkit.event.player.PlayerItemConsumeEvent");
 	static {
 		Skript.registerEvent("Dispense", EvtItem.class, BlockDispenseEvent.class, "dispens(e|ing) [[of] %itemtypes%]")
@@ -93,6 +94,20 @@ public class EvtItem extends SkriptEvent {
 	public boolean check(final Event e) {
 		if (types == null)
 			return true;
+		final ItemStack is = getItem(e);
+		return types.check(e, new Checker<ItemType>() {
+			@Override
+			public boolean check(final ItemType t) {
+				return t.isOfType(is);
+			}
+		});
+	}
+	
+	/**
+	 * @return The item of the given event, which can be null for no item
+	 */
+	@Nullable
+	private final static ItemStack getItem(final Event e) {
 		final ItemStack is;
 		if (e instanceof BlockDispenseEvent) {
 			is = ((BlockDispenseEvent) e).getItem();
@@ -110,14 +125,24 @@ public class EvtItem extends SkriptEvent {
 //			is = ((BrewEvent) e).getContents().getContents()
 		} else {
 			assert false;
-			return false;
+			return null;
 		}
-		return types.check(e, new Checker<ItemType>() {
-			@Override
-			public boolean check(final ItemType t) {
-				return t.isOfType(is);
-			}
-		});
+		return is;
+	}
+	
+	@Override
+	@Nullable
+	public ItemType[] getFilterTypes() {
+		return types == null ? null : types.getAll();
+	}
+	
+	@SuppressWarnings("deprecation")
+	@Override
+	public int getFilterKey(final Event e) {
+		final ItemStack is = getItem(e);
+		if (is == null)
+			return 0; // like ItemType.isOfType(null)
+		return is.getTypeId() << 16 | is.getDurability() & 0xFFFF;
 	}
 	
 	@Override
@@ -41,6 +41,7 @@ import ch.njol.skript.doc.Examples;
 import ch.njol.skript.doc.Name;
 import ch.njol.skript.doc.Since;
 import ch.njol.skript.entity.EntityData;
+import ch.njol.skript.entity.EntityIndex;
 import ch.njol.skript.lang.Expression;
 import ch.njol.skript.lang.ExpressionType;
 import ch.njol.skript.lang.Literal;
@@ -173,7 +174,7 @@ public class ExprEntities extends SimpleExpression<Entity> {
 	@Nullable
 	public Iterator<? extends Entity> iterator(final Event e) {
 		if (matchedPattern >= 2) {
-			final Entity en;
+			Entity en = null;
 			final Location l;
 			if (centerEntity != null) {
 				en = centerEntity.getSingle(e);
@@ -185,16 +186,22 @@ public class ExprEntities extends SimpleExpression<Entity> {
 				l = center.getSingle(e);
 				if (l == null)
 					return null;
-				en = l.getWorld().spawn(l, ExperienceOrb.class);
 			}
 			assert radius != null;
 			final Number n = radius.getSingle(e);
 			if (n == null)
 				return null;
 			final double d = n.doubleValue();
-			final List<Entity> es = en.getNearbyEntities(d, d, d);
-			if (centerEntity == null)
-				en.remove();
+			List<Entity> es = EntityIndex.<Entity>getNearbyEntities(l, d, returnType, en);
+			if (es == null) {
+				if (en == null) {
+					final Entity orb = l.getWorld().spawn(l, ExperienceOrb.class);
+					es = orb.getNearbyEntities(d, d, d);
+					orb.remove();
+				} else {
+					es = en.getNearbyEntities(d, d, d);
+				}
+			}
 			final double radiusSquared = d * d * Skript.EPSILON_MULT;
 			final EntityData<?>[] ts = types.getAll(e);
 			return new CheckedIterator<Entity>(es.iterator(), new NullableChecker<Entity>() {
@@ -230,7 +237,7 @@ public class ExprEntities extends SimpleExpression<Entity> {
 							w++;
 							if (w == ws.length)
 								return null;
-							curIter = ws[w].getEntitiesByClass(returnType).iterator();
+							curIter = EntityIndex.getEntities(ws[w], returnType).iterator();
 						}
 						while (curIter.hasNext()) {
 							final Entity current = curIter.next();
@@ -23,10 +23,13 @@ package ch.njol.skript.hooks.regions.events;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.entity.Player;
 import org.bukkit.event.Event;
 import org.bukkit.event.EventException;
@@ -111,6 +114,7 @@ public class EvtRegionBorder extends SelfRegisteringSkriptEvent {
 	@Override
 	public void unregisterAll() {
 		triggers.clear();
+		invalidateRegionCache();
 	}
 	
 	private boolean applies(final Event e) {
@@ -141,6 +145,39 @@ public class EvtRegionBorder extends SelfRegisteringSkriptEvent {
 		me.setCancelled(e.isCancelled());
 	}
 	
+	/**
+	 * The regions at the block a player was last seen at
+	 */
+	private final static class CachedRegions {
+		private final World world;
+		private final int x, y, z;
+		final Set<? extends Region> regions;
+		
+		CachedRegions(final Location l, final Set<? extends Region> regions) {
+			world = l.getWorld();
+			x = l.getBlockX();
+			y = l.getBlockY();
+			z = l.getBlockZ();
+			this.regions = regions;
+		}
+		
+		boolean isAt(final Location l) {
+			return l.getBlockX() == x && l.getBlockY() == y && l.getBlockZ() == z && l.getWorld() == world;
+		}
+	}
+	
+	private final static Map<Player, CachedRegions> regionCache = new WeakHashMap<Player, CachedRegions>();
+	
+	/**
+	 * Makes region enter and leave events look up the regions of all players anew. Should be called if regions are created, removed or redefined.
+	 * <p>
+	 * This is not strictly required as regions are always looked up when a player moves into another block, but will prevent events for changed regions if a player crosses
+	 * their borders while standing still, e.g. 'leave' for a region that was removed while the player stood in it.
+	 */
+	public final static void invalidateRegionCache() {
+		regionCache.clear();
+	}
+	
 	// even WorldGuard doesn't have events, and this way all region plugins are supported for sure.
 	private final static EventExecutor ee = new EventExecutor() {
 		@Nullable
@@ -154,9 +191,12 @@ public class EvtRegionBorder extends SelfRegisteringSkriptEvent {
 			last = event;
 			final PlayerMoveEvent e = (PlayerMoveEvent) event;
 			final Location to = e.getTo(), from = e.getFrom();
-			if (to.equals(from))
-				return;
-			final Set<? extends Region> oldRs = RegionsPlugin.getRegionsAt(from), newRs = RegionsPlugin.getRegionsAt(to);
+			final Player p = e.getPlayer();
+			final CachedRegions cached = regionCache.get(p);
+			if (cached != null && cached.isAt(to))
+				return; // only turned around or moved within the same block
+			final CachedRegions old = cached != null && cached.isAt(from) ? cached : new CachedRegions(from, RegionsPlugin.getRegionsAt(from));
+			final Set<? extends Region> oldRs = old.regions, newRs = RegionsPlugin.getRegionsAt(to);
 			for (final Region r : oldRs) {
 				if (!newRs.contains(r))
 					callEvent(r, e, false);
@@ -165,6 +205,8 @@ public class EvtRegionBorder extends SelfRegisteringSkriptEvent {
 				if (!oldRs.contains(r))
 					callEvent(r, e, true);
 			}
+			// a cancelled move keeps the player where they were
+			regionCache.put(p, e.isCancelled() ? old : new CachedRegions(to, newRs));
 		}
 	};
 	
@@ -0,0 +1,336 @@
+/*
+ *   This file is part of Skript.
+ * 
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.lang;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+
+import org.bukkit.Bukkit;
+import org.bukkit.event.Event;
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.Skript;
+import ch.njol.skript.util.Task;
+
+/**
+ * Continues triggers after a delay, e.g. after <tt>wait 5 seconds</tt>.
+ * <p>
+ * Instead of scheduling a Bukkit task for every delayed execution, all continuations are stored in a hierarchical timing wheel which is advanced by a single task that runs every
+ * tick while there are continuations waiting. Each level of the wheel has {@link #SLOTS} slots, a slot of level <i>n</i> spanning <tt>SLOTS<sup>n</sup></tt> ticks. New
+ * continuations are put into the slot of their due tick in the lowest level which covers that tick, and whenever a level has turned once, the next slot of the level above is
+ * distributed onto the lower levels. Thus both scheduling and expiring a continuation take constant time, no matter how many continuations are waiting.
+ * <p>
+ * Each slot is kept sorted by the order the continuations were scheduled in, i.e. continuations distributed from a higher level are merged with the ones that were put into
+ * the lower slot directly. Thus continuations that are due are run in the order they were scheduled in, but only until the {@link #setBudget(long) budget} of the current tick
+ * is used up. Any remaining continuations are run first in the next tick.
+ * 
+ * @author Peter Güttinger
+ */
+public final class DelayScheduler {
+	
+	private DelayScheduler() {}
+	
+	private final static int BITS = 6, SLOTS = 1 << BITS, MASK = SLOTS - 1, LEVELS = 4;
+	
+	/**
+	 * Continuations that are further in the future are put into the last slot of the highest level, and are put back there until they are near enough.
+	 */
+	private final static long MAX_DELAY = (1L << (BITS * LEVELS)) - 1;
+	
+	private final static class Continuation {
+		final TriggerItem delay, next;
+		final Event event;
+		final long due;
+		final long start;
+		
+		/**
+		 * The order this continuation was scheduled in, see {@link DelayScheduler#sequence}
+		 */
+		final long seq;
+		
+		@Nullable
+		Continuation nextInSlot = null;
+		
+		Continuation(final TriggerItem delay, final TriggerItem next, final Event event, final long due, final long start, final long seq) {
+			this.delay = delay;
+			this.next = next;
+			this.event = event;
+			this.due = due;
+			this.start = start;
+			this.seq = seq;
+		}
+		
+		void run() {
+			if (Skript.debug())
+				Skript.info(delay.getIndentation() + "... continuing after " + (System.nanoTime() - start) / 1000000000. + "s");
+			TriggerItem.walk(next, event);
+		}
+	}
+	
+	// the slots of all levels as linked lists of continuations, level n starting at n * SLOTS. Only accessed from the main thread.
+	private final static Continuation[] heads = new Continuation[LEVELS * SLOTS], tails = new Continuation[LEVELS * SLOTS];
+	
+	/**
+	 * The continuation that has last been merged into each slot while cascading, see {@link #cascade(int)}. Only accessed from the main thread.
+	 */
+	private final static Continuation[] cursors = new Continuation[LEVELS * SLOTS];
+	
+	/**
+	 * The number of continuations that have been scheduled so far, used to keep the slots sorted
+	 */
+	private static long sequence = 0;
+	
+	/**
+	 * Due continuations which could not be run in their tick because of the budget
+	 */
+	@Nullable
+	private static Continuation overflow = null, overflowTail = null;
+	
+	/**
+	 * The number of ticks the wheel has been advanced so far
+	 */
+	private static long tick = 0;
+	
+	/**
+	 * The number of continuations in the wheel and the overflow list
+	 */
+	private static int size = 0;
+	
+	@Nullable
+	private static Task task = null;
+	
+	/**
+	 * The current tick of Bukkit's scheduler, which the delays of Bukkit tasks are relative to. Bukkit has no API for this, thus this is null if the field cannot be found.
+	 */
+	@Nullable
+	private static Field schedulerTick = null;
+	static {
+		try {
+			final Field f = Bukkit.getScheduler().getClass().getDeclaredField("currentTick");
+			f.setAccessible(true);
+			if (f.getType() == int.class)
+				schedulerTick = f;
+		} catch (final NoSuchFieldException e) {} catch (final SecurityException e) {}
+	}
+	
+	/**
+	 * The scheduler tick in which the wheel has last been advanced (or in which its task has been started)
+	 */
+	private static int advancedTick = -1;
+	
+	/**
+	 * @return The current tick of Bukkit's scheduler, or -1 if it is unknown
+	 */
+	private static int getSchedulerTick() {
+		final Field f = schedulerTick;
+		if (f == null)
+			return -1;
+		try {
+			return f.getInt(Bukkit.getScheduler());
+		} catch (final IllegalAccessException e) {
+			assert false : e;
+		} catch (final IllegalArgumentException e) {
+			assert false : e;
+		}
+		return -1;
+	}
+	
+	private static volatile long budget = 0;
+	
+	/**
+	 * Sets how much time may be spent continuing triggers in a single tick. If there are more continuations due than can be run in this time, the remaining ones are run in the
+	 * next tick.
+	 * <p>
+	 * At least one continuation is always run per tick.
+	 * 
+	 * @param nanos The budget in nanoseconds, or 0 or less to always run all due continuations.
+	 */
+	public static void setBudget(final long nanos) {
+		budget = nanos;
+	}
+	
+	/**
+	 * Continues the trigger of the given delay after the given number of ticks, like Bukkit's scheduler would if a task was scheduled with the same delay.
+	 * <p>
+	 * This can be called from any thread, but only calls from the main thread are handled by the timing wheel.
+	 * 
+	 * @param delay The delay, only used for debug messages
+	 * @param next The item to continue with
+	 * @param e The event, which also holds the execution state of the trigger
+	 * @param ticks
+	 */
+	public static void schedule(final TriggerItem delay, final TriggerItem next, final Event e, final long ticks) {
+		final long start = Skript.debug() ? System.nanoTime() : 0;
+		if (!Bukkit.isPrimaryThread()) {
+			Bukkit.getScheduler().scheduleSyncDelayedTask(Skript.getInstance(), new Runnable() {
+				@SuppressWarnings("synthetic-access")
+				@Override
+				public void run() {
+					new Continuation(delay, next, e, 0, start, 0).run();
+				}
+			}, ticks);
+			return;
+		}
+		// if the wheel's task has not run yet in the current tick (e.g. if this is called from another task), the wheel will still be advanced once in this tick
+		final long now = task != null && advancedTick != getSchedulerTick() ? tick + 1 : tick;
+		final Continuation c = new Continuation(delay, next, e, now + Math.max(ticks, 1), start, sequence++);
+		// the new continuation sorts after all others, i.e. is simply appended to its slot
+		final int index = getSlot(c);
+		final Continuation tail = tails[index];
+		if (tail == null)
+			heads[index] = c;
+		else
+			tail.nextInSlot = c;
+		tails[index] = c;
+		size++;
+		if (task == null) {
+			advancedTick = getSchedulerTick();
+			task = new Task(Skript.getInstance(), 1, 1) {
+				@SuppressWarnings("synthetic-access")
+				@Override
+				public void run() {
+					advance();
+				}
+			};
+		}
+	}
+	
+	/**
+	 * @return The index of the slot the given continuation belongs in at the current tick
+	 */
+	private static int getSlot(final Continuation c) {
+		final long delta = c.due - tick;
+		if (delta < SLOTS)
+			return (int) (c.due & MASK);
+		final long due = delta > MAX_DELAY ? tick + MAX_DELAY : c.due;
+		int level = 1;
+		while (delta >= 1L << (BITS * (level + 1)) && level < LEVELS - 1)
+			level++;
+		return level * SLOTS + (int) ((due >>> (BITS * level)) & MASK);
+	}
+	
+	/**
+	 * Removes and returns the continuations of the given slot.
+	 */
+	@Nullable
+	private static Continuation take(final int index) {
+		final Continuation c = heads[index];
+		heads[index] = null;
+		tails[index] = null;
+		return c;
+	}
+	
+	/**
+	 * Puts the continuations of the current slot of the given level onto the lower levels.
+	 * <p>
+	 * The continuations are merged into their new slots by their sequence numbers. As they are taken in order, each slot's search for the position of the next continuation
+	 * starts after the one merged into it last, thus a cascade takes linear time.
+	 */
+	private static void cascade(final int level) {
+		Continuation c = take(level * SLOTS + (int) ((tick >>> (BITS * level)) & MASK));
+		while (c != null) {
+			final Continuation next = c.nextInSlot;
+			final int index = getSlot(c);
+			Continuation before = cursors[index];
+			Continuation after = before == null ? heads[index] : before.nextInSlot;
+			while (after != null && after.seq < c.seq) {
+				before = after;
+				after = after.nextInSlot;
+			}
+			c.nextInSlot = after;
+			if (before == null)
+				heads[index] = c;
+			else
+				before.nextInSlot = c;
+			if (after == null)
+				tails[index] = c;
+			cursors[index] = c;
+			c = next;
+		}
+		Arrays.fill(cursors, null);
+	}
+	
+	/**
+	 * Advances the wheel by one tick and runs all due continuations, or as many as the budget allows.
+	 */
+	private static void advance() {
+		tick++;
+		advancedTick = getSchedulerTick();
+		
+		// higher levels first, as they might fill the current slots of lower levels
+		int levels = 0;
+		while (levels < LEVELS - 1 && (tick & ((1L << (BITS * (levels + 1))) - 1)) == 0)
+			levels++;
+		for (int level = levels; level > 0; level--)
+			cascade(level);
+		
+		final int current = (int) (tick & MASK);
+		final Continuation dueTail = tails[current];
+		final Continuation due = take(current);
+		if (due != null) {
+			final Continuation tail = overflowTail;
+			if (tail == null)
+				overflow = due;
+			else
+				tail.nextInSlot = due;
+			overflowTail = dueTail;
+		}
+		
+		final long budget = DelayScheduler.budget;
+		final long end = System.nanoTime() + budget;
+		Continuation c;
+		while ((c = overflow) != null) {
+			overflow = c.nextInSlot;
+			if (overflow == null)
+				overflowTail = null;
+			c.nextInSlot = null;
+			size--;
+			c.run();
+			if (budget > 0 && System.nanoTime() - end >= 0)
+				break;
+		}
+		
+		if (size == 0) {
+			final Task t = task;
+			if (t != null)
+				t.cancel();
+			task = null;
+		}
+	}
+	
+	/**
+	 * Drops all waiting continuations, i.e. the triggers they belong to will not continue. Called when Skript is disabled.
+	 */
+	public static void clear() {
+		final Task t = task;
+		if (t != null)
+			t.cancel();
+		task = null;
+		for (int i = 0; i < heads.length; i++) {
+			heads[i] = null;
+			tails[i] = null;
+		}
+		overflow = overflowTail = null;
+		size = 0;
+	}
+	
+}
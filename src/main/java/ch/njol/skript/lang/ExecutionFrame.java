@@ -0,0 +1,202 @@
+/*
+ *   This file is part of Skript.
+ * 
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.lang;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.bukkit.event.Event;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The execution state of the triggers handling an event, e.g. the current values of loops, whether the event has been delayed, or its local variables.
+ * <p>
+ * Frames are stored per event, as that is all that is passed to the items of a trigger and their expressions. While a trigger is executing (see
+ * {@link TriggerItem#walk(TriggerItem, Event)}), its event and frame are remembered per thread, thus the items of the trigger can get the frame without looking it up in the map
+ * of all frames.
+ * 
+ * @author Peter Güttinger
+ */
+public final class ExecutionFrame {
+	
+	private final static Map<Event, ExecutionFrame> frames = Collections.synchronizedMap(new WeakHashMap<Event, ExecutionFrame>());
+	
+	/**
+	 * The event currently handled by a trigger on a thread, and its frame if it has been looked up already
+	 */
+	private final static class Current {
+		@Nullable
+		Event event = null;
+		@Nullable
+		ExecutionFrame frame = null;
+	}
+	
+	private final static ThreadLocal<Current> current = new ThreadLocal<Current>() {
+		@Override
+		protected Current initialValue() {
+			return new Current();
+		}
+	};
+	
+	private volatile boolean delayed = false;
+	
+	// the state of items (see getState), usually only a few, thus searching the keys is faster than using a map
+	private Object[] keys = new Object[4];
+	private Object[] states = new Object[4];
+	private int size = 0;
+	
+	private ExecutionFrame() {}
+	
+	/**
+	 * Gets the frame of an event without creating it.
+	 * 
+	 * @param e
+	 * @return The frame of the given event, or null if nothing has been stored for it yet.
+	 */
+	@Nullable
+	public final static ExecutionFrame get(final @Nullable Event e) {
+		if (e == null)
+			return null;
+		final Current c = current.get();
+		if (c.event == e) {
+			final ExecutionFrame f = c.frame;
+			if (f != null)
+				return f;
+		}
+		final ExecutionFrame f = frames.get(e);
+		if (f != null && c.event == e)
+			c.frame = f;
+		return f;
+	}
+	
+	/**
+	 * Gets the frame of an event, creating it if necessary.
+	 * 
+	 * @param e
+	 * @return The frame of the given event
+	 */
+	public final static ExecutionFrame getOrCreate(final Event e) {
+		ExecutionFrame f = get(e);
+		if (f == null) {
+			synchronized (frames) {
+				f = frames.get(e);
+				if (f == null)
+					frames.put(e, f = new ExecutionFrame());
+			}
+			final Current c = current.get();
+			if (c.event == e)
+				c.frame = f;
+		}
+		return f;
+	}
+	
+	/**
+	 * Makes the given event the current event of this thread. Must be followed by a call to {@link #exit(Event)} in a finally block.
+	 * 
+	 * @param e
+	 * @return The previous event of this thread, to be passed to {@link #exit(Event)}
+	 */
+	@Nullable
+	final static Event enter(final Event e) {
+		final Current c = current.get();
+		final Event previous = c.event;
+		if (previous != e) {
+			c.event = e;
+			c.frame = null;
+		}
+		return previous;
+	}
+	
+	/**
+	 * Restores the state of this thread from before {@link #enter(Event)} was called.
+	 * 
+	 * @param previous The value returned by {@link #enter(Event)}
+	 */
+	final static void exit(final @Nullable Event previous) {
+		final Current c = current.get();
+		if (c.event != previous) {
+			c.event = previous;
+			c.frame = null;
+		}
+	}
+	
+	/**
+	 * @return Whether the execution of a trigger has been delayed for this event, i.e. whether the event is already over.
+	 */
+	public boolean isDelayed() {
+		return delayed;
+	}
+	
+	public void setDelayed() {
+		delayed = true;
+	}
+	
+	/**
+	 * Gets the state an item stored for this event, e.g. the iterator of a loop.
+	 * 
+	 * @param key The item or any other object identifying the state (compared by identity)
+	 * @return The state stored with {@link #setState(Object, Object)}, or null if none has been stored
+	 */
+	@Nullable
+	public synchronized Object getState(final Object key) {
+		for (int i = 0; i < size; i++) {
+			if (keys[i] == key)
+				return states[i];
+		}
+		return null;
+	}
+	
+	/**
+	 * Stores the state of an item for this event.
+	 * 
+	 * @param key The item or any other object identifying the state (compared by identity)
+	 * @param state The new state, or null to remove it
+	 */
+	public synchronized void setState(final Object key, final @Nullable Object state) {
+		for (int i = 0; i < size; i++) {
+			if (keys[i] == key) {
+				if (state != null) {
+					states[i] = state;
+				} else {
+					size--;
+					keys[i] = keys[size];
+					states[i] = states[size];
+					keys[size] = null;
+					states[size] = null;
+				}
+				return;
+			}
+		}
+		if (state == null)
+			return;
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			states = Arrays.copyOf(states, size * 2);
+		}
+		keys[size] = key;
+		states[size] = state;
+		size++;
+	}
+	
+}
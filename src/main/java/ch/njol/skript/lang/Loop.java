@@ -22,8 +22,6 @@
 package ch.njol.skript.lang;
 
 import java.util.Iterator;
-import java.util.Map;
-import java.util.WeakHashMap;
 
 import org.bukkit.event.Event;
 import org.eclipse.jdt.annotation.Nullable;
@@ -44,8 +42,18 @@ public class Loop extends TriggerSection {
 	
 	private final Expression<?> expr;
 	
-	private transient Map<Event, Object> current = new WeakHashMap<Event, Object>();
-	private transient Map<Event, Iterator<?>> currentIter = new WeakHashMap<Event, Iterator<?>>();
+	/**
+	 * The state of a running loop, stored in the {@link ExecutionFrame} of the event
+	 */
+	private final static class State {
+		final Iterator<?> iter;
+		@Nullable
+		Object current = null;
+		
+		State(final Iterator<?> iter) {
+			this.iter = iter;
+		}
+	}
 	
 	@Nullable
 	private TriggerItem actualNext;
@@ -76,23 +84,20 @@ public class Loop extends TriggerSection {
 	@Override
 	@Nullable
 	protected TriggerItem walk(final Event e) {
-		Iterator<?> iter = currentIter.get(e);
-		if (iter == null) {
-			iter = expr instanceof Variable ? ((Variable<?>) expr).variablesIterator(e) : expr.iterator(e);
-			if (iter != null) {
-				if (iter.hasNext())
-					currentIter.put(e, iter);
-				else
-					iter = null;
-			}
+		final ExecutionFrame frame = ExecutionFrame.getOrCreate(e);
+		State state = (State) frame.getState(this);
+		if (state == null) {
+			final Iterator<?> iter = expr instanceof Variable ? ((Variable<?>) expr).variablesIterator(e) : expr.iterator(e);
+			if (iter != null && iter.hasNext())
+				frame.setState(this, state = new State(iter));
 		}
-		if (iter == null || !iter.hasNext()) {
-			if (iter != null)
-				currentIter.remove(e); // a loop inside another loop can be called multiple times in the same event
+		if (state == null || !state.iter.hasNext()) {
+			if (state != null)
+				frame.setState(this, null); // a loop inside another loop can be called multiple times in the same event
 			debug(e, false);
 			return actualNext;
 		} else {
-			current.put(e, iter.next());
+			state.current = state.iter.next();
 			return walk(e, true);
 		}
 	}
@@ -104,7 +109,9 @@ public class Loop extends TriggerSection {
 	
 	@Nullable
 	public Object getCurrent(final Event e) {
-		return current.get(e);
+		final ExecutionFrame frame = ExecutionFrame.get(e);
+		final State state = frame == null ? null : (State) frame.getState(this);
+		return state == null ? null : state.current;
 	}
 	
 	public Expression<?> getLoopedExpression() {
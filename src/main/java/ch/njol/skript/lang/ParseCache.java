@@ -0,0 +1,446 @@
+/*
+ *   This file is part of Skript.
+ * 
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.lang;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.Skript;
+import ch.njol.skript.SkriptAddon;
+import ch.njol.skript.SkriptConfig;
+import ch.njol.skript.config.Option;
+import ch.njol.skript.lang.function.Functions;
+import ch.njol.skript.localization.Language;
+import ch.njol.skript.log.ErrorQuality;
+import ch.njol.skript.log.LogEntry;
+
+/**
+ * Remembers which syntax element and which of its patterns matched each expression of a script, so that the script can be loaded again without trying all other
+ * patterns first.
+ * <p>
+ * {@link SkriptParser} records a decision for every expression it tries to parse in the order it parses them, including expressions that didn't match anything. When the
+ * script is loaded again the decisions are replayed in the same order: the recorded pattern is matched and the syntax element is initialised as usual, but all other
+ * patterns are skipped. Expressions that didn't match anything fail again right away with the error they failed with before, which skips most of the work, as the parser
+ * tries many expressions that don't match (e.g. every line is tried as a condition first). If a decision doesn't fit anymore the rest of the script is parsed normally.
+ * <p>
+ * A cache is only valid for the exact contents of the script and the exact environment it was parsed in, i.e. the versions of Skript and all addons, as these determine
+ * the registered syntax elements and their order, the language, the aliases and language files, and config options that syntax elements may depend on. It is also only
+ * valid for the same state of the server when the script starts loading, i.e. the signatures of the functions defined by other scripts and the loaded worlds, as both can
+ * make an expression valid that didn't match anything before.
+ * 
+ * @author Peter Güttinger
+ */
+public final class ParseCache {
+	
+	private final static int VERSION = 3;
+	
+	/**
+	 * The cache of the script that is currently being loaded
+	 */
+	@Nullable
+	static ParseCache current = null;
+	
+	final static class Decision {
+		
+		final String expr;
+		final int flags;
+		final ParseContext context;
+		
+		/**
+		 * Index of the matching syntax element in the parser's source, or -1 if nothing matched
+		 */
+		final int info;
+		@Nullable
+		final String c;
+		final int pattern;
+		
+		/**
+		 * The error and its {@link ErrorQuality quality} if nothing matched
+		 */
+		@Nullable
+		final String error;
+		final int quality;
+		
+		Decision(final String expr, final int flags, final ParseContext context, final int info, final @Nullable String c, final int pattern, final @Nullable String error, final int quality) {
+			this.expr = expr;
+			this.flags = flags;
+			this.context = context;
+			this.info = info;
+			this.c = c;
+			this.pattern = pattern;
+			this.error = error;
+			this.quality = quality;
+		}
+		
+		Decision(final SkriptParser parser, final int info, final SyntaxElementInfo<?> i, final int pattern) {
+			this(parser.expr, parser.flags, parser.context, info, i.c.getName(), pattern, null, 0);
+		}
+		
+		/**
+		 * Creates a decision that nothing matched
+		 * 
+		 * @param error The error that was logged, if any
+		 */
+		Decision(final SkriptParser parser, final @Nullable LogEntry error) {
+			this(parser.expr, parser.flags, parser.context, -1, null, -1, error == null ? null : error.message, error == null ? 0 : error.quality);
+		}
+		
+		Decision(final DataInputStream in) throws IOException {
+			expr = "" + in.readUTF();
+			flags = in.readInt();
+			final int ctx = in.readInt();
+			if (ctx < 0 || ctx >= ParseContext.values().length)
+				throw new IOException("invalid parse context " + ctx);
+			context = ParseContext.values()[ctx];
+			info = in.readInt();
+			if (info >= 0) {
+				c = in.readUTF();
+				pattern = in.readInt();
+				error = null;
+				quality = 0;
+			} else {
+				c = null;
+				pattern = -1;
+				error = in.readBoolean() ? in.readUTF() : null;
+				quality = in.readInt();
+				if (quality < 0 || quality >= ErrorQuality.values().length)
+					throw new IOException("invalid error quality " + quality);
+			}
+		}
+		
+		void write(final DataOutputStream out) throws IOException {
+			out.writeUTF(expr);
+			out.writeInt(flags);
+			out.writeInt(context.ordinal());
+			out.writeInt(info);
+			if (info >= 0) {
+				out.writeUTF("" + c);
+				out.writeInt(pattern);
+			} else {
+				final String error = this.error;
+				out.writeBoolean(error != null);
+				if (error != null)
+					out.writeUTF(error);
+				out.writeInt(quality);
+			}
+		}
+		
+		boolean matches(final String expr, final int flags, final ParseContext context) {
+			return this.flags == flags && this.context == context && this.expr.equals(expr);
+		}
+		
+	}
+	
+	private final File file;
+	private final String key;
+	
+	/**
+	 * The state of the server the cached decisions were made in, and the current one once loading the script has {@link #start() started}, see {@link #getState()}
+	 */
+	@Nullable
+	private String cachedState = null, state = null;
+	
+	@Nullable
+	private Decision[] replay = null;
+	private int next = 0;
+	private boolean upToDate = false;
+	
+	private final List<Decision> recorded = new ArrayList<Decision>();
+	
+	ParseCache(final File file, final String key) {
+		this.file = file;
+		this.key = key;
+	}
+	
+	/**
+	 * Loads the decisions of the previous load of the given script from the cache if it is still valid. This can be called from any thread.
+	 * 
+	 * @param script The script that is about to be loaded
+	 * @param file The file to store the cache in
+	 * @return The cache, or null if the script could not be read
+	 */
+	@Nullable
+	public static ParseCache load(final File script, final File file) {
+		final String key;
+		try {
+			key = getEnvironment() + ", " + hash(script);
+		} catch (final IOException e) {
+			return null;
+		}
+		return load(file, key);
+	}
+	
+	/**
+	 * @param file
+	 * @param key The key of the script to load, the cache is only used if it was saved with the same key
+	 * @return The cache, which is empty if the file doesn't exist or was saved with a different key
+	 */
+	static ParseCache load(final File file, final String key) {
+		final ParseCache cache = new ParseCache(file, key);
+		if (file.exists()) {
+			DataInputStream in = null;
+			try {
+				in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+				if (in.readInt() == VERSION && key.equals(in.readUTF())) {
+					cache.cachedState = in.readUTF();
+					final Decision[] replay = new Decision[in.readInt()];
+					for (int i = 0; i < replay.length; i++)
+						replay[i] = new Decision(in);
+					cache.replay = replay;
+					cache.upToDate = true;
+				}
+			} catch (final IOException e) {
+				if (Skript.testing())
+					Skript.exception(e, "Error reading the cache " + file.getName());
+			} finally {
+				if (in != null) {
+					try {
+						in.close();
+					} catch (final IOException e) {}
+				}
+			}
+		}
+		return cache;
+	}
+	
+	/**
+	 * Starts recording the decisions made by the parser and replaying the cached ones. Must be called right before the script is parsed.
+	 */
+	public void start() {
+		String state;
+		try {
+			state = getState();
+		} catch (final IOException e) {
+			state = ""; // never equal to a cached state
+		}
+		start(state);
+	}
+	
+	/**
+	 * @param state The current state of the server, see {@link #getState()}
+	 */
+	void start(final String state) {
+		this.state = state;
+		if (!state.equals(cachedState))
+			abandonReplay();
+		current = this;
+	}
+	
+	/**
+	 * Stops recording and saves the recorded decisions if they differ from the cached ones.
+	 * 
+	 * @param save Whether the script was loaded without errors. If false the cache is deleted.
+	 */
+	public void stop(final boolean save) {
+		if (current == this)
+			current = null;
+		if (!save || recorded.contains(null)) {
+			file.delete();
+			return;
+		}
+		if (upToDate && replay != null && next == replay.length)
+			return;
+		DataOutputStream out = null;
+		try {
+			file.getParentFile().mkdirs();
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			out.writeInt(VERSION);
+			out.writeUTF(key);
+			out.writeUTF("" + state);
+			out.writeInt(recorded.size());
+			for (final Decision d : recorded)
+				d.write(out);
+			out.close();
+			out = null;
+		} catch (final IOException e) {
+			Skript.warning("Cannot cache " + file.getName() + ": " + e.getLocalizedMessage());
+			if (out != null) {
+				try {
+					out.close();
+				} catch (final IOException e1) {}
+			}
+			file.delete();
+		}
+	}
+	
+	@Nullable
+	private static String environment = null;
+	private static long environmentStamp = 0;
+	
+	/**
+	 * @return Everything besides the script itself that the cached decisions depend on
+	 */
+	private static synchronized String getEnvironment() throws IOException {
+		final List<File> files = new ArrayList<File>();
+		final File dataFolder = Skript.getInstance().getDataFolder();
+		files.add(new File(dataFolder, "aliases-english.sk"));
+		files.add(new File(dataFolder, "aliases-" + Language.getName() + ".sk"));
+		final List<SkriptAddon> addons = new ArrayList<SkriptAddon>(Skript.getAddons());
+		addons.add(0, Skript.getAddonInstance());
+		for (final SkriptAddon addon : addons) {
+			final String dir = addon.getLanguageFileDirectory();
+			if (dir == null)
+				continue;
+			files.add(new File(addon.plugin.getDataFolder(), dir + File.separator + "english.lang"));
+			files.add(new File(addon.plugin.getDataFolder(), dir + File.separator + Language.getName() + ".lang"));
+		}
+		
+		final StringBuilder b = new StringBuilder();
+		b.append("Skript ").append(Skript.getVersion());
+		for (final SkriptAddon addon : Skript.getAddons())
+			b.append(", ").append(addon.getName()).append(' ').append(addon.version);
+		// options that syntax elements may check when they are initialised
+		for (final Option<?> o : new Option<?>[] {SkriptConfig.language, SkriptConfig.caseSensitive, SkriptConfig.usePlayerUUIDsInVariableNames})
+			b.append(", ").append(o.key).append(": ").append(o.value());
+		
+		// the files are only hashed again if any of them changed
+		long stamp = b.toString().hashCode();
+		for (final File f : files)
+			stamp = stamp * 31 + f.lastModified() * 17 + f.length();
+		final String env = environment;
+		if (env != null && stamp == environmentStamp)
+			return env;
+		
+		final MessageDigest md5 = md5();
+		for (final File f : files) {
+			md5.update(f.getPath().getBytes("UTF-8"));
+			if (f.exists())
+				digest(md5, f);
+		}
+		b.append(", ");
+		hex(b, md5.digest());
+		final String r = "" + b;
+		environment = r;
+		environmentStamp = stamp;
+		return r;
+	}
+	
+	/**
+	 * Unlike the {@link #getEnvironment() environment}, this state can change while scripts are loaded, thus it must be determined right before the script is parsed.
+	 * 
+	 * @return A hash of the state of the server that can make expressions valid that didn't match anything before
+	 */
+	private static String getState() throws IOException {
+		final StringBuilder b = new StringBuilder(Functions.getSignatures());
+		for (final World w : Bukkit.getWorlds())
+			b.append(w.getName()).append('\n');
+		final MessageDigest md5 = md5();
+		md5.update(b.toString().getBytes("UTF-8"));
+		return "" + hex(new StringBuilder(), md5.digest());
+	}
+	
+	private static String hash(final File script) throws IOException {
+		final MessageDigest md5 = md5();
+		digest(md5, script);
+		return "" + hex(new StringBuilder(), md5.digest());
+	}
+	
+	private static MessageDigest md5() throws IOException {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IOException(e.getLocalizedMessage());
+		}
+	}
+	
+	private static void digest(final MessageDigest md5, final File f) throws IOException {
+		final InputStream in = new FileInputStream(f);
+		try {
+			final byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				md5.update(buffer, 0, n);
+		} finally {
+			in.close();
+		}
+	}
+	
+	private static StringBuilder hex(final StringBuilder b, final byte[] bytes) {
+		for (final byte x : bytes)
+			b.append(Character.forDigit((x >> 4) & 0xF, 16)).append(Character.forDigit(x & 0xF, 16));
+		return b;
+	}
+	
+	/**
+	 * Reserves the slot for the decision of an expression that is about to be parsed. Decisions of subexpressions are recorded after it.
+	 */
+	int reserve() {
+		recorded.add(null);
+		return recorded.size() - 1;
+	}
+	
+	/**
+	 * Discards the decisions of subexpressions of a pattern that didn't match.
+	 */
+	void truncate(final int size) {
+		if (recorded.size() > size)
+			recorded.subList(size, recorded.size()).clear();
+	}
+	
+	void set(final int slot, final Decision d) {
+		recorded.set(slot, d);
+	}
+	
+	void fail(final int slot, final SkriptParser parser, final @Nullable LogEntry error) {
+		truncate(slot + 1);
+		recorded.set(slot, new Decision(parser, error));
+	}
+	
+	/**
+	 * @return The next recorded decision if it was made for the given expression, or null if the decision has to be made by parsing normally.
+	 */
+	@Nullable
+	Decision replay(final String expr, final int flags, final ParseContext context) {
+		final Decision[] replay = this.replay;
+		if (replay == null)
+			return null;
+		if (next >= replay.length || !replay[next].matches(expr, flags, context)) {
+			abandonReplay();
+			return null;
+		}
+		return replay[next++];
+	}
+	
+	/**
+	 * Called if a decision couldn't be replayed. All further decisions are made by parsing normally, and the cache will be rewritten.
+	 */
+	void abandonReplay() {
+		replay = null;
+		upToDate = false;
+	}
+	
+}
@@ -27,6 +27,7 @@ import java.util.Deque;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -76,7 +77,7 @@ public class SkriptParser {
 	public final static int PARSE_EXPRESSIONS = 1;
 	public final static int PARSE_LITERALS = 2;
 	public final static int ALL_FLAGS = PARSE_EXPRESSIONS | PARSE_LITERALS;
-	private final int flags;
+	final int flags;
 	
 	public final ParseContext context;
 	
@@ -206,53 +207,42 @@ public class SkriptParser {
 	private final <T extends SyntaxElement> T parse(final Iterator<? extends SyntaxElementInfo<? extends T>> source) {
 		final ParseLogHandler log = SkriptLogger.startParseLogHandler();
 		try {
-			while (source.hasNext()) {
-				final SyntaxElementInfo<? extends T> info = source.next();
-				patternsLoop: for (int i = 0; i < info.patterns.length; i++) {
-					log.clear();
-					try {
-						final String pattern = info.patterns[i];
-						assert pattern != null;
-						final ParseResult res = parse_i(pattern, 0, 0);
-						if (res != null) {
-							int x = -1;
-							for (int j = 0; (x = nextUnescaped(pattern, '%', x + 1)) != -1; j++) {
-								final int x2 = nextUnescaped(pattern, '%', x + 1);
-								if (res.exprs[j] == null) {
-									final String name = pattern.substring(x + 1, x2);
-									if (!name.startsWith("-")) {
-										final ExprInfo vi = getExprInfo(name);
-										final DefaultExpression<?> expr = vi.classes[0].getDefaultExpression();
-										if (expr == null)
-											throw new SkriptAPIException("The class '" + vi.classes[0].getCodeName() + "' does not provide a default expression. Either allow null (with %-" + vi.classes[0].getCodeName() + "%) or make it mandatory [pattern: " + info.patterns[i] + "]");
-										if (!(expr instanceof Literal) && (vi.flagMask & PARSE_EXPRESSIONS) == 0)
-											throw new SkriptAPIException("The default expression of '" + vi.classes[0].getCodeName() + "' is not a literal. Either allow null (with %-*" + vi.classes[0].getCodeName() + "%) or make it mandatory [pattern: " + info.patterns[i] + "]");
-										if (expr instanceof Literal && (vi.flagMask & PARSE_LITERALS) == 0)
-											throw new SkriptAPIException("The default expression of '" + vi.classes[0].getCodeName() + "' is a literal. Either allow null (with %-~" + vi.classes[0].getCodeName() + "%) or make it mandatory [pattern: " + info.patterns[i] + "]");
-										if (!vi.isPlural[0] && !expr.isSingle())
-											throw new SkriptAPIException("The default expression of '" + vi.classes[0].getCodeName() + "' is not a single-element expression. Change your pattern to allow multiple elements or make the expression mandatory [pattern: " + info.patterns[i] + "]");
-										if (vi.time != 0 && !expr.setTime(vi.time))
-											throw new SkriptAPIException("The default expression of '" + vi.classes[0].getCodeName() + "' does not have distinct time states. [pattern: " + info.patterns[i] + "]");
-										if (!expr.init())
-											continue patternsLoop;
-										res.exprs[j] = expr;
-									}
-								}
-								x = x2;
-							}
-							final T t = info.c.newInstance();
-							if (t.init(res.exprs, i, ScriptLoader.hasDelayBefore, res)) {
-								log.printLog();
-								return t;
-							}
-						}
-					} catch (final InstantiationException e) {
-						assert false;
-					} catch (final IllegalAccessException e) {
-						assert false;
-					}
+			final ParseCache cache = ParseCache.current;
+			final int slot = cache == null ? -1 : cache.reserve();
+			final ParseCache.Decision d = cache == null ? null : cache.replay(expr, flags, context);
+			T t = null;
+			if (cache == null || d == null) {
+				t = search(source, 0, cache, slot, log);
+			} else if (d.info == -1) {
+				// nothing matched in the same script and state, thus nothing will match now either
+				final String error = d.error;
+				if (error != null)
+					log.error(error, ErrorQuality.get(d.quality));
+			} else {
+				final List<SyntaxElementInfo<? extends T>> skipped = new ArrayList<SyntaxElementInfo<? extends T>>(d.info + 1);
+				while (skipped.size() <= d.info && source.hasNext())
+					skipped.add(source.next());
+				if (skipped.size() == d.info + 1) {
+					final SyntaxElementInfo<? extends T> info = skipped.get(d.info);
+					if (info.c.getName().equals(d.c) && d.pattern < info.patterns.length)
+						t = parse(info, d.pattern);
+				}
+				if (t != null) {
+					cache.set(slot, d);
+				} else {
+					// the cached decision doesn't fit anymore, e.g. because a function used by the script has been changed - parse everything from here on normally
+					cache.abandonReplay();
+					t = search(skipped.iterator(), 0, cache, slot, log);
+					if (t == null)
+						t = search(source, skipped.size(), cache, slot, log);
 				}
 			}
+			if (t != null) {
+				log.printLog();
+				return t;
+			}
+			if (cache != null)
+				cache.fail(slot, this, log.getError());
 			log.printError();
 			return null;
 		} finally {
@@ -260,6 +250,85 @@ public class SkriptParser {
 		}
 	}
 	
+	/**
+	 * Tries all patterns of all syntax elements in order until one matches.
+	 * 
+	 * @param source
+	 * @param ordinal The index of the first element of <tt>source</tt> in the original source
+	 * @param cache The cache to record the matching pattern in, if any
+	 * @param slot The slot reserved in the cache
+	 * @param log
+	 * @return The parsed element or null if no pattern matched
+	 */
+	@Nullable
+	private final <T extends SyntaxElement> T search(final Iterator<? extends SyntaxElementInfo<? extends T>> source, int ordinal, final @Nullable ParseCache cache, final int slot, final ParseLogHandler log) {
+		for (; source.hasNext(); ordinal++) {
+			final SyntaxElementInfo<? extends T> info = source.next();
+			for (int i = 0; i < info.patterns.length; i++) {
+				log.clear();
+				if (cache != null)
+					cache.truncate(slot + 1);
+				final T t = parse(info, i);
+				if (t != null) {
+					if (cache != null)
+						cache.set(slot, new ParseCache.Decision(this, ordinal, info, i));
+					return t;
+				}
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Tries to parse this parser's expression with a single pattern of a syntax element, and initialises the element if the pattern matches.
+	 * 
+	 * @return The initialised element or null if the pattern didn't match or the element could not be initialised
+	 */
+	@Nullable
+	private final <T extends SyntaxElement> T parse(final SyntaxElementInfo<? extends T> info, final int i) {
+		try {
+			final String pattern = info.patterns[i];
+			assert pattern != null;
+			final CompiledPattern cp = CompiledPattern.get(pattern);
+			final ParseResult res = parse_i(cp, 0, 0);
+			if (res == null)
+				return null;
+			int x = -1;
+			for (int j = 0; (x = nextUnescaped(pattern, '%', x + 1)) != -1; j++) {
+				final int x2 = nextUnescaped(pattern, '%', x + 1);
+				if (res.exprs[j] == null) {
+					final String name = pattern.substring(x + 1, x2);
+					if (!name.startsWith("-")) {
+						final ExprInfo vi = cp.getExprSlot(x).info;
+						final DefaultExpression<?> expr = vi.classes[0].getDefaultExpression();
+						if (expr == null)
+							throw new SkriptAPIException("The class '" + vi.classes[0].getCodeName() + "' does not provide a default expression. Either allow null (with %-" + vi.classes[0].getCodeName() + "%) or make it mandatory [pattern: " + pattern + "]");
+						if (!(expr instanceof Literal) && (vi.flagMask & PARSE_EXPRESSIONS) == 0)
+							throw new SkriptAPIException("The default expression of '" + vi.classes[0].getCodeName() + "' is not a literal. Either allow null (with %-*" + vi.classes[0].getCodeName() + "%) or make it mandatory [pattern: " + pattern + "]");
+						if (expr instanceof Literal && (vi.flagMask & PARSE_LITERALS) == 0)
+							throw new SkriptAPIException("The default expression of '" + vi.classes[0].getCodeName() + "' is a literal. Either allow null (with %-~" + vi.classes[0].getCodeName() + "%) or make it mandatory [pattern: " + pattern + "]");
+						if (!vi.isPlural[0] && !expr.isSingle())
+							throw new SkriptAPIException("The default expression of '" + vi.classes[0].getCodeName() + "' is not a single-element expression. Change your pattern to allow multiple elements or make the expression mandatory [pattern: " + pattern + "]");
+						if (vi.time != 0 && !expr.setTime(vi.time))
+							throw new SkriptAPIException("The default expression of '" + vi.classes[0].getCodeName() + "' does not have distinct time states. [pattern: " + pattern + "]");
+						if (!expr.init())
+							return null;
+						res.exprs[j] = expr;
+					}
+				}
+				x = x2;
+			}
+			final T t = info.c.newInstance();
+			if (t.init(res.exprs, i, ScriptLoader.hasDelayBefore, res))
+				return t;
+		} catch (final InstantiationException e) {
+			assert false;
+		} catch (final IllegalAccessException e) {
+			assert false;
+		}
+		return null;
+	}
+	
 	@SuppressWarnings("null")
 	private final static Pattern varPattern = Pattern.compile("((the )?var(iable)? )?\\{([^{}]|%\\{|\\}%)+\\}", Pattern.CASE_INSENSITIVE);
 	
@@ -1023,7 +1092,13 @@ public class SkriptParser {
 	 * @return Parsed result or null on error (which does not imply that an error was printed)
 	 */
 	@Nullable
-	private final ParseResult parse_i(final String pattern, int i, int j) {
+	private final ParseResult parse_i(final String pattern, final int i, final int j) {
+		return parse_i(CompiledPattern.get(pattern), i, j);
+	}
+	
+	@Nullable
+	private final ParseResult parse_i(final CompiledPattern cp, int i, int j) {
+		final String pattern = cp.pattern;
 		ParseResult res;
 		int end, i2;
 		
@@ -1032,14 +1107,14 @@ public class SkriptParser {
 				case '[': {
 					final ParseLogHandler log = SkriptLogger.startParseLogHandler();
 					try {
-						res = parse_i(pattern, i, j + 1);
+						res = parse_i(cp, i, j + 1);
 						if (res != null) {
 							log.printLog();
 							return res;
 						}
 						log.clear();
-						j = nextBracket(pattern, ']', '[', j + 1, true) + 1;
-						res = parse_i(pattern, i, j);
+						j = cp.getClosingBracket(j) + 1;
+						res = parse_i(cp, i, j);
 						if (res == null)
 							log.printError();
 						else
@@ -1057,23 +1132,19 @@ public class SkriptParser {
 							log.clear();
 							if (j == start || pattern.charAt(j) == '|') {
 								int mark = 0;
-								if (j != pattern.length() - 1 && ('0' <= pattern.charAt(j + 1) && pattern.charAt(j + 1) <= '9' || pattern.charAt(j + 1) == '-')) {
-									final int j2 = pattern.indexOf('¦', j + 2);
-									if (j2 != -1) {
-										try {
-											mark = Integer.parseInt(pattern.substring(j + 1, j2));
-											j = j2;
-										} catch (final NumberFormatException e) {}
-									}
+								final int j2 = cp.markEnds[j];
+								if (j2 != -1) {
+									mark = cp.marks[j];
+									j = j2;
 								}
-								res = parse_i(pattern, i, j + 1);
+								res = parse_i(cp, i, j + 1);
 								if (res != null) {
 									log.printLog();
 									res.mark ^= mark; // doesn't do anything if no mark was set as x ^ 0 == x
 									return res;
 								}
 							} else if (pattern.charAt(j) == '(') {
-								j = nextBracket(pattern, ')', '(', j + 1, true);
+								j = cp.getClosingBracket(j);
 							} else if (pattern.charAt(j) == ')') {
 								break;
 							} else if (j == pattern.length() - 1) {
@@ -1089,11 +1160,9 @@ public class SkriptParser {
 				case '%': {
 					if (i == expr.length())
 						return null;
-					end = pattern.indexOf('%', j + 1);
-					if (end == -1)
-						throw new MalformedPatternException(pattern, "Odd number of '%'");
-					final String name = "" + pattern.substring(j + 1, end);
-					final ExprInfo vi = getExprInfo(name);
+					final ExprSlot slot = cp.getExprSlot(j);
+					end = slot.end;
+					final ExprInfo vi = slot.info;
 					if (end == pattern.length() - 1) {
 						i2 = expr.length();
 					} else {
@@ -1105,7 +1174,7 @@ public class SkriptParser {
 					try {
 						for (; i2 != -1; i2 = next(expr, i2, context)) {
 							log.clear();
-							res = parse_i(pattern, i2, end + 1);
+							res = parse_i(cp, i2, end + 1);
 							if (res != null) {
 								final ParseLogHandler log2 = SkriptLogger.startParseLogHandler();
 								try {
@@ -1139,7 +1208,7 @@ public class SkriptParser {
 											}
 											log2.printLog();
 											log.printLog();
-											res.exprs[countUnescaped(pattern, '%', 0, j) / 2] = e;
+											res.exprs[slot.index] = e;
 											return res;
 										}
 									}
@@ -1158,15 +1227,9 @@ public class SkriptParser {
 					return null;
 				}
 				case '<': {
-					end = pattern.indexOf('>', j + 1);// not next()
-					if (end == -1)
-						throw new MalformedPatternException(pattern, "Missing closing regex bracket '>'");
-					Pattern p;
-					try {
-						p = Pattern.compile(pattern.substring(j + 1, end));
-					} catch (final PatternSyntaxException e) {
-						throw new MalformedPatternException(pattern, "Invalid regex <" + pattern.substring(j + 1, end) + ">", e);
-					}
+					final RegexSlot slot = cp.getRegexSlot(j);
+					end = slot.end;
+					final Pattern p = slot.regex;
 					final ParseLogHandler log = SkriptLogger.startParseLogHandler();
 					try {
 						final Matcher m = p.matcher(expr);
@@ -1174,7 +1237,7 @@ public class SkriptParser {
 							log.clear();
 							m.region(i, i2);
 							if (m.matches()) {
-								res = parse_i(pattern, i2, end + 1);
+								res = parse_i(cp, i2, end + 1);
 								if (res != null) {
 									res.regexes.add(0, m.toMatchResult());
 									log.printLog();
@@ -1193,7 +1256,7 @@ public class SkriptParser {
 					j++;
 					continue;
 				case '|':
-					final int newJ = nextBracket(pattern, ')', '(', j + 1, getGroupLevel(pattern, j) != 0);
+					final int newJ = cp.getClosingBracket(j);
 					if (newJ == -1) {
 						if (i == expr.length()) {
 							j = pattern.length();
@@ -1378,4 +1441,183 @@ public class SkriptParser {
 		return r;
 	}
 	
+	
+	/**
+	 * The end and info of an expression in a pattern
+	 */
+	private final static class ExprSlot {
+		/**
+		 * Position of the closing '%'
+		 */
+		final int end;
+		/**
+		 * Index of the expression in {@link ParseResult#exprs}
+		 */
+		final int index;
+		final ExprInfo info;
+		
+		ExprSlot(final String pattern, final int start) {
+			end = pattern.indexOf('%', start + 1);
+			if (end == -1)
+				throw new MalformedPatternException(pattern, "Odd number of '%'");
+			index = countUnescaped(pattern, '%', 0, start) / 2;
+			info = getExprInfo("" + pattern.substring(start + 1, end));
+		}
+	}
+	
+	/**
+	 * The end and compiled regex of a regex in a pattern
+	 */
+	private final static class RegexSlot {
+		/**
+		 * Position of the closing '>'
+		 */
+		final int end;
+		final Pattern regex;
+		
+		RegexSlot(final String pattern, final int start) {
+			end = pattern.indexOf('>', start + 1);// not next()
+			if (end == -1)
+				throw new MalformedPatternException(pattern, "Missing closing regex bracket '>'");
+			try {
+				regex = Pattern.compile(pattern.substring(start + 1, end));
+			} catch (final PatternSyntaxException e) {
+				throw new MalformedPatternException(pattern, "Invalid regex <" + pattern.substring(start + 1, end) + ">", e);
+			}
+		}
+	}
+	
+	/**
+	 * A pattern with everything {@link SkriptParser#parse_i(CompiledPattern, int, int)} needs precomputed, i.e. the positions of closing brackets, parse marks, expression infos
+	 * and compiled regexes, all indexed by their position in the pattern.
+	 * <p>
+	 * Parts of the pattern that are invalid are not precomputed, but computed again when they are reached while parsing so that errors in patterns are still only reported
+	 * when a pattern is actually used, the same way as if patterns weren't compiled.
+	 */
+	private final static class CompiledPattern {
+		
+		private final static int UNKNOWN = Integer.MIN_VALUE;
+		
+		/**
+		 * All patterns that have been used so far. Patterns are usually either registered syntax element patterns or patterns of commands, thus this map doesn't grow
+		 * indefinitely.
+		 */
+		private final static ConcurrentHashMap<String, CompiledPattern> patterns = new ConcurrentHashMap<String, CompiledPattern>();
+		
+		final static CompiledPattern get(final String pattern) {
+			CompiledPattern cp = patterns.get(pattern);
+			if (cp == null) {
+				cp = new CompiledPattern(pattern);
+				patterns.put(pattern, cp);
+			}
+			return cp;
+		}
+		
+		final String pattern;
+		
+		/**
+		 * For '[' and '(': the position of the matching closing bracket. For '|': the position of the closing bracket of its group, or -1 if it's not in a group.
+		 * <p>
+		 * {@link #UNKNOWN} for other characters and invalid groups.
+		 */
+		private final int[] closingBrackets;
+		
+		/**
+		 * For '(' and '|': The position of the '¦' ending the parse mark following the character or -1 if there's no parse mark
+		 */
+		final int[] markEnds;
+		/**
+		 * The parse marks at the positions given by {@link #markEnds}
+		 */
+		final int[] marks;
+		
+		/**
+		 * {@link ExprSlot}s and {@link RegexSlot}s at the position of their opening character
+		 */
+		private final Object[] slots;
+		
+		private CompiledPattern(final String pattern) {
+			this.pattern = pattern;
+			final int length = pattern.length();
+			closingBrackets = new int[length];
+			markEnds = new int[length];
+			marks = new int[length];
+			slots = new Object[length];
+			Arrays.fill(closingBrackets, UNKNOWN);
+			Arrays.fill(markEnds, -1);
+			
+			for (int j = 0; j < length; j++) {
+				final char c = pattern.charAt(j);
+				if (c == '[' || c == '(' || c == '|') {
+					try {
+						closingBrackets[j] = computeClosingBracket(j);
+					} catch (final MalformedPatternException e) {}
+				}
+				if ((c == '(' || c == '|') && j != length - 1 && ('0' <= pattern.charAt(j + 1) && pattern.charAt(j + 1) <= '9' || pattern.charAt(j + 1) == '-')) {
+					final int j2 = pattern.indexOf('¦', j + 2);
+					if (j2 != -1) {
+						try {
+							marks[j] = Integer.parseInt(pattern.substring(j + 1, j2));
+							markEnds[j] = j2;
+						} catch (final NumberFormatException e) {}
+					}
+				}
+			}
+			
+			// expressions and regexes, skipping their contents like the parser does
+			try {
+				for (int j = 0; j < length; j++) {
+					final char c = pattern.charAt(j);
+					if (c == '\\') {
+						j++;
+					} else if (c == '%') {
+						final ExprSlot slot = new ExprSlot(pattern, j);
+						slots[j] = slot;
+						j = slot.end;
+					} else if (c == '<') {
+						final RegexSlot slot = new RegexSlot(pattern, j);
+						slots[j] = slot;
+						j = slot.end;
+					}
+				}
+			} catch (final RuntimeException e) {
+				// invalid pattern - the remaining slots are created when reached
+			}
+		}
+		
+		private int computeClosingBracket(final int j) {
+			switch (pattern.charAt(j)) {
+				case '[':
+					return nextBracket(pattern, ']', '[', j + 1, true);
+				case '(':
+					return nextBracket(pattern, ')', '(', j + 1, true);
+				case '|':
+					return nextBracket(pattern, ')', '(', j + 1, getGroupLevel(pattern, j) != 0);
+				default:
+					throw new IllegalArgumentException();
+			}
+		}
+		
+		/**
+		 * @param j Position of a '[', '(' or '|'
+		 * @return The position of the corresponding closing bracket, or -1 if the given '|' is not in a group
+		 * @throws MalformedPatternException If the group is not closed
+		 */
+		int getClosingBracket(final int j) throws MalformedPatternException {
+			final int r = closingBrackets[j];
+			return r != UNKNOWN ? r : computeClosingBracket(j);
+		}
+		
+		ExprSlot getExprSlot(final int j) {
+			final Object slot = slots[j];
+			return slot instanceof ExprSlot ? (ExprSlot) slot : new ExprSlot(pattern, j);
+		}
+		
+		RegexSlot getRegexSlot(final int j) {
+			final Object slot = slots[j];
+			return slot instanceof RegexSlot ? (RegexSlot) slot : new RegexSlot(pattern, j);
+		}
+		
+	}
+	
 }
@@ -44,6 +44,14 @@ public abstract class TriggerItem implements Debuggable {
 	@Nullable
 	private TriggerItem next = null;
 	
+	/**
+	 * The line of this item in its script, or -1 if unknown
+	 */
+	private int line = -1;
+	
+	// used by TriggerProfiler
+	int profilerSession = -1, profilerId = -1;
+	
 	protected TriggerItem() {}
 	
 	protected TriggerItem(final TriggerSection parent) {
@@ -86,9 +94,28 @@ public abstract class TriggerItem implements Debuggable {
 	public final static boolean walk(final TriggerItem start, final Event e) {
 		assert start != null && e != null;
 		TriggerItem i = start;
+		final Event previous = ExecutionFrame.enter(e);
 		try {
-			while (i != null)
-				i = i.walk(e);
+			if (TriggerProfiler.isRunning()) {
+				final Trigger t = start.getTrigger();
+				final long allocated = TriggerProfiler.getAllocatedBytes();
+				final long triggerStart = System.nanoTime();
+				try {
+					while (i != null) {
+						final TriggerItem item = i;
+						final long itemStart = System.nanoTime();
+						i = i.walk(e);
+						if (!(item instanceof Trigger))
+							TriggerProfiler.record(item, true, System.nanoTime() - itemStart, -1);
+					}
+				} finally {
+					if (t != null) // items that continue after a delay only add to the time of their trigger
+						TriggerProfiler.record(t, start == t, System.nanoTime() - triggerStart, allocated == -1 ? -1 : TriggerProfiler.getAllocatedBytes() - allocated);
+				}
+			} else {
+				while (i != null)
+					i = i.walk(e);
+			}
 			return true;
 		} catch (final StackOverflowError err) {
 			final Trigger t = start.getTrigger();
@@ -99,6 +126,8 @@ public abstract class TriggerItem implements Debuggable {
 		} catch (final Exception ex) {
 			if (ex.getStackTrace().length != 0) // empty exceptions have already been printed
 				Skript.exception(ex, i);
+		} finally {
+			ExecutionFrame.exit(previous);
 		}
 		return false;
 	}
@@ -157,6 +186,22 @@ public abstract class TriggerItem implements Debuggable {
 		return (Trigger) i;
 	}
 	
+	/**
+	 * @param line The line of this item in its script (see {@link ch.njol.skript.config.Node#getLine()})
+	 * @return this
+	 */
+	public TriggerItem setLine(final int line) {
+		this.line = line;
+		return this;
+	}
+	
+	/**
+	 * @return The line of this item in its script, or -1 if unknown
+	 */
+	public int getLine() {
+		return line;
+	}
+	
 	public TriggerItem setNext(final @Nullable TriggerItem next) {
 		this.next = next;
 		return this;
@@ -0,0 +1,209 @@
+/*
+ *   This file is part of Skript.
+ * 
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.lang;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Measures how often and how long triggers and their items are executed. Started and stopped with <tt>/skript profile start/stop</tt>.
+ * <p>
+ * Items are only timed while the profiler is running, otherwise {@link TriggerItem#walk(TriggerItem, org.bukkit.event.Event)} only checks {@link #isRunning()}. The time of an item only
+ * includes the item itself, e.g. checking the condition of a conditional or getting the next value of a loop, while the time of a trigger includes all of its items.
+ * 
+ * @author Peter Güttinger
+ */
+public final class TriggerProfiler {
+	
+	private TriggerProfiler() {}
+	
+	private static volatile boolean running = false;
+	
+	/**
+	 * Incremented each time the profiler is started to invalidate the ids of all items
+	 */
+	private static int session = 0;
+	
+	private static long startTime = 0, stopTime = 0;
+	
+	// the following is indexed by TriggerItem.profilerId, and guarded by the class
+	private static TriggerItem[] items = new TriggerItem[64];
+	private static long[] invocations = new long[64], totalNanos = new long[64], maxNanos = new long[64], allocatedBytes = new long[64];
+	private static int size = 0;
+	
+	@Nullable
+	private static ThreadMXBean threadBean = null;
+	@Nullable
+	private static Method getThreadAllocatedBytes = null;
+	static {
+		try {
+			final ThreadMXBean b = ManagementFactory.getThreadMXBean();
+			final Method m = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+			if (((Number) m.invoke(b, Thread.currentThread().getId())).longValue() >= 0) {
+				threadBean = b;
+				getThreadAllocatedBytes = m;
+			}
+		} catch (final Exception e) {} // not a HotSpot VM
+	}
+	
+	public static boolean isRunning() {
+		return running;
+	}
+	
+	/**
+	 * Starts the profiler, discarding all data of the previous run.
+	 * 
+	 * @return Whether the profiler was not already running
+	 */
+	public static synchronized boolean start() {
+		if (running)
+			return false;
+		session++;
+		Arrays.fill(items, 0, size, null);
+		Arrays.fill(invocations, 0, size, 0);
+		Arrays.fill(totalNanos, 0, size, 0);
+		Arrays.fill(maxNanos, 0, size, 0);
+		Arrays.fill(allocatedBytes, 0, size, 0);
+		size = 0;
+		startTime = System.currentTimeMillis();
+		running = true;
+		return true;
+	}
+	
+	/**
+	 * @return Whether the profiler was running
+	 */
+	public static synchronized boolean stop() {
+		if (!running)
+			return false;
+		running = false;
+		stopTime = System.currentTimeMillis();
+		return true;
+	}
+	
+	/**
+	 * @return How long the profiler has been running in milliseconds, not including any time after it was stopped
+	 */
+	public static synchronized long getDuration() {
+		return (running ? System.currentTimeMillis() : stopTime) - startTime;
+	}
+	
+	/**
+	 * @return The number of bytes allocated by the current thread so far, or -1 if this is not supported by the JVM. Includes a few bytes allocated by this method itself.
+	 */
+	static long getAllocatedBytes() {
+		final ThreadMXBean b = threadBean;
+		final Method m = getThreadAllocatedBytes;
+		if (b == null || m == null)
+			return -1;
+		try {
+			return ((Number) m.invoke(b, Thread.currentThread().getId())).longValue();
+		} catch (final Exception e) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * @param item
+	 * @param invocation Whether to count this as an invocation of the item, or only to add the time (used for triggers that continue after a delay)
+	 * @param nanos
+	 * @param allocated Allocated bytes or -1 if unknown
+	 */
+	static synchronized void record(final TriggerItem item, final boolean invocation, final long nanos, final long allocated) {
+		if (!running)
+			return;
+		int id = item.profilerSession == session ? item.profilerId : -1;
+		if (id == -1) {
+			id = size++;
+			if (id == items.length) {
+				final int newLength = items.length * 2;
+				items = Arrays.copyOf(items, newLength);
+				invocations = Arrays.copyOf(invocations, newLength);
+				totalNanos = Arrays.copyOf(totalNanos, newLength);
+				maxNanos = Arrays.copyOf(maxNanos, newLength);
+				allocatedBytes = Arrays.copyOf(allocatedBytes, newLength);
+			}
+			items[id] = item;
+			item.profilerId = id;
+			item.profilerSession = session;
+		}
+		if (invocation)
+			invocations[id]++;
+		totalNanos[id] += nanos;
+		if (nanos > maxNanos[id])
+			maxNanos[id] = nanos;
+		if (allocated > 0)
+			allocatedBytes[id] += allocated;
+	}
+	
+	/**
+	 * The profiling data of a single trigger or trigger item
+	 */
+	public final static class Entry {
+		public final TriggerItem item;
+		public final long invocations, totalNanos, maxNanos;
+		/**
+		 * Only available for triggers and only on some JVMs, -1 if unknown
+		 */
+		public final long allocatedBytes;
+		
+		Entry(final int id) {
+			item = items[id];
+			invocations = TriggerProfiler.invocations[id];
+			totalNanos = TriggerProfiler.totalNanos[id];
+			maxNanos = TriggerProfiler.maxNanos[id];
+			allocatedBytes = item instanceof Trigger && getThreadAllocatedBytes != null ? TriggerProfiler.allocatedBytes[id] : -1;
+		}
+	}
+	
+	private final static Comparator<Entry> byTotalTime = new Comparator<Entry>() {
+		@Override
+		public int compare(final @Nullable Entry e1, final @Nullable Entry e2) {
+			assert e1 != null && e2 != null;
+			return e1.totalNanos < e2.totalNanos ? 1 : e1.totalNanos > e2.totalNanos ? -1 : 0;
+		}
+	};
+	
+	/**
+	 * @param triggers Whether to return the hottest triggers or the hottest items
+	 * @param amount The maximum number of entries to return
+	 * @return The entries that took the most time in total, ordered by total time
+	 */
+	public static synchronized List<Entry> getHottest(final boolean triggers, final int amount) {
+		final List<Entry> r = new ArrayList<Entry>();
+		for (int i = 0; i < size; i++) {
+			if (items[i] instanceof Trigger == triggers)
+				r.add(new Entry(i));
+		}
+		Collections.sort(r, byTotalTime);
+		return r.size() <= amount ? r : new ArrayList<Entry>(r.subList(0, amount));
+	}
+	
+}
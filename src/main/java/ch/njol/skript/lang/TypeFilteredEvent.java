@@ -0,0 +1,55 @@
+/*
+ *   This file is part of Skript.
+ * 
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.lang;
+
+import org.bukkit.event.Event;
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.aliases.ItemType;
+
+/**
+ * A {@link SkriptEvent} that only applies to events whose block or item is of certain types, e.g. <tt>on break of stone</tt>. The triggers of such events are indexed by the
+ * ids of their types, thus an event only has to {@link SkriptEvent#check(Event) check} the triggers that can apply to the type of its block or item.
+ * <p>
+ * The index only narrows down the triggers to check, i.e. {@link SkriptEvent#check(Event)} is still called for every trigger whose types match and must still check the types
+ * itself.
+ * 
+ * @author Peter Güttinger
+ */
+public interface TypeFilteredEvent {
+	
+	/**
+	 * @return The types one of which the block or item of an event must be of for this event to apply, or null if this event is not limited to certain types
+	 */
+	@Nullable
+	public ItemType[] getFilterTypes();
+	
+	/**
+	 * Must return the same for all instances of the implementing class.
+	 * 
+	 * @param e An event this event is registered for
+	 * @return The type of the given event's block or item as <tt>id &lt;&lt; 16 | data &amp; 0xFFFF</tt>, or -1 if the event has no such type, in which case all triggers are
+	 *         checked
+	 */
+	public int getFilterKey(Event e);
+	
+}
@@ -30,7 +30,6 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
-import java.util.TreeMap;
 
 import org.bukkit.event.Event;
 import org.eclipse.jdt.annotation.Nullable;
@@ -77,6 +76,11 @@ public class Variable<T> implements Expression<T> {
 	final boolean local;
 	private final boolean list;
 	
+	/**
+	 * The slot of this local variable if its name is simple, or -1 (see {@link Variables#getLocalVariableSlot(String)})
+	 */
+	private final int slot;
+	
 	@Nullable
 	private final Variable<?> source;
 	
@@ -91,6 +95,7 @@ public class Variable<T> implements Expression<T> {
 		this.list = list;
 		
 		this.name = name;
+		slot = local && !list && name.isSimple() ? Variables.getLocalVariableSlot(name.getDefaultVariableName().toLowerCase(Locale.ENGLISH)) : -1;
 		
 		this.types = types;
 		this.superType = (Class<T>) Utils.getSuperType(types);
@@ -195,10 +200,15 @@ public class Variable<T> implements Expression<T> {
 	 */
 	@Nullable
 	private Object getRaw(final Event e) {
-		final String n = name.toString(e).toLowerCase(Locale.ENGLISH);
-		if (n.endsWith(Variable.SEPARATOR + "*") != list) // prevents e.g. {%expr%} where "%expr%" ends with "::*" from returning a Map
-			return null;
-		final Object val = Variables.getVariable(n, e, local);
+		final Object val;
+		if (slot != -1) {
+			val = Variables.getLocalVariable(slot, e);
+		} else {
+			final String n = name.toString(e).toLowerCase(Locale.ENGLISH);
+			if (n.endsWith(Variable.SEPARATOR + "*") != list) // prevents e.g. {%expr%} where "%expr%" ends with "::*" from returning a Map
+				return null;
+			val = Variables.getVariable(n, e, local);
+		}
 		if (val == null)
 			return Variables.getVariable((local ? LOCAL_VARIABLE_TOKEN : "") + name.getDefaultVariableName().toLowerCase(Locale.ENGLISH), e, false);
 		return val;
@@ -227,67 +237,21 @@ public class Variable<T> implements Expression<T> {
 	public Iterator<Pair<String, Object>> variablesIterator(final Event e) {
 		if (!list)
 			throw new SkriptAPIException("Looping a non-list variable");
-		final String name = StringUtils.substring(this.name.toString(e), 0, -1).toLowerCase(Locale.ENGLISH);
-		final Object val = Variables.getVariable(name + "*", e, local);
-		if (val == null)
+		final String name = this.name.toString(e).toLowerCase(Locale.ENGLISH);
+		if (!name.endsWith(SEPARATOR + "*"))
 			return new EmptyIterator<Pair<String, Object>>();
-		assert val instanceof TreeMap;
-		// temporary list to prevent CMEs
-		@SuppressWarnings("unchecked")
-		final Iterator<String> keys = new ArrayList<String>(((Map<String, Object>) val).keySet()).iterator();
-		return new Iterator<Pair<String, Object>>() {
-			@Nullable
-			private String key;
-			@Nullable
-			private Object next = null;
-			
-			@Override
-			public boolean hasNext() {
-				if (next != null)
-					return true;
-				while (keys.hasNext()) {
-					key = keys.next();
-					if (key != null) {
-						next = Variables.getVariable(name + key, e, local);
-						if (next != null && !(next instanceof TreeMap))
-							return true;
-					}
-				}
-				next = null;
-				return false;
-			}
-			
-			@Override
-			public Pair<String, Object> next() {
-				if (!hasNext())
-					throw new NoSuchElementException();
-				final Pair<String, Object> n = new Pair<String, Object>(key, next);
-				next = null;
-				return n;
-			}
-			
-			@Override
-			public void remove() {
-				throw new UnsupportedOperationException();
-			}
-		};
+		final Iterator<Pair<String, Object>> iter = Variables.getListIterator(name, e, local);
+		if (iter == null)
+			return new EmptyIterator<Pair<String, Object>>();
+		return iter;
 	}
 	
 	@Override
 	public Iterator<T> iterator(final Event e) {
 		if (!list)
 			throw new SkriptAPIException("");
-		final String name = StringUtils.substring(this.name.toString(e), 0, -1).toLowerCase(Locale.ENGLISH);
-		final Object val = Variables.getVariable(name + "*", e, local);
-		if (val == null)
-			return new EmptyIterator<T>();
-		assert val instanceof TreeMap;
-		// temporary list to prevent CMEs
-		@SuppressWarnings("unchecked")
-		final Iterator<String> keys = new ArrayList<String>(((Map<String, Object>) val).keySet()).iterator();
+		final Iterator<Pair<String, Object>> iter = variablesIterator(e);
 		return new Iterator<T>() {
-			@Nullable
-			private String key;
 			@Nullable
 			private T next = null;
 			
@@ -295,15 +259,11 @@ public class Variable<T> implements Expression<T> {
 			public boolean hasNext() {
 				if (next != null)
 					return true;
-				while (keys.hasNext()) {
-					key = keys.next();
-					if (key != null) {
-						next = Converters.convert(Variables.getVariable(name + key, e, local), types);
-						if (next != null && !(next instanceof TreeMap))
-							return true;
-					}
+				while (iter.hasNext()) {
+					next = Converters.convert(iter.next().getSecond(), types);
+					if (next != null)
+						return true;
 				}
-				next = null;
 				return false;
 			}
 			
@@ -324,6 +284,31 @@ public class Variable<T> implements Expression<T> {
 		};
 	}
 	
+	/**
+	 * Checks whether this list variable contains the given value, i.e. whether any of its elements is equal to it according to {@link Comparators#compare(Object, Object)}.
+	 * <p>
+	 * Uses the list's index of values if possible (see {@link Variables#findInList(String, Object, boolean, Event, boolean)}) instead of comparing the value to every element.
+	 * 
+	 * @param e
+	 * @param value
+	 * @return Whether the list contains the value
+	 */
+	public boolean contains(final Event e, final Object value) {
+		if (!list)
+			throw new SkriptAPIException("Invalid call to contains");
+		final String n = name.toString(e).toLowerCase(Locale.ENGLISH);
+		if (n.endsWith(SEPARATOR + "*") && types.length == 1 && types[0] == Object.class) { // otherwise elements that cannot be converted must be ignored
+			final List<String> found = Variables.findInList(n, value, false, e, local);
+			if (found != null)
+				return !found.isEmpty();
+		}
+		for (final T t : getArray(e)) {
+			if (Relation.EQUAL.is(Comparators.compare(t, value)))
+				return true;
+		}
+		return false;
+	}
+	
 	@Nullable
 	private T getConverted(final Event e) {
 		assert !list;
@@ -336,7 +321,10 @@ public class Variable<T> implements Expression<T> {
 	}
 	
 	private final void set(final Event e, final @Nullable Object value) {
-		Variables.setVariable("" + name.toString(e).toLowerCase(Locale.ENGLISH), value, e, local);
+		if (slot != -1)
+			Variables.setLocalVariable(slot, value, e);
+		else
+			Variables.setVariable("" + name.toString(e).toLowerCase(Locale.ENGLISH), value, e, local);
 	}
 	
 	private final void setIndex(final Event e, final String index, final @Nullable Object value) {
@@ -409,8 +397,14 @@ public class Variable<T> implements Expression<T> {
 					if (mode == ChangeMode.REMOVE) {
 						if (o == null)
 							return;
+						final String s = name.toString(e).toLowerCase(Locale.ENGLISH);
 						final ArrayList<String> rem = new ArrayList<String>(); // prevents CMEs
 						for (final Object d : delta) {
+							final List<String> found = Variables.findInList(s, d, false, e, local);
+							if (found != null) {
+								rem.addAll(found);
+								continue;
+							}
 							for (final Entry<String, Object> i : o.entrySet()) {
 								if (Relation.EQUAL.is(Comparators.compare(i.getValue(), d))) {
 									rem.add(i.getKey());
@@ -425,9 +419,15 @@ public class Variable<T> implements Expression<T> {
 					} else if (mode == ChangeMode.REMOVE_ALL) {
 						if (o == null)
 							return;
+						final String s = name.toString(e).toLowerCase(Locale.ENGLISH);
 						final ArrayList<String> rem = new ArrayList<String>(); // prevents CMEs
-						for (final Entry<String, Object> i : o.entrySet()) {
-							for (final Object d : delta) {
+						for (final Object d : delta) {
+							final List<String> found = Variables.findInList(s, d, true, e, local);
+							if (found != null) {
+								rem.addAll(found);
+								continue;
+							}
+							for (final Entry<String, Object> i : o.entrySet()) {
 								if (Relation.EQUAL.is(Comparators.compare(i.getValue(), d)))
 									rem.add(i.getKey());
 							}
@@ -438,14 +438,9 @@ public class Variable<T> implements Expression<T> {
 						}
 					} else {
 						assert mode == ChangeMode.ADD;
-						int i = 1;
-						for (final Object d : delta) {
-							if (o != null)
-								while (o.containsKey("" + i))
-									i++;
-							setIndex(e, "" + i, d);
-							i++;
-						}
+						final String s = name.toString(e).toLowerCase(Locale.ENGLISH);
+						for (final Object d : delta)
+							setIndex(e, "" + Variables.getNextListIndex(s, e, local), d);
 					}
 				} else {
 					Object o = get(e);
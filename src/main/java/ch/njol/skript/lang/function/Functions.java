@@ -24,6 +24,7 @@ package ch.njol.skript.lang.function;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -228,6 +229,24 @@ public abstract class Functions {
 		toValidate.clear();
 	}
 	
+	/**
+	 * @return The signatures of all currently registered functions, ordered by name. Whether a function call can be parsed only depends on these.
+	 */
+	public final static String getSignatures() {
+		final List<String> names = new ArrayList<String>(functions.keySet());
+		Collections.sort(names);
+		final StringBuilder b = new StringBuilder();
+		for (final String name : names) {
+			final Function<?> f = functions.get(name).function;
+			b.append(name).append('(').append(StringUtils.join(f.parameters, ", ")).append(')');
+			final ClassInfo<?> returnType = f.returnType;
+			if (returnType != null)
+				b.append(" :: ").append(Utils.toEnglishPlural(returnType.getCodeName(), !f.single));
+			b.append('\n');
+		}
+		return "" + b;
+	}
+	
 	@SuppressWarnings("null")
 	public static Iterable<JavaFunction<?>> getJavaFunctions() {
 		return javaFunctions.values();
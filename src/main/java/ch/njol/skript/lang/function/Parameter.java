@@ -34,6 +34,7 @@ import ch.njol.skript.lang.util.SimpleLiteral;
 import ch.njol.skript.log.RetainingLogHandler;
 import ch.njol.skript.log.SkriptLogger;
 import ch.njol.skript.util.Utils;
+import ch.njol.skript.variables.Variables;
 
 public final class Parameter<T> {
 	
@@ -46,11 +47,17 @@ public final class Parameter<T> {
 	
 	final boolean single;
 	
+	/**
+	 * The slot of the local variable this parameter is stored in if it is single, see {@link Variables#getLocalVariableSlot(String)}
+	 */
+	final int slot;
+	
 	public Parameter(final String name, final ClassInfo<T> type, final boolean single, final @Nullable Expression<? extends T> def) {
 		this.name = name;
 		this.type = type;
 		this.def = def;
 		this.single = single;
+		slot = single ? Variables.getLocalVariableSlot(name) : -1;
 	}
 	
 	public ClassInfo<T> getType() {
@@ -50,6 +50,7 @@ public class ScriptFunction<T> extends Function<T> {
 		Functions.currentFunction = this;
 		try {
 			trigger = new Trigger(node.getConfig().getFile(), "function " + name, new SimpleEvent(), ScriptLoader.loadItems(node));
+			trigger.setLine(node.getLine());
 		} finally {
 			Functions.currentFunction = null;
 		}
@@ -80,7 +81,7 @@ public class ScriptFunction<T> extends Function<T> {
 			final Parameter<?> p = parameters[i];
 			final Object[] val = params[i];
 			if (p.single) {
-				Variables.setVariable(p.name, val[0], e, true);
+				Variables.setLocalVariable(p.slot, val[0], e);
 			} else {
 				for (int j = 0; j < val.length; j++) {
 					Variables.setVariable(p.name + "::" + (j + 1), val[j], e, true);
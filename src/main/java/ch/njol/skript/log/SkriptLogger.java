@@ -40,8 +40,10 @@ public abstract class SkriptLogger {
 	@SuppressWarnings("null")
 	public final static Level SEVERE = Level.SEVERE;
 	
-	@Nullable
-	private static Node node = null;
+	/**
+	 * The node currently being parsed, per thread like {@link #handlers}.
+	 */
+	private final static ThreadLocal<Node> node = new ThreadLocal<Node>();
 	
 	private static Verbosity verbosity = Verbosity.NORMAL;
 	
@@ -56,7 +58,15 @@ public abstract class SkriptLogger {
 	@SuppressWarnings("null")
 	public final static Logger LOGGER = Bukkit.getServer() != null ? Bukkit.getLogger() : Logger.getLogger(Logger.GLOBAL_LOGGER_NAME); // cannot use Bukkit in tests
 	
-	private final static HandlerList handlers = new HandlerList();
+	/**
+	 * Each thread has its own handlers so that scripts can be read on other threads and messages from asynchronous events don't end up in a handler of the main thread.
+	 */
+	private final static ThreadLocal<HandlerList> handlers = new ThreadLocal<HandlerList>() {
+		@Override
+		protected HandlerList initialValue() {
+			return new HandlerList();
+		}
+	};
 	
 	/**
 	 * Shorthand for <tt>{@link #startLogHandler(LogHandler) startLogHandler}(new {@link RetainingLogHandler}());</tt>
@@ -101,11 +111,12 @@ public abstract class SkriptLogger {
 	 * @see RedirectingLogHandler
 	 */
 	public final static <T extends LogHandler> T startLogHandler(final T h) {
-		handlers.add(h);
+		handlers.get().add(h);
 		return h;
 	}
 	
 	final static void removeHandler(final LogHandler h) {
+		final HandlerList handlers = SkriptLogger.handlers.get();
 		if (!handlers.contains(h))
 			return;
 		if (!h.equals(handlers.remove())) {
@@ -117,7 +128,7 @@ public abstract class SkriptLogger {
 	}
 	
 	final static boolean isStopped(final LogHandler h) {
-		return !handlers.contains(h);
+		return !handlers.get().contains(h);
 	}
 	
 	@Nullable
@@ -136,12 +147,12 @@ public abstract class SkriptLogger {
 	}
 	
 	public static void setNode(final @Nullable Node node) {
-		SkriptLogger.node = node == null || node.getParent() == null ? null : node;
+		SkriptLogger.node.set(node == null || node.getParent() == null ? null : node);
 	}
 	
 	@Nullable
 	public static Node getNode() {
-		return node;
+		return node.get();
 	}
 	
 	/**
@@ -163,15 +174,16 @@ public abstract class SkriptLogger {
 	 * @see Skript#debug()
 	 */
 	public static void log(final Level level, final String message) {
-		log(new LogEntry(level, message, node));
+		log(new LogEntry(level, message, node.get()));
 	}
 	
 	public static void log(final @Nullable LogEntry entry) {
 		if (entry == null)
 			return;
+		final Node node = SkriptLogger.node.get();
 		if (Skript.testing() && node != null && node.debug())
 			System.out.print("---> " + entry.level + "/" + ErrorQuality.get(entry.quality) + ": " + entry.getMessage() + " ::" + LogEntry.findCaller());
-		for (final LogHandler h : handlers) {
+		for (final LogHandler h : handlers.get()) {
 			final LogResult r = h.log(entry);
 			switch (r) {
 				case CACHED:
@@ -196,7 +208,7 @@ public abstract class SkriptLogger {
 	}
 	
 	public static void logTracked(final Level level, final String message, final ErrorQuality quality) {
-		log(new LogEntry(level, quality.quality(), message, node, true));
+		log(new LogEntry(level, quality.quality(), message, node.get(), true));
 	}
 	
 	/**
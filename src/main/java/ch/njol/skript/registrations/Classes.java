@@ -35,6 +35,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import org.bukkit.Bukkit;
@@ -76,7 +77,6 @@ public abstract class Classes {
 	private static ClassInfo<?>[] classInfos = null;
 	private final static List<ClassInfo<?>> tempClassInfos = new ArrayList<ClassInfo<?>>();
 	private final static HashMap<Class<?>, ClassInfo<?>> exactClassInfos = new HashMap<Class<?>, ClassInfo<?>>();
-	private final static HashMap<Class<?>, ClassInfo<?>> superClassInfos = new HashMap<Class<?>, ClassInfo<?>>();
 	private final static HashMap<String, ClassInfo<?>> classInfosByCodeName = new HashMap<String, ClassInfo<?>>();
 	
 	/**
@@ -215,6 +215,59 @@ public abstract class Classes {
 		
 	}
 	
+	/**
+	 * The class infos relevant for instances of a given class. Only created after registration is over, at which point the class infos don't change anymore.
+	 */
+	private final static class ClassDispatch {
+		/**
+		 * The class info of the class or its closest registered superclass
+		 */
+		final ClassInfo<?> superClassInfo;
+		/**
+		 * The first class info with a parser that instances of the class are instances of, or null if there is none
+		 */
+		@Nullable
+		final ClassInfo<?> parserInfo;
+		/**
+		 * The class info of {@link #superClassInfo}'s {@link ClassInfo#getSerializeAs() serializeAs} class, or null if it doesn't have one or it is not registered
+		 */
+		@Nullable
+		final ClassInfo<?> serializeAsInfo;
+		
+		ClassDispatch(final Class<?> c) {
+			ClassInfo<?> superClassInfo = null, parserInfo = null;
+			for (final ClassInfo<?> ci : getClassInfos()) {
+				if (ci.getC().isAssignableFrom(c)) {
+					if (superClassInfo == null)
+						superClassInfo = ci;
+					if (ci.getParser() != null) {
+						parserInfo = ci;
+						break;
+					}
+				}
+			}
+			assert superClassInfo != null : c;
+			this.superClassInfo = superClassInfo;
+			this.parserInfo = parserInfo;
+			final Class<?> sa = superClassInfo.getSerializeAs();
+			serializeAsInfo = sa == null ? null : getExactClassInfo(sa);
+		}
+	}
+	
+	/**
+	 * Caches the class infos used for each class, including which classes don't have a parser. Accessed from any thread.
+	 */
+	private final static ConcurrentHashMap<Class<?>, ClassDispatch> dispatch = new ConcurrentHashMap<Class<?>, ClassDispatch>();
+	
+	private final static ClassDispatch getDispatch(final Class<?> c) {
+		ClassDispatch d = dispatch.get(c);
+		if (d == null) {
+			d = new ClassDispatch(c);
+			dispatch.put(c, d);
+		}
+		return d;
+	}
+	
 	private final static void checkAllowClassInfoInteraction() {
 		if (Skript.isAcceptRegistrations())
 			throw new IllegalStateException("Cannot use classinfos until registration is over");
@@ -278,18 +331,7 @@ public abstract class Classes {
 	public static <T> ClassInfo<? super T> getSuperClassInfo(final Class<T> c) {
 		assert c != null;
 		checkAllowClassInfoInteraction();
-		final ClassInfo<?> i = superClassInfos.get(c);
-		if (i != null)
-			return (ClassInfo<? super T>) i;
-		for (final ClassInfo<?> ci : getClassInfos()) {
-			if (ci.getC().isAssignableFrom(c)) {
-				if (!Skript.isAcceptRegistrations())
-					superClassInfos.put(c, ci);
-				return (ClassInfo<? super T>) ci;
-			}
-		}
-		assert false;
-		return null;
+		return (ClassInfo<? super T>) getDispatch(c).superClassInfo;
 	}
 	
 	/**
@@ -573,15 +615,16 @@ public abstract class Classes {
 			}
 			return "[" + b.toString() + "]";
 		}
-		for (final ClassInfo<?> ci : getClassInfos()) {
+		checkAllowClassInfoInteraction();
+		final ClassInfo<?> ci = getDispatch(o.getClass()).parserInfo;
+		if (ci != null) {
 			final Parser<?> parser = ci.getParser();
-			if (parser != null && ci.getC().isInstance(o)) {
-				@SuppressWarnings("unchecked")
-				final String s = mode == StringMode.MESSAGE ? ((Parser<T>) parser).toString(o, flags)
-						: mode == StringMode.DEBUG ? "[" + ci.getCodeName() + ":" + ((Parser<T>) parser).toString(o, mode) + "]"
-								: ((Parser<T>) parser).toString(o, mode);
-				return s;
-			}
+			assert parser != null;
+			@SuppressWarnings("unchecked")
+			final String s = mode == StringMode.MESSAGE ? ((Parser<T>) parser).toString(o, flags)
+					: mode == StringMode.DEBUG ? "[" + ci.getCodeName() + ":" + ((Parser<T>) parser).toString(o, mode) + "]"
+							: ((Parser<T>) parser).toString(o, mode);
+			return s;
 		}
 		return mode == StringMode.VARIABLE_NAME ? "object:" + o : "" + o;
 	}
@@ -660,10 +703,12 @@ public abstract class Classes {
 		// temporary
 		assert Bukkit.isPrimaryThread();
 		
+		checkAllowClassInfoInteraction();
 		@SuppressWarnings("null")
-		ClassInfo<?> ci = getSuperClassInfo(o.getClass());
+		final ClassDispatch cd = getDispatch(o.getClass());
+		ClassInfo<?> ci = cd.superClassInfo;
 		if (ci.getSerializeAs() != null) {
-			ci = getExactClassInfo(ci.getSerializeAs());
+			ci = cd.serializeAsInfo;
 			if (ci == null) {
 				assert false : o.getClass();
 				return null;
@@ -0,0 +1,691 @@
+/*
+ *   This file is part of Skript.
+ * 
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.Skript;
+import ch.njol.skript.config.SectionNode;
+import ch.njol.skript.log.SkriptLogger;
+import ch.njol.skript.registrations.Classes;
+import ch.njol.skript.util.ExceptionUtils;
+import ch.njol.skript.util.FileUtils;
+import ch.njol.skript.util.Task;
+import ch.njol.skript.util.Timespan;
+import ch.njol.skript.variables.SerializedVariable.Value;
+
+/**
+ * Stores variables in append-only segment files of length-prefixed binary records.
+ * <p>
+ * The configured file is the base segment, which is only ever written by a compaction. Changes are appended to log segments named <tt>&lt;file&gt;.1</tt>,
+ * <tt>&lt;file&gt;.2</tt>, etc., of which only the one with the highest number is written to. Segments are read in this order when loading, i.e. later records override earlier
+ * ones.
+ * <p>
+ * A record consists of its length (int), the CRC32 of its payload (int), and the payload: the variable's name, a flag whether the variable was deleted, and if not the variable's
+ * type and data. A record that is cut off or has an invalid checksum (e.g. because the server crashed while writing it) ends the segment and is discarded.
+ * <p>
+ * Every record that is overridden by a later record is dead. If enough records are dead, all segments except the one currently written to are merged into a new base segment in
+ * the background.
+ * 
+ * @author Peter Güttinger
+ */
+public class BinaryStorage extends VariablesStorage {
+	
+	private final static int MAGIC = 0x534B5642; // "SKVB"
+	private final static short FORMAT_VERSION = 1;
+	private final static int HEADER_SIZE = 4 + 2;
+	
+	private final static byte DELETED = 0, SET = 1;
+	
+	/**
+	 * Upper bound for the length of a record, to detect garbage length fields without trying to allocate huge arrays.
+	 */
+	private final static int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+	
+	/**
+	 * The size in bytes after which a new log segment is started
+	 */
+	private final static long MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+	
+	/**
+	 * Compaction is started when at least {@link #MIN_DEAD_RECORDS} and more than this fraction of all records are dead.
+	 */
+	private final static double MAX_DEAD_RATIO = 0.5;
+	private final static int MIN_DEAD_RECORDS = 1000;
+	
+	private final static long COMPACTION_CHECK_INTERVAL = 60 * 20; // ticks
+	
+	/**
+	 * The currently written log segment. Must be locked with {@link #connectionLock}, as must all the other fields below.
+	 */
+	@Nullable
+	private FileOutputStream activeFile;
+	@Nullable
+	private DataOutputStream active;
+	private int activeSegment = 0;
+	private long activeSize = 0;
+	
+	/**
+	 * The names of all variables whose latest record is not a deletion.
+	 */
+	private final HashSet<String> storedNames = new HashSet<String>();
+	/**
+	 * The total number of records in all segments.
+	 */
+	private long records = 0;
+	
+	private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+	private final DataOutputStream recordOut = new DataOutputStream(recordBuffer);
+	private final CRC32 crc = new CRC32();
+	
+	/**
+	 * Held for the whole duration of a compaction.
+	 */
+	private final Object compactionLock = new Object();
+	
+	@Nullable
+	private Task compactionTask;
+	
+	private boolean loadError = false;
+	
+	protected BinaryStorage(final String name) {
+		super(name);
+	}
+	
+	@Override
+	protected boolean requiresFile() {
+		return true;
+	}
+	
+	@Override
+	protected File getFile(final String file) {
+		return new File(file);
+	}
+	
+	private final File getLogSegment(final int n) {
+		final File f = file;
+		assert f != null;
+		return new File(f.getPath() + "." + n);
+	}
+	
+	private final File getCompactionFile() {
+		final File f = file;
+		assert f != null;
+		return new File(f.getPath() + ".compact");
+	}
+	
+	/**
+	 * @return The numbers of all existing log segments, in ascending order
+	 */
+	private final List<Integer> findLogSegments() {
+		final File f = file;
+		assert f != null;
+		final List<Integer> r = new ArrayList<Integer>();
+		final String prefix = f.getName() + ".";
+		final File[] files = f.getAbsoluteFile().getParentFile().listFiles();
+		if (files == null)
+			return r;
+		for (final File s : files) {
+			final String name = s.getName();
+			if (!s.isFile() || !name.startsWith(prefix) || name.length() == prefix.length())
+				continue;
+			final String number = name.substring(prefix.length());
+			boolean digits = true;
+			for (int i = 0; i < number.length(); i++)
+				digits &= '0' <= number.charAt(i) && number.charAt(i) <= '9';
+			if (digits && number.length() < 10)
+				r.add(Integer.parseInt(number));
+		}
+		Collections.sort(r);
+		return r;
+	}
+	
+	/**
+	 * @return All segments in the order they must be read
+	 */
+	private final List<File> getSegments() {
+		final File f = file;
+		assert f != null;
+		final List<File> r = new ArrayList<File>();
+		r.add(f);
+		for (final int n : findLogSegments())
+			r.add(getLogSegment(n));
+		return r;
+	}
+	
+	@Override
+	protected boolean load_i(final SectionNode n) {
+		SkriptLogger.setNode(null);
+		
+		final File file = this.file;
+		if (file == null) {
+			assert false : this;
+			return false;
+		}
+		
+		final File compactionFile = getCompactionFile();
+		if (compactionFile.exists() && !compactionFile.delete())
+			Skript.warning("Could not delete the incomplete compaction file '" + compactionFile.getName() + "'");
+		
+		final List<Integer> logSegments = findLogSegments();
+		final List<File> segments = getSegments();
+		
+		// continue writing to the last log segment if it's not too large already
+		if (!logSegments.isEmpty()) {
+			activeSegment = logSegments.get(logSegments.size() - 1);
+			if (getLogSegment(activeSegment).length() >= MAX_SEGMENT_SIZE)
+				activeSegment++;
+		} else {
+			activeSegment = 1;
+		}
+		
+		// the latest record of each variable, null for deleted ones
+		final HashMap<String, Value> vars = new HashMap<String, Value>();
+		IOException ioEx = null;
+		for (int i = 0; i < segments.size(); i++) {
+			final File segment = segments.get(i);
+			SegmentReader r = null;
+			try {
+				r = new SegmentReader(segment);
+				SerializedVariable var;
+				while ((var = r.next()) != null) {
+					records++;
+					vars.put(var.name, var.value);
+				}
+				if (r.isTorn()) {
+					if (i == segments.size() - 1) {
+						Skript.warning("The last record of '" + segment.getName() + "' is incomplete and will be discarded (the server was likely stopped while it was written)");
+						r.close();
+						truncate(segment, r.getValidLength());
+					} else {
+						Skript.error("'" + segment.getName() + "' is corrupted after byte " + r.getValidLength() + ". The variables stored after this point cannot be loaded.");
+						loadError = true;
+					}
+				}
+			} catch (final IOException e) {
+				ioEx = e;
+				loadError = true;
+			} finally {
+				if (r != null)
+					r.close();
+			}
+		}
+		
+		int unsuccessful = 0;
+		final StringBuilder invalid = new StringBuilder();
+		for (final Entry<String, Value> v : vars.entrySet()) {
+			final Value value = v.getValue();
+			if (value == null)
+				continue;
+			final String name = v.getKey();
+			storedNames.add(name);
+			final Object d = Classes.deserialize(value.type, value.data);
+			if (d == null) {
+				if (invalid.length() != 0)
+					invalid.append(", ");
+				invalid.append(name);
+				unsuccessful++;
+				continue;
+			}
+			Variables.variableLoaded(name, d, this);
+		}
+		
+		if (unsuccessful > 0) {
+			Skript.error(unsuccessful + " variable" + (unsuccessful == 1 ? "" : "s") + " could not be loaded from the database '" + databaseName + "'!");
+			Skript.error("Affected variables: " + invalid.toString());
+		}
+		if (ioEx != null) {
+			Skript.error("An I/O error occurred while loading the variables: " + ExceptionUtils.toString(ioEx));
+			Skript.error("This means that some to all variables could not be loaded!");
+		}
+		if (loadError) {
+			for (final File segment : segments) {
+				try {
+					final File bu = FileUtils.backup(segment);
+					Skript.info("Created a backup of " + segment.getName() + " as " + bu.getName());
+				} catch (final IOException ex) {
+					Skript.error("Could not backup " + segment.getName() + ": " + ex.getMessage());
+				}
+			}
+		}
+		
+		if (!connect())
+			return false;
+		
+		compactionTask = new Task(Skript.getInstance(), COMPACTION_CHECK_INTERVAL, COMPACTION_CHECK_INTERVAL, true) {
+			@Override
+			public void run() {
+				synchronized (connectionLock) {
+					final long dead = records - storedNames.size();
+					if (dead < MIN_DEAD_RECORDS || dead <= records * MAX_DEAD_RATIO)
+						return;
+				}
+				compact();
+			}
+		};
+		
+		return ioEx == null;
+	}
+	
+	private final static void truncate(final File f, final long length) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try {
+			raf.setLength(length);
+		} finally {
+			raf.close();
+		}
+	}
+	
+	@Override
+	protected void allLoaded() {
+		// no transaction support
+	}
+	
+	@Override
+	protected boolean connect() {
+		synchronized (connectionLock) {
+			if (active != null)
+				return true;
+			final File f = getLogSegment(activeSegment);
+			try {
+				final boolean exists = f.exists() && f.length() >= HEADER_SIZE;
+				final FileOutputStream activeFile = new FileOutputStream(f, exists);
+				final DataOutputStream active = new DataOutputStream(new BufferedOutputStream(activeFile, 64 * 1024));
+				activeSize = exists ? f.length() : 0;
+				if (!exists) {
+					active.writeInt(MAGIC);
+					active.writeShort(FORMAT_VERSION);
+					active.flush();
+					activeSize = HEADER_SIZE;
+				}
+				this.activeFile = activeFile;
+				this.active = active;
+				return true;
+			} catch (final IOException e) {
+				Skript.exception(e, "Cannot open '" + f.getName() + "' for writing");
+				return false;
+			}
+		}
+	}
+	
+	@Override
+	protected void disconnect() {
+		synchronized (connectionLock) {
+			final DataOutputStream active = this.active;
+			final FileOutputStream activeFile = this.activeFile;
+			if (active == null || activeFile == null)
+				return;
+			try {
+				active.flush();
+				activeFile.getFD().sync();
+			} catch (final IOException e) {
+				Skript.exception(e, "Cannot write variables to '" + getLogSegment(activeSegment).getName() + "'");
+			} finally {
+				try {
+					active.close();
+				} catch (final IOException e) {}
+				this.active = null;
+				this.activeFile = null;
+			}
+		}
+	}
+	
+	@Override
+	protected boolean save(final String name, final @Nullable String type, final @Nullable byte[] value) {
+		synchronized (connectionLock) {
+			if (type == null) {
+				if (!storedNames.remove(name))
+					return true; // nothing to delete
+			} else {
+				storedNames.add(name);
+			}
+			DataOutputStream active = this.active;
+			if (active == null) {
+				if (!connect())
+					return false;
+				active = this.active;
+				assert active != null;
+			}
+			try {
+				recordBuffer.reset();
+				writePayload(recordOut, name, type, value);
+				recordOut.flush();
+				crc.reset();
+				final byte[] payload = recordBuffer.toByteArray();
+				crc.update(payload);
+				active.writeInt(payload.length);
+				active.writeInt((int) crc.getValue());
+				active.write(payload);
+				activeSize += 4 + 4 + payload.length;
+				records++;
+				if (!savingBatch)
+					active.flush();
+			} catch (final IOException e) {
+				Skript.exception(e, "Cannot write the variable {" + name + "} to '" + getLogSegment(activeSegment).getName() + "'");
+				return false;
+			}
+			if (activeSize >= MAX_SEGMENT_SIZE) {
+				disconnect();
+				activeSegment++;
+				connect();
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Whether {@link #saveBatch(Collection)} is running, in which case the active segment is only flushed after the whole batch has been written.
+	 */
+	private boolean savingBatch = false;
+	
+	@Override
+	protected void saveBatch(final Collection<SerializedVariable> vars) {
+		synchronized (connectionLock) {
+			savingBatch = true;
+			try {
+				super.saveBatch(vars);
+			} finally {
+				savingBatch = false;
+				final DataOutputStream active = this.active;
+				if (active != null) {
+					try {
+						active.flush();
+					} catch (final IOException e) {
+						Skript.exception(e, "Cannot write variables to '" + getLogSegment(activeSegment).getName() + "'");
+					}
+				}
+			}
+		}
+	}
+	
+	private final static void writePayload(final DataOutputStream out, final String name, final @Nullable String type, final @Nullable byte[] value) throws IOException {
+		out.writeUTF(name);
+		if (type == null || value == null) {
+			out.writeByte(DELETED);
+		} else {
+			out.writeByte(SET);
+			out.writeUTF(type);
+			out.writeInt(value.length);
+			out.write(value);
+		}
+	}
+	
+	/**
+	 * Merges all segments except the currently written one into a new base segment that only contains the latest record of each variable that is not deleted.
+	 * <p>
+	 * Only the start and the end of the compaction lock the {@link #connectionLock}, i.e. variables can be saved while the segments are merged.
+	 */
+	final void compact() {
+		synchronized (compactionLock) {
+			if (closed)
+				return;
+			final File file = this.file;
+			assert file != null;
+			
+			final List<File> segments;
+			synchronized (connectionLock) {
+				disconnect();
+				segments = getSegments();
+				activeSegment++;
+				if (!connect())
+					return;
+			}
+			
+			final long start = System.currentTimeMillis();
+			final File compactionFile = getCompactionFile();
+			long merged = 0, written = 0;
+			try {
+				// first pass: find the position of the latest record of each variable
+				final HashMap<String, Long> latest = new HashMap<String, Long>();
+				for (int i = 0; i < segments.size(); i++) {
+					final SegmentReader r = new SegmentReader(segments.get(i));
+					try {
+						SerializedVariable var;
+						while ((var = r.next()) != null) {
+							merged++;
+							latest.put(var.name, var.value == null ? Long.valueOf(-1) : Long.valueOf(position(i, r.getRecordStart())));
+						}
+					} finally {
+						r.close();
+					}
+				}
+				
+				// second pass: copy these records
+				final FileOutputStream fout = new FileOutputStream(compactionFile);
+				try {
+					final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fout, 64 * 1024));
+					out.writeInt(MAGIC);
+					out.writeShort(FORMAT_VERSION);
+					final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+					final DataOutputStream bufferOut = new DataOutputStream(buffer);
+					final CRC32 crc = new CRC32();
+					for (int i = 0; i < segments.size(); i++) {
+						final SegmentReader r = new SegmentReader(segments.get(i));
+						try {
+							SerializedVariable var;
+							while ((var = r.next()) != null) {
+								final Value v = var.value;
+								if (v == null || latest.get(var.name).longValue() != position(i, r.getRecordStart()))
+									continue;
+								buffer.reset();
+								writePayload(bufferOut, var.name, v.type, v.data);
+								bufferOut.flush();
+								final byte[] payload = buffer.toByteArray();
+								crc.reset();
+								crc.update(payload);
+								out.writeInt(payload.length);
+								out.writeInt((int) crc.getValue());
+								out.write(payload);
+								written++;
+							}
+						} finally {
+							r.close();
+						}
+					}
+					out.flush();
+					fout.getFD().sync();
+				} finally {
+					fout.close();
+				}
+				
+				synchronized (connectionLock) {
+					FileUtils.move(compactionFile, file, true);
+					for (final File s : segments) {
+						if (!s.equals(file) && !s.delete())
+							Skript.warning("Could not delete the merged variables segment '" + s.getName() + "'. Please delete it manually while the server is stopped.");
+					}
+					records -= merged - written;
+				}
+				if (Skript.logHigh())
+					Skript.info("Compacted the database '" + databaseName + "' from " + merged + " to " + written + " records in " + (System.currentTimeMillis() - start) / 1000. + " seconds");
+			} catch (final IOException e) {
+				Skript.error("Could not compact the database '" + databaseName + "' (no variables are lost): " + ExceptionUtils.toString(e));
+				compactionFile.delete();
+			}
+		}
+	}
+	
+	private final static long position(final int segment, final long offset) {
+		return ((long) segment << 40) | offset;
+	}
+	
+	@Override
+	public void startBackupTask(final Timespan t) {
+		final File file = this.file;
+		if (file == null || t.getTicks() == 0)
+			return;
+		backupTask = new Task(Skript.getInstance(), t.getTicks(), t.getTicks(), true) {
+			@Override
+			public void run() {
+				synchronized (compactionLock) {
+					synchronized (connectionLock) {
+						disconnect();
+						try {
+							for (final File segment : getSegments())
+								FileUtils.backup(segment);
+						} catch (final IOException e) {
+							Skript.error("Automatic variables backup failed: " + e.getLocalizedMessage());
+						} finally {
+							connect();
+						}
+					}
+				}
+			}
+		};
+	}
+	
+	@Override
+	public void close() {
+		final Task ct = compactionTask;
+		if (ct != null)
+			ct.cancel();
+		final Task bt = backupTask;
+		if (bt != null)
+			bt.cancel();
+		super.close();
+		synchronized (compactionLock) {
+			disconnect();
+		}
+	}
+	
+	/**
+	 * Reads the records of a segment one by one.
+	 */
+	private final static class SegmentReader {
+		
+		private final DataInputStream in;
+		private final long length;
+		
+		private long position;
+		private long recordStart;
+		private boolean torn = false;
+		
+		SegmentReader(final File f) throws IOException {
+			length = f.length();
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 64 * 1024));
+			if (length == 0) { // newly created base segment
+				position = 0;
+				return;
+			}
+			if (length < HEADER_SIZE || in.readInt() != MAGIC) {
+				in.close();
+				throw new IOException("'" + f.getName() + "' is not a variables segment");
+			}
+			final short version = in.readShort();
+			if (version != FORMAT_VERSION) {
+				in.close();
+				throw new IOException("'" + f.getName() + "' has an unsupported format version (" + version + ")");
+			}
+			position = HEADER_SIZE;
+		}
+		
+		/**
+		 * @return The next record, or null if the end of the segment or an invalid record has been reached.
+		 */
+		@Nullable
+		SerializedVariable next() throws IOException {
+			if (torn || position == length)
+				return null;
+			recordStart = position;
+			final byte[] payload;
+			try {
+				final int size = in.readInt();
+				final int checksum = in.readInt();
+				if (size < 3 || size > MAX_RECORD_SIZE || position + 8 + size > length) {
+					torn = true;
+					return null;
+				}
+				payload = new byte[size];
+				in.readFully(payload);
+				final CRC32 crc = new CRC32();
+				crc.update(payload);
+				if ((int) crc.getValue() != checksum) {
+					torn = true;
+					return null;
+				}
+			} catch (final EOFException e) {
+				torn = true;
+				return null;
+			}
+			position += 8 + payload.length;
+			
+			final DataInputStream p = new DataInputStream(new ByteArrayInputStream(payload));
+			final String name = p.readUTF();
+			if (p.readByte() == DELETED)
+				return new SerializedVariable(name, null);
+			final String type = p.readUTF();
+			final byte[] data = new byte[p.readInt()];
+			p.readFully(data);
+			return new SerializedVariable(name, new Value(type, data));
+		}
+		
+		/**
+		 * @return The offset of the record last returned by {@link #next()}
+		 */
+		long getRecordStart() {
+			return recordStart;
+		}
+		
+		/**
+		 * @return Whether reading stopped at an incomplete or corrupted record
+		 */
+		boolean isTorn() {
+			return torn;
+		}
+		
+		/**
+		 * @return The length of the segment up to the first invalid record
+		 */
+		long getValidLength() {
+			return position;
+		}
+		
+		void close() {
+			try {
+				in.close();
+			} catch (final IOException e) {}
+		}
+		
+	}
+	
+}
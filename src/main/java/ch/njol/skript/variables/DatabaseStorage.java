@@ -25,7 +25,9 @@ import java.io.File;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Map.Entry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 
@@ -47,6 +49,7 @@ import ch.njol.skript.log.SkriptLogger;
 import ch.njol.skript.registrations.Classes;
 import ch.njol.skript.util.Task;
 import ch.njol.skript.util.Timespan;
+import ch.njol.util.NonNullPair;
 import ch.njol.util.SynchronizedReference;
 
 /**
@@ -129,6 +132,33 @@ public class DatabaseStorage extends VariablesStorage {
 	 */
 	private final static long TRANSACTION_DELAY = 500;
 	
+	/**
+	 * The number of variables written by a single multi-row statement (MySQL only, as the SQLite version shipped with Bukkit doesn't support multi-row inserts)
+	 */
+	private final static int ROWS_PER_STATEMENT = 50;
+	
+	/**
+	 * Interval between printing the statistics below if the verbosity is very high, in milliseconds
+	 */
+	private final static long STATISTICS_INTERVAL = 60 * 1000;
+	
+	// statistics; only written to by the write thread and the committing thread respectively
+	private volatile long batches = 0, batchedVariables = 0;
+	private volatile int lastBatchSize = 0;
+	private volatile long commits = 0, totalCommitLatency = 0, lastCommitLatency = 0;
+	
+	/**
+	 * Changes that could not be saved as the queries were not prepared. They are saved together with the next batch, as they are older than any changes queued in the meantime.
+	 * Guarded by {@link #db}.
+	 */
+	private final LinkedHashMap<String, SerializedVariable> retry = new LinkedHashMap<String, SerializedVariable>();
+	
+	private final static long MIN_RETRY_DELAY = 100, MAX_RETRY_DELAY = 5000;
+	/**
+	 * How long the write thread waits before the next batch while there are changes to {@link #retry}, doubled after each failed attempt. Only accessed by the write thread.
+	 */
+	private long retryDelay = 0;
+	
 	DatabaseStorage(final String name, final Type type) {
 		super(name);
 		this.type = type;
@@ -213,19 +243,20 @@ public class DatabaseStorage extends VariablesStorage {
 				if (hasOldTable) {
 					if (!hadNewTable) {
 						Skript.info("[2.1] Updating the database '" + databaseName + "' to the new format...");
+						final StripedVariablesMap.Snapshot snapshot = Variables.getVariablesSnapshot();
 						try {
-							Variables.getReadLock().lock();
-							for (final Entry<String, Object> v : Variables.getVariablesHashMap().entrySet()) {
-								if (accept(v.getKey())) {// only one database was possible, so only checking this database is correct
-									@SuppressWarnings("null")
-									final SerializedVariable var = Variables.serialize(v.getKey(), v.getValue());
+							int transferred = 0;
+							for (final NonNullPair<String, Object> v : snapshot) {
+								transferred++;
+								if (accept(v.getFirst())) {// only one database was possible, so only checking this database is correct
+									final SerializedVariable var = Variables.serialize(v.getFirst(), v.getSecond());
 									final SerializedVariable.Value d = var.value;
 									save(var.name, d == null ? null : d.type, d == null ? null : d.data);
 								}
 							}
-							Skript.info("Updated and transferred " + Variables.getVariablesHashMap().size() + " variables to the new table.");
+							Skript.info("Updated and transferred " + transferred + " variables to the new table.");
 						} finally {
-							Variables.getReadLock().unlock();
+							snapshot.close();
 						}
 					}
 					db.query("DELETE FROM " + OLD_TABLE_NAME + " WHERE value IS NULL");
@@ -292,17 +323,28 @@ public class DatabaseStorage extends VariablesStorage {
 			@Override
 			public void run() {
 				long lastCommit;
+				long lastStatistics = System.currentTimeMillis();
 				while (!closed) {
 					synchronized (db) {
 						final Database db = DatabaseStorage.this.db.get();
 						try {
-							if (db != null)
+							if (db != null) {
+								final long start = System.nanoTime();
 								db.getConnection().commit();
+								lastCommitLatency = System.nanoTime() - start;
+								totalCommitLatency += lastCommitLatency;
+								commits++;
+							}
 						} catch (final SQLException e) {
 							sqlException(e);
 						}
 						lastCommit = System.currentTimeMillis();
 					}
+					if (Skript.logVeryHigh() && lastCommit - lastStatistics >= STATISTICS_INTERVAL) {
+						Skript.info("Database '" + databaseName + "': queue size = " + getQueueSize() + ", average batch size = " + Math.round(getAverageBatchSize() * 10) / 10.
+								+ ", average commit latency = " + Math.round(getAverageCommitLatency() / 100000.) / 10. + " ms");
+						lastStatistics = lastCommit;
+					}
 					try {
 						Thread.sleep(Math.max(0, lastCommit + TRANSACTION_DELAY - System.currentTimeMillis()));
 					} catch (final InterruptedException e) {}
@@ -403,6 +445,17 @@ public class DatabaseStorage extends VariablesStorage {
 				} catch (final SQLException e) {}
 				writeQuery = db.prepare("REPLACE INTO " + TABLE_NAME + " (name, type, value, update_guid) VALUES (?, ?, ?, ?)");
 				
+				try {
+					if (multiWriteQuery != null)
+						multiWriteQuery.close();
+				} catch (final SQLException e) {}
+				if (type == Type.MYSQL) {
+					final StringBuilder q = new StringBuilder("REPLACE INTO " + TABLE_NAME + " (name, type, value, update_guid) VALUES ");
+					for (int i = 0; i < ROWS_PER_STATEMENT; i++)
+						q.append(i == 0 ? "(?, ?, ?, ?)" : ", (?, ?, ?, ?)");
+					multiWriteQuery = db.prepare("" + q);
+				}
+				
 				try {
 					if (deleteQuery != null)
 						deleteQuery.close();
@@ -445,6 +498,13 @@ public class DatabaseStorage extends VariablesStorage {
 	 */
 	@Nullable
 	private PreparedStatement writeQuery;
+	/**
+	 * Params: {@value #ROWS_PER_STATEMENT} times name, type, value, GUID
+	 * <p>
+	 * Writes several variables to the database at once. Only used for MySQL.
+	 */
+	@Nullable
+	private PreparedStatement multiWriteQuery;
 	/**
 	 * Params: name
 	 * <p>
@@ -467,14 +527,147 @@ public class DatabaseStorage extends VariablesStorage {
 	@Nullable
 	PreparedStatement monitorCleanUpQuery;
 	
+	private final static void checkSize(final String name, final @Nullable byte[] value) {
+		// REMIND get the actual maximum size from the database
+		if (name.length() > MAX_VARIABLE_NAME_LENGTH)
+			Skript.error("The name of the variable {" + name + "} is too long to be saved in a database (length: " + name.length() + ", maximum allowed: " + MAX_VARIABLE_NAME_LENGTH + ")! It will be truncated and won't bet available under the same name again when loaded.");
+		if (value != null && value.length > MAX_VALUE_SIZE)
+			Skript.error("The variable {" + name + "} cannot be saved in the database as its value's size (" + value.length + ") exceeds the maximum allowed size of " + MAX_VALUE_SIZE + "! An attempt to save the variable will be made nonetheless.");
+	}
+	
+	/**
+	 * Deletes and writes all variables using as few statements as possible. If that fails, the variables are saved one by one to not lose the whole batch because of a single
+	 * invalid variable.
+	 */
+	@Override
+	protected void saveBatch(final Collection<SerializedVariable> changes) {
+		final long delay = retryDelay;
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (db) {
+			final Collection<SerializedVariable> vars;
+			if (retry.isEmpty()) {
+				vars = changes;
+			} else {
+				for (final SerializedVariable var : changes)
+					retry.put(var.name, var);
+				vars = new ArrayList<SerializedVariable>(retry.values());
+				retry.clear();
+			}
+			final PreparedStatement deleteQuery = this.deleteQuery, writeQuery = this.writeQuery, multiWriteQuery = this.multiWriteQuery;
+			if (deleteQuery == null || writeQuery == null) {
+				for (final SerializedVariable var : vars)
+					retry.put(var.name, var);
+				if (delay == 0)
+					Skript.error("The queries of the database '" + databaseName + "' are not prepared, variable changes will be kept in memory until they are");
+				retryDelay = Math.min(delay == 0 ? MIN_RETRY_DELAY : 2 * delay, MAX_RETRY_DELAY);
+				return;
+			}
+			retryDelay = 0;
+			try {
+				final ArrayList<SerializedVariable> writes = new ArrayList<SerializedVariable>(vars.size());
+				int deletes = 0;
+				for (final SerializedVariable var : vars) {
+					final SerializedVariable.Value v = var.value;
+					checkSize(var.name, v == null ? null : v.data);
+					if (!monitor && v == null) {
+						deleteQuery.setString(1, var.name);
+						deleteQuery.addBatch();
+						deletes++;
+					} else {
+						writes.add(var);
+					}
+				}
+				if (deletes > 0)
+					deleteQuery.executeBatch();
+				
+				int w = 0;
+				if (multiWriteQuery != null) {
+					for (; w + ROWS_PER_STATEMENT <= writes.size(); w += ROWS_PER_STATEMENT) {
+						int i = 1;
+						for (int j = w; j < w + ROWS_PER_STATEMENT; j++)
+							i = setWriteParameters(multiWriteQuery, i, writes.get(j));
+						multiWriteQuery.executeUpdate();
+					}
+				}
+				if (w < writes.size()) {
+					for (; w < writes.size(); w++) {
+						setWriteParameters(writeQuery, 1, writes.get(w));
+						writeQuery.addBatch();
+					}
+					writeQuery.executeBatch();
+				}
+			} catch (final SQLException e) {
+				sqlException(e);
+				// the statements might still contain parameter sets of this batch, which would otherwise be executed with the next one
+				try {
+					deleteQuery.clearBatch();
+				} catch (final SQLException e2) {}
+				try {
+					writeQuery.clearBatch();
+				} catch (final SQLException e2) {}
+				for (final SerializedVariable var : vars) {
+					final SerializedVariable.Value v = var.value;
+					save(var.name, v == null ? null : v.type, v == null ? null : v.data);
+				}
+			}
+			batches++;
+			batchedVariables += vars.size();
+			lastBatchSize = vars.size();
+		}
+	}
+	
+	/**
+	 * @return The index of the next parameter
+	 */
+	private final static int setWriteParameters(final PreparedStatement q, int i, final SerializedVariable var) throws SQLException {
+		final SerializedVariable.Value v = var.value;
+		q.setString(i++, var.name);
+		q.setString(i++, v == null ? null : v.type);
+		q.setBytes(i++, v == null ? null : v.data); // SQLite desn't support setBlob
+		q.setString(i++, guid);
+		return i;
+	}
+	
+	/**
+	 * @return The average number of variables saved at once
+	 */
+	public double getAverageBatchSize() {
+		final long b = batches;
+		return b == 0 ? 0 : 1. * batchedVariables / b;
+	}
+	
+	/**
+	 * @return The number of variables saved in the last batch
+	 */
+	public int getLastBatchSize() {
+		return lastBatchSize;
+	}
+	
+	/**
+	 * @return The average time it took to commit a transaction, in nanoseconds
+	 */
+	public double getAverageCommitLatency() {
+		final long c = commits;
+		return c == 0 ? 0 : 1. * totalCommitLatency / c;
+	}
+	
+	/**
+	 * @return The time it took to commit the last transaction, in nanoseconds
+	 */
+	public long getLastCommitLatency() {
+		return lastCommitLatency;
+	}
+	
 	@Override
 	protected boolean save(final String name, final @Nullable String type, final @Nullable byte[] value) {
 		synchronized (db) {
-			// REMIND get the actual maximum size from the database
-			if (name.length() > MAX_VARIABLE_NAME_LENGTH)
-				Skript.error("The name of the variable {" + name + "} is too long to be saved in a database (length: " + name.length() + ", maximum allowed: " + MAX_VARIABLE_NAME_LENGTH + ")! It will be truncated and won't bet available under the same name again when loaded.");
-			if (value != null && value.length > MAX_VALUE_SIZE)
-				Skript.error("The variable {" + name + "} cannot be saved in the database as its value's size (" + value.length + ") exceeds the maximum allowed size of " + MAX_VALUE_SIZE + "! An attempt to save the variable will be made nonetheless.");
+			checkSize(name, value);
 			try {
 				if (!monitor && type == null) {
 					assert value == null;
@@ -504,6 +697,8 @@ public class DatabaseStorage extends VariablesStorage {
 	public void close() {
 		synchronized (db) {
 			super.close();
+			if (!retry.isEmpty())
+				Skript.error(retry.size() + " variable change" + (retry.size() == 1 ? "" : "s") + " could not be saved to the database '" + databaseName + "' as its queries were not prepared");
 			final Database db = this.db.get();
 			if (db != null) {
 				try {
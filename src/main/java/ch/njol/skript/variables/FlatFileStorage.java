@@ -30,10 +30,17 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Map.Entry;
-import java.util.TreeMap;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -41,8 +48,9 @@ import java.util.regex.Pattern;
 import org.eclipse.jdt.annotation.Nullable;
 
 import ch.njol.skript.Skript;
+import ch.njol.skript.classes.ClassInfo;
+import ch.njol.skript.classes.Serializer;
 import ch.njol.skript.config.SectionNode;
-import ch.njol.skript.lang.Variable;
 import ch.njol.skript.log.SkriptLogger;
 import ch.njol.skript.registrations.Classes;
 import ch.njol.skript.util.ExceptionUtils;
@@ -50,6 +58,7 @@ import ch.njol.skript.util.FileUtils;
 import ch.njol.skript.util.Task;
 import ch.njol.skript.util.Utils;
 import ch.njol.skript.util.Version;
+import ch.njol.util.NonNullPair;
 import ch.njol.util.NotifyingReference;
 
 /**
@@ -65,7 +74,7 @@ public class FlatFileStorage extends VariablesStorage {
 	public final static Charset UTF_8 = Charset.forName("UTF-8");
 	
 	/**
-	 * A Lock on this object must be acquired after connectionLock (if that lock is used) (and thus also after {@link Variables#getReadLock()}).
+	 * A Lock on this object must be acquired after connectionLock (if that lock is used).
 	 */
 	private final NotifyingReference<PrintWriter> changesWriter = new NotifyingReference<PrintWriter>();
 	
@@ -85,6 +94,9 @@ public class FlatFileStorage extends VariablesStorage {
 	
 	/**
 	 * Doesn'ts lock the connection as required by {@link Variables#variableLoaded(String, Object, VariablesStorage)}.
+	 * <p>
+	 * Lines are split, decoded and (if possible) deserialised in chunks by a pool of {@link Decoder} threads, while this thread reads the file and passes the decoded variables to
+	 * {@link Variables#variableLoaded(String, Object, VariablesStorage)} in the order they appear in the file.
 	 */
 	@SuppressWarnings({"deprecation"})
 	@Override
@@ -102,58 +114,94 @@ public class FlatFileStorage extends VariablesStorage {
 		final Version v2_1 = new Version(2, 1);
 		boolean update2_1 = false;
 		
+		final int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+		final ExecutorService decoders = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int n = 0;
+			
+			@Override
+			public Thread newThread(final @Nullable Runnable r) {
+				assert r != null;
+				final Thread t = Skript.newThread(r, "Skript variable loading thread " + (++n) + " for database '" + databaseName + "'");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		// decoded chunks in file order, limited to a few per thread to not read the whole file into memory at once
+		final LinkedList<Future<DecodedLine[]>> pending = new LinkedList<Future<DecodedLine[]>>();
+		
 		BufferedReader r = null;
 		try {
 			r = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
 			String line = null;
 			int lineNum = 0;
-			while ((line = r.readLine()) != null) {
-				lineNum++;
-				line = line.trim();
-				if (line.isEmpty() || line.startsWith("#")) {
-					if (line.startsWith("# version:")) {
-						try {
-							varVersion = new Version("" + line.substring("# version:".length()).trim());
-							update2_0_beta3 = varVersion.isSmallerThan(v2_0_beta3);
-							update2_1 = varVersion.isSmallerThan(v2_1);
-						} catch (final IllegalArgumentException e) {}
+			DecodedLine[] chunk = new DecodedLine[LOAD_CHUNK_SIZE];
+			int chunkSize = 0;
+			while (true) {
+				line = r.readLine();
+				if (line != null) {
+					lineNum++;
+					line = line.trim();
+					if (line.isEmpty() || line.startsWith("#")) {
+						if (line.startsWith("# version:")) {
+							try {
+								varVersion = new Version("" + line.substring("# version:".length()).trim());
+								update2_0_beta3 = varVersion.isSmallerThan(v2_0_beta3);
+								update2_1 = varVersion.isSmallerThan(v2_1);
+							} catch (final IllegalArgumentException e) {}
+						}
+						continue;
 					}
-					continue;
+					chunk[chunkSize++] = new DecodedLine(lineNum, line, update2_0_beta3, update2_1);
 				}
-				final String[] split = splitCSV(line);
-				if (split == null || split.length != 3) {
-					Skript.error("invalid amount of commas in line " + lineNum + " ('" + line + "')");
-					if (invalid.length() != 0)
-						invalid.append(", ");
-					invalid.append(split == null ? "<unknown>" : split[0]);
-					unsuccessful++;
-					continue;
+				if (chunkSize == LOAD_CHUNK_SIZE || line == null && chunkSize != 0) {
+					pending.add(decoders.submit(new Decoder(chunk, chunkSize)));
+					chunk = new DecodedLine[LOAD_CHUNK_SIZE];
+					chunkSize = 0;
 				}
-				if (split[1].equals("null")) {
-					Variables.variableLoaded("" + split[0], null, this);
-				} else {
-					Object d;
-					if (update2_1)
-						d = Classes.deserialize("" + split[1], "" + split[2]);
-					else
-						d = Classes.deserialize("" + split[1], decode("" + split[2]));
-					if (d == null) {
-						if (invalid.length() != 0)
-							invalid.append(", ");
-						invalid.append(split[0]);
-						unsuccessful++;
-						continue;
-					}
-					if (d instanceof String && update2_0_beta3) {
-						d = Utils.replaceChatStyles((String) d);
+				while (!pending.isEmpty() && (line == null || pending.size() > 2 * threads)) {
+					for (final DecodedLine l : getDecoded(pending.removeFirst())) {
+						final String[] split = l.split;
+						if (split == null || split.length != 3) {
+							Skript.error("invalid amount of commas in line " + l.lineNum + " ('" + l.line + "')");
+							if (invalid.length() != 0)
+								invalid.append(", ");
+							invalid.append(split == null ? "<unknown>" : split[0]);
+							unsuccessful++;
+							continue;
+						}
+						if (split[1].equals("null")) {
+							Variables.variableLoaded("" + split[0], null, this);
+						} else {
+							Object d = l.value;
+							if (d == null) {
+								final byte[] data = l.data;
+								if (l.update2_1)
+									d = Classes.deserialize("" + split[1], "" + split[2]);
+								else if (data != null)
+									d = Classes.deserialize("" + split[1], data);
+							}
+							if (d == null) {
+								if (invalid.length() != 0)
+									invalid.append(", ");
+								invalid.append(split[0]);
+								unsuccessful++;
+								continue;
+							}
+							if (d instanceof String && l.update2_0_beta3) {
+								d = Utils.replaceChatStyles((String) d);
+							}
+							Variables.variableLoaded("" + split[0], d, this);
+						}
 					}
-					Variables.variableLoaded("" + split[0], d, this);
 				}
+				if (line == null)
+					break;
 			}
 		} catch (final IOException e) {
 			loadError = true;
 			ioEx = e;
 		} finally {
+			decoders.shutdownNow();
 			if (r != null) {
 				try {
 					r.close();
@@ -199,13 +247,8 @@ public class FlatFileStorage extends VariablesStorage {
 			@Override
 			public void run() {
 				if (changes.get() >= REQUIRED_CHANGES_FOR_RESAVE) {
-					try {
-						Variables.getReadLock().lock();
-						saveVariables(false);
-						changes.set(0);
-					} finally {
-						Variables.getReadLock().unlock();
-					}
+					saveVariables(false);
+					changes.set(0);
 				}
 			}
 		};
@@ -213,6 +256,93 @@ public class FlatFileStorage extends VariablesStorage {
 		return ioEx == null;
 	}
 	
+	/**
+	 * The number of lines decoded at once by a thread in {@link #load_i(SectionNode)}
+	 */
+	private final static int LOAD_CHUNK_SIZE = 1000;
+	
+	/**
+	 * A line of the file which is decoded by a {@link Decoder}.
+	 */
+	private final static class DecodedLine {
+		final int lineNum;
+		final String line;
+		final boolean update2_0_beta3, update2_1;
+		
+		/**
+		 * The line split into name, type, and value, or null if the line is invalid. Set by the decoder.
+		 */
+		@Nullable
+		String[] split;
+		/**
+		 * The variable's value if it could be deserialised by the decoder
+		 */
+		@Nullable
+		Object value;
+		/**
+		 * The variable's serialised value if it must be deserialised on Bukkit's main thread
+		 */
+		@Nullable
+		byte[] data;
+		
+		DecodedLine(final int lineNum, final String line, final boolean update2_0_beta3, final boolean update2_1) {
+			this.lineNum = lineNum;
+			this.line = line;
+			this.update2_0_beta3 = update2_0_beta3;
+			this.update2_1 = update2_1;
+		}
+	}
+	
+	/**
+	 * Splits and decodes a chunk of lines, and deserialises all values whose type allows it outside of Bukkit's main thread. The results are then processed in order by the main
+	 * thread.
+	 */
+	private final static class Decoder implements Callable<DecodedLine[]> {
+		private final DecodedLine[] lines;
+		
+		Decoder(final DecodedLine[] lines, final int length) {
+			this.lines = length == lines.length ? lines : Arrays.copyOf(lines, length);
+		}
+		
+		@Override
+		public DecodedLine[] call() {
+			for (final DecodedLine l : lines) {
+				final String[] split = splitCSV(l.line);
+				l.split = split;
+				if (split == null || split.length != 3 || split[1].equals("null") || l.update2_1) // the old format may only be parsed on the main thread
+					continue;
+				final byte[] data = decode("" + split[2]);
+				final ClassInfo<?> ci = Classes.getClassInfoNoError(split[1]);
+				final Serializer<?> s = ci == null ? null : ci.getSerializer();
+				if (ci != null && s != null && !s.mustSyncDeserialization())
+					l.value = Classes.deserialize(ci, data);
+				else
+					l.data = data;
+			}
+			return lines;
+		}
+	}
+	
+	private final static DecodedLine[] getDecoded(final Future<DecodedLine[]> f) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					final DecodedLine[] r = f.get();
+					assert r != null;
+					return r;
+				} catch (final InterruptedException e) {
+					interrupted = true;
+				} catch (final ExecutionException e) {
+					throw Skript.exception(e.getCause(), "Error while loading variables");
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+	
 	@Override
 	protected void allLoaded() {
 		// no transaction support
@@ -283,8 +413,12 @@ public class FlatFileStorage extends VariablesStorage {
 						Thread.currentThread().interrupt();
 					}
 				}
-				writeCSV(cw, name, type, value == null ? "" : encode(value));
+				final String data = value == null ? "" : encode(value);
+				writeCSV(cw, name, type, data);
 				cw.flush();
+				final StringWriter rc = rewriteChanges;
+				if (rc != null)
+					writeCSV(new PrintWriter(rc), name, type, data);
 				changes.incrementAndGet();
 			}
 		}
@@ -349,8 +483,25 @@ public class FlatFileStorage extends VariablesStorage {
 		saveVariables(true); // also closes the writer
 	}
 	
+	/**
+	 * Serialises rewrites of the whole file.
+	 */
+	private final Object rewriteLock = new Object();
+	
+	/**
+	 * Copy of all changes written to the file since the current rewrite's snapshot was taken, or null if no rewrite is in progress. Changes written to the old file while it is being
+	 * rewritten are appended to the new file from here.
+	 * <p>
+	 * Must be locked with {@link #changesWriter}.
+	 */
+	@Nullable
+	private StringWriter rewriteChanges = null;
+	
 	/**
 	 * Completely rewrites the while file
+	 * <p>
+	 * The variables are written from a {@link Variables#getVariablesSnapshot() snapshot}, i.e. variables can be changed while the file is being written. Such changes are still
+	 * appended to the old file as usual, and are copied to the end of the new file before it replaces the old one.
 	 * 
 	 * @param finalSave whether this is the last save in this session or not.
 	 */
@@ -363,85 +514,107 @@ public class FlatFileStorage extends VariablesStorage {
 			if (bt != null)
 				bt.cancel();
 		}
-		try {
-			Variables.getReadLock().lock();
-			synchronized (connectionLock) {
-				try {
-					final File f = file;
-					if (f == null) {
-						assert false : this;
-						return;
-					}
+		synchronized (rewriteLock) {
+			final File f = file;
+			if (f == null) {
+				assert false : this;
+				return;
+			}
+			if (loadError) {
+				synchronized (connectionLock) {
 					disconnect();
-					if (loadError) {
-						try {
-							final File backup = FileUtils.backup(f);
-							Skript.info("Created a backup of the old " + f.getName() + " as " + backup.getName());
-							loadError = false;
-						} catch (final IOException e) {
-							Skript.error("Could not backup the old " + f.getName() + ": " + ExceptionUtils.toString(e));
-							Skript.error("No variables are saved!");
-							return;
-						}
-					}
-					final File tempFile = new File(Skript.getInstance().getDataFolder(), "variables.csv.temp");
-					PrintWriter pw = null;
 					try {
-						pw = new PrintWriter(tempFile, "UTF-8");
-						pw.println("# === Skript's variable storage ===");
-						pw.println("# Please do not modify this file manually!");
-						pw.println("#");
-						pw.println("# version: " + Skript.getVersion());
-						pw.println();
-						save(pw, "", Variables.getVariables());
-						pw.println();
-						pw.flush();
-						pw.close();
-						FileUtils.move(tempFile, f, true);
+						final File backup = FileUtils.backup(f);
+						Skript.info("Created a backup of the old " + f.getName() + " as " + backup.getName());
+						loadError = false;
 					} catch (final IOException e) {
-						Skript.error("Unable to make a final save of the database '" + databaseName + "' (no variables are lost): " + ExceptionUtils.toString(e)); // FIXME happens at random - check locks/threads
+						Skript.error("Could not backup the old " + f.getName() + ": " + ExceptionUtils.toString(e));
+						Skript.error("No variables are saved!");
+						return;
 					} finally {
-						if (pw != null)
-							pw.close();
+						if (!finalSave)
+							connect();
 					}
-				} finally {
-					if (!finalSave) {
-						connect();
+				}
+			}
+			
+			final StripedVariablesMap.Snapshot snapshot;
+			final StringWriter rewriteChanges = new StringWriter();
+			synchronized (connectionLock) {
+				synchronized (changesWriter) {
+					// all changes written after this point are either contained in the snapshot or will be copied to the new file
+					snapshot = Variables.getVariablesSnapshot();
+					this.rewriteChanges = rewriteChanges;
+				}
+			}
+			
+			final File tempFile = new File(Skript.getInstance().getDataFolder(), "variables.csv.temp");
+			boolean written = false;
+			PrintWriter pw = null;
+			try {
+				pw = new PrintWriter(tempFile, "UTF-8");
+				pw.println("# === Skript's variable storage ===");
+				pw.println("# Please do not modify this file manually!");
+				pw.println("#");
+				pw.println("# version: " + Skript.getVersion());
+				pw.println();
+				save(pw, snapshot);
+				pw.println();
+				pw.flush();
+				written = !pw.checkError();
+			} catch (final IOException e) {
+				Skript.error("Unable to make a final save of the database '" + databaseName + "' (no variables are lost): " + ExceptionUtils.toString(e)); // FIXME happens at random - check locks/threads
+			} finally {
+				snapshot.close();
+				if (pw != null)
+					pw.close();
+			}
+			
+			synchronized (connectionLock) {
+				synchronized (changesWriter) {
+					this.rewriteChanges = null;
+					try {
+						if (written) { // otherwise the old file is still complete
+							final PrintWriter cw = changesWriter.get();
+							if (cw != null) {
+								cw.close();
+								changesWriter.set(null);
+							}
+							pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tempFile, true), UTF_8));
+							pw.print(rewriteChanges.toString());
+							pw.close();
+							FileUtils.move(tempFile, f, true);
+						}
+					} catch (final IOException e) {
+						Skript.error("Unable to make a final save of the database '" + databaseName + "' (no variables are lost): " + ExceptionUtils.toString(e));
+					} finally {
+						if (finalSave)
+							disconnect();
+						else
+							connect();
 					}
 				}
 			}
-		} finally {
-			Variables.getReadLock().unlock();
 		}
 	}
 	
 	/**
 	 * Saves the variables.
 	 * <p>
-	 * This method uses the sorted variables map to save the variables in order.
+	 * The snapshot returns the variables sorted by name, thus the variables are saved in order.
 	 * 
 	 * @param pw
-	 * @param parent The parent's name with {@link Variable#SEPARATOR} at the end
-	 * @param map
+	 * @param variables
 	 */
-	@SuppressWarnings("unchecked")
-	private final void save(final PrintWriter pw, final String parent, final TreeMap<String, Object> map) {
-		outer: for (final Entry<String, Object> e : map.entrySet()) {
-			final Object val = e.getValue();
-			if (val == null)
+	private final void save(final PrintWriter pw, final Iterable<NonNullPair<String, Object>> variables) {
+		for (final NonNullPair<String, Object> v : variables) {
+			final String name = v.getFirst();
+			final VariablesStorage s = Variables.getStorage(name);
+			if (s != null && s != this)
 				continue;
-			if (val instanceof TreeMap) {
-				save(pw, parent + e.getKey() + Variable.SEPARATOR, (TreeMap<String, Object>) val);
-			} else {
-				final String name = (e.getKey() == null ? parent.substring(0, parent.length() - Variable.SEPARATOR.length()) : parent + e.getKey());
-				for (final VariablesStorage s : Variables.storages) {
-					if (s != this && s.accept(name))
-						continue outer;
-				}
-				final SerializedVariable.Value value = Classes.serialize(val);
-				if (value != null)
-					writeCSV(pw, name, value.type, encode(value.data));
-			}
+			final SerializedVariable.Value value = Classes.serialize(v.getSecond());
+			if (value != null)
+				writeCSV(pw, name, value.type, encode(value.data));
 		}
 	}
 	
@@ -0,0 +1,149 @@
+/*
+ *   This file is part of Skript.
+ * 
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.util.Pair;
+
+/**
+ * Iterates over the elements of a list variable, returning pairs of their indices and values.
+ * <p>
+ * The indices and values of the list are copied when the iterator is created, so that iterating doesn't require to look up every element again. If an element of the list is
+ * changed while iterating (e.g. in the body of a loop), the remaining elements are looked up again in the list to return their current values and to skip deleted elements.
+ * Changes to other variables don't affect the iterator.
+ * 
+ * @author Peter Güttinger
+ * @see Variables#getListIterator(String, org.bukkit.event.Event, boolean)
+ */
+public final class ListVariableIterator implements Iterator<Pair<String, Object>> {
+	
+	private final VariablesMap map;
+	
+	/**
+	 * The name of the list including the trailing {@link ch.njol.skript.lang.Variable#SEPARATOR}, used to find the list again if its node is {@link VariablesMap.Node#detached
+	 * detached}
+	 */
+	private final String prefix;
+	
+	@Nullable
+	private VariablesMap.Node list;
+	private final int modifications;
+	
+	/**
+	 * Whether the list has been changed since the iterator was created, i.e. whether the copied values might be outdated
+	 */
+	private boolean changed = false;
+	
+	private final String[] keys;
+	private final Object[] values;
+	private int size = 0;
+	
+	private int index = 0;
+	@Nullable
+	private Pair<String, Object> next = null;
+	
+	/**
+	 * Must be called while holding the lock of the given map (if any).
+	 * 
+	 * @param map
+	 * @param prefix The name of the list variable without the trailing '*'
+	 * @param list
+	 */
+	ListVariableIterator(final VariablesMap map, final String prefix, final VariablesMap.Node list) {
+		this.map = map;
+		this.prefix = prefix;
+		this.list = list;
+		modifications = list.modifications;
+		keys = new String[list.size()];
+		values = new Object[keys.length];
+		for (final Entry<String, Object> e : list.entrySet()) {
+			final String key = e.getKey();
+			if (key == null)
+				continue;
+			Object value = e.getValue();
+			if (value instanceof VariablesMap.Node) // a sublist, which can have a value itself
+				value = ((VariablesMap.Node) value).get(null);
+			if (value == null)
+				continue;
+			keys[size] = key;
+			values[size] = value;
+			size++;
+		}
+	}
+	
+	@Override
+	public boolean hasNext() {
+		if (next != null)
+			return true;
+		while (index < size) {
+			final String key = keys[index];
+			Object value = values[index];
+			index++;
+			if (!changed) {
+				final VariablesMap.Node list = this.list;
+				changed = list == null || list.detached || list.modifications != modifications;
+			}
+			if (changed) {
+				value = getCurrentValue(key);
+				if (value == null)
+					continue;
+			}
+			next = new Pair<String, Object>(key, value);
+			return true;
+		}
+		return false;
+	}
+	
+	@Nullable
+	private Object getCurrentValue(final String key) {
+		VariablesMap.Node list = this.list;
+		if (list != null && list.detached) { // the list has been deleted, or copied as it's part of a snapshot
+			final Object o = map.getVariable(prefix + "*");
+			this.list = list = o instanceof VariablesMap.Node ? (VariablesMap.Node) o : null;
+		}
+		if (list == null)
+			return null;
+		final Object value = list.get(key);
+		return value instanceof VariablesMap.Node ? ((VariablesMap.Node) value).get(null) : value;
+	}
+	
+	@Override
+	public Pair<String, Object> next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		final Pair<String, Object> n = next;
+		assert n != null;
+		next = null;
+		return n;
+	}
+	
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+	
+}
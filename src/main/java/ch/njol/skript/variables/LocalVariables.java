@@ -0,0 +1,185 @@
+/*
+ *   This file is part of Skript.
+ * 
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.event.Event;
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.lang.ExecutionFrame;
+import ch.njol.skript.lang.Variable;
+
+/**
+ * Stores the local variables of all events that are currently handled by triggers.
+ * <p>
+ * Every local variable whose name doesn't contain the list separator is assigned a slot when a script using it is loaded (see {@link #getSlot(String)}), and the values of these
+ * variables are stored in an array in the {@link ExecutionFrame} of each event. This array only grows as far as the slots that are actually set during the event. List variables and variables whose names are only known while a trigger is running (e.g.
+ * <tt>{_%player%}</tt>) are stored in a {@link VariablesMap} like before.
+ * <p>
+ * Slots are assigned per name and not per trigger, as all triggers called for the same event share their local variables.
+ * 
+ * @author Peter Güttinger
+ */
+final class LocalVariables {
+	
+	private LocalVariables() {}
+	
+	private final static ConcurrentHashMap<String, Integer> slots = new ConcurrentHashMap<String, Integer>();
+	/**
+	 * Guarded by {@link #slots}
+	 */
+	private static String[] slotNames = new String[16];
+	private static volatile int slotCount = 0;
+	
+	/**
+	 * The local variables of an event, stored as the state of this class in the event's {@link ExecutionFrame}
+	 */
+	private final static class Locals {
+		
+		private final static Object[] EMPTY = new Object[0];
+		
+		/**
+		 * The number of slots that existed when these locals were created. Variables that got a slot afterwards (i.e. while a trigger was waiting when scripts were reloaded) are
+		 * still stored in the map, as they might have been set by their name before.
+		 */
+		final int slots = slotCount;
+		
+		/**
+		 * The values of the slots below {@link #slots}, grown when a slot beyond its end is set. Slots beyond its end are not set.
+		 */
+		Object[] values = EMPTY;
+		
+		@Nullable
+		VariablesMap map = null;
+		
+		VariablesMap getMap() {
+			VariablesMap map = this.map;
+			if (map == null)
+				this.map = map = new VariablesMap();
+			return map;
+		}
+		
+	}
+	
+	/**
+	 * Gets the slot of a local variable, and assigns a new one if the variable doesn't have one yet. Should only be called when loading scripts.
+	 * 
+	 * @param name The name of the variable, excluding the local variable token
+	 * @return The variable's slot, or -1 if it is a list variable or an element of one and must thus be accessed by its name.
+	 */
+	static int getSlot(final String name) {
+		if (name.contains(Variable.SEPARATOR))
+			return -1;
+		final Integer s = slots.get(name);
+		if (s != null)
+			return s;
+		synchronized (slots) {
+			final Integer s2 = slots.get(name);
+			if (s2 != null)
+				return s2;
+			final int slot = slotCount;
+			if (slot == slotNames.length)
+				slotNames = Arrays.copyOf(slotNames, slot * 2);
+			slotNames[slot] = name;
+			slots.put(name, slot);
+			slotCount = slot + 1;
+			return slot;
+		}
+	}
+	
+	private final static String getSlotName(final int slot) {
+		synchronized (slots) {
+			final String name = slotNames[slot];
+			assert name != null;
+			return name;
+		}
+	}
+	
+	@Nullable
+	private final static Locals getLocals(final @Nullable Event e) {
+		final ExecutionFrame frame = ExecutionFrame.get(e);
+		return frame == null ? null : (Locals) frame.getState(LocalVariables.class);
+	}
+	
+	private final static Locals getOrCreateLocals(final Event e) {
+		final ExecutionFrame frame = ExecutionFrame.getOrCreate(e);
+		Locals l = (Locals) frame.getState(LocalVariables.class);
+		if (l == null)
+			frame.setState(LocalVariables.class, l = new Locals());
+		return l;
+	}
+	
+	/**
+	 * @param e
+	 * @return The map storing the local list variables of the given event, or null if it has none.
+	 */
+	@Nullable
+	static VariablesMap getMap(final @Nullable Event e) {
+		final Locals l = getLocals(e);
+		return l == null ? null : l.map;
+	}
+	
+	@Nullable
+	static Object get(final int slot, final @Nullable Event e) {
+		final Locals l = getLocals(e);
+		if (l == null)
+			return null;
+		if (slot < l.slots)
+			return slot < l.values.length ? l.values[slot] : null;
+		final VariablesMap map = l.map;
+		return map == null ? null : map.getVariable(getSlotName(slot));
+	}
+	
+	static void set(final int slot, final @Nullable Object value, final Event e) {
+		final Locals l = getOrCreateLocals(e);
+		if (slot < l.slots) {
+			if (slot >= l.values.length) {
+				if (value == null)
+					return;
+				l.values = Arrays.copyOf(l.values, Math.max(slot + 1, Math.min(2 * l.values.length, l.slots)));
+			}
+			l.values[slot] = value;
+		} else {
+			l.getMap().setVariable(getSlotName(slot), value);
+		}
+	}
+	
+	@Nullable
+	static Object get(final String name, final @Nullable Event e) {
+		final Integer slot = slots.get(name);
+		if (slot != null)
+			return get(slot, e);
+		final VariablesMap map = getMap(e);
+		return map == null ? null : map.getVariable(name);
+	}
+	
+	static void set(final String name, final @Nullable Object value, final Event e) {
+		final Integer slot = slots.get(name);
+		if (slot != null)
+			set(slot, value, e);
+		else
+			getOrCreateLocals(e).getMap().setVariable(name, value);
+	}
+	
+}
@@ -0,0 +1,176 @@
+/*
+ *   This file is part of Skript.
+ * 
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Finds the database a variable is saved in, i.e. the first storage in the config whose pattern matches the variable's name, without matching every storage's pattern against
+ * every variable.
+ * <p>
+ * Patterns that are a literal prefix followed by <tt>.*</tt> (e.g. <tt>stats::.*</tt> or <tt>tmp_.*</tt>) and patterns that match everything are compiled into a prefix tree
+ * which is walked once per name. Any other patterns are only matched if their storage comes before the best storage found in the tree. Names with line terminators are always
+ * matched with the patterns as <tt>.</tt> doesn't match those.
+ * <p>
+ * Finding a storage does not allocate any objects if all patterns are prefix patterns.
+ * 
+ * @author Peter Güttinger
+ */
+final class StorageRouter {
+	
+	private final static class Node {
+		/**
+		 * Sorted
+		 */
+		char[] chars = new char[0];
+		Node[] children = new Node[0];
+		/**
+		 * The index of the first storage whose prefix ends at this node, or {@link Integer#MAX_VALUE} if none
+		 */
+		int storage = Integer.MAX_VALUE;
+		
+		@Nullable
+		Node get(final char c) {
+			final int i = Arrays.binarySearch(chars, c);
+			return i < 0 ? null : children[i];
+		}
+		
+		Node getOrCreate(final char c) {
+			int i = Arrays.binarySearch(chars, c);
+			if (i >= 0)
+				return children[i];
+			i = -i - 1;
+			final Node n = new Node();
+			final char[] cs = new char[chars.length + 1];
+			System.arraycopy(chars, 0, cs, 0, i);
+			System.arraycopy(chars, i, cs, i + 1, chars.length - i);
+			cs[i] = c;
+			final Node[] ns = new Node[children.length + 1];
+			System.arraycopy(children, 0, ns, 0, i);
+			System.arraycopy(children, i, ns, i + 1, children.length - i);
+			ns[i] = n;
+			chars = cs;
+			children = ns;
+			return n;
+		}
+	}
+	
+	private final VariablesStorage[] storages;
+	
+	private final Node root = new Node();
+	
+	/**
+	 * Indices of the storages whose patterns could not be compiled into the tree, in ascending order
+	 */
+	private final int[] others;
+	
+	StorageRouter(final List<VariablesStorage> storages) {
+		this.storages = storages.toArray(new VariablesStorage[storages.size()]);
+		final int[] others = new int[this.storages.length];
+		int numOthers = 0;
+		for (int i = 0; i < this.storages.length; i++) {
+			final Pattern p = this.storages[i].getVariablePattern();
+			final String prefix = p == null ? "" : getPrefix(p.pattern());
+			if (prefix == null) {
+				others[numOthers++] = i;
+				continue;
+			}
+			Node n = root;
+			for (int j = 0; j < prefix.length(); j++)
+				n = n.getOrCreate(prefix.charAt(j));
+			if (i < n.storage)
+				n.storage = i;
+		}
+		this.others = Arrays.copyOf(others, numOthers);
+	}
+	
+	/**
+	 * @param pattern A regular expression
+	 * @return The literal prefix if the pattern is of the form <tt>prefix.*</tt>, or null if it is not
+	 */
+	@Nullable
+	static String getPrefix(final String pattern) {
+		if (!pattern.endsWith(".*") || pattern.endsWith("\\.*"))
+			return null;
+		final StringBuilder b = new StringBuilder();
+		final int end = pattern.length() - 2;
+		for (int i = 0; i < end; i++) {
+			final char c = pattern.charAt(i);
+			if (c == '\\') {
+				if (i + 1 == end)
+					return null;
+				final char n = pattern.charAt(++i);
+				if (Character.isLetterOrDigit(n)) // character classes like \d and other escapes
+					return null;
+				b.append(n);
+			} else if ("[](){}.*+?^$|".indexOf(c) != -1) {
+				return null;
+			} else {
+				b.append(c);
+			}
+		}
+		return b.toString();
+	}
+	
+	/**
+	 * @param name The name of a variable
+	 * @return The storage the variable is saved in, or null if no storage accepts it
+	 */
+	@Nullable
+	VariablesStorage getStorage(final String name) {
+		int best = Integer.MAX_VALUE;
+		Node n = root;
+		for (int i = 0; i < name.length(); i++) {
+			final char c = name.charAt(i);
+			if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029')
+				return getStorageByPatterns(name); // '.*' doesn't match line terminators
+			if (n != null) {
+				if (n.storage < best)
+					best = n.storage;
+				n = n.get(c);
+			}
+		}
+		if (n != null && n.storage < best)
+			best = n.storage;
+		for (final int i : others) {
+			if (i >= best)
+				break;
+			if (storages[i].accept(name))
+				return storages[i];
+		}
+		return best == Integer.MAX_VALUE ? null : storages[best];
+	}
+	
+	@Nullable
+	private VariablesStorage getStorageByPatterns(final String name) {
+		for (final VariablesStorage s : storages) {
+			if (s.accept(name))
+				return s;
+		}
+		return null;
+	}
+	
+}
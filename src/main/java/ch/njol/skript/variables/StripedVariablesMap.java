@@ -0,0 +1,388 @@
+/*
+ *   This file is part of Skript.
+ * 
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.lang.Variable;
+import ch.njol.util.Closeable;
+import ch.njol.util.NonNullPair;
+
+/**
+ * Stores the global variables in several {@link VariablesMap}s ("stripes"), each with its own lock. Which stripe a variable belongs to is determined by the first segment of its
+ * name, i.e. a list variable and all its elements are always stored in the same stripe, and changes to unrelated variables rarely have to wait for each other.
+ * <p>
+ * Getting a variable never takes a lock, as the variable trees can be read while they are modified (see {@link VariablesMap.Node}). Recently used single variables are
+ * additionally cached by their full names, thus getting such a variable doesn't even have to split its name. The cache grows with the number of variables, as a miss has to
+ * walk the variable's path through the tree, i.e. costs several cache misses of the CPU if many variables are used.
+ * 
+ * @author Peter Güttinger
+ */
+final class StripedVariablesMap {
+	
+	/**
+	 * Must be a power of two
+	 */
+	private final static int STRIPES = 32;
+	
+	private final VariablesMap[] maps = new VariablesMap[STRIPES];
+	private final ReentrantReadWriteLock[] locks = new ReentrantReadWriteLock[STRIPES];
+	
+	/**
+	 * Must be powers of two
+	 */
+	private final static int MIN_CACHE_SIZE = 4096, MAX_CACHE_SIZE = 1 << 22;
+	
+	private final static class CachedVariable {
+		final String name;
+		@Nullable
+		final Object value;
+		final int stripe, epoch;
+		
+		CachedVariable(final String name, final @Nullable Object value, final int stripe, final int epoch) {
+			this.name = name;
+			this.value = value;
+			this.stripe = stripe;
+			this.epoch = epoch;
+		}
+	}
+	
+	/**
+	 * A direct-mapped cache of single variables shared by all stripes. Only the name a variable is stored with is cached, as well as unset variables with a
+	 * {@link VariablesMap#isUniqueName(String) canonical} name, thus changing a variable only has to clear the slot of the changed name. Changes that might affect other names
+	 * (e.g. setting <tt>{a::01}</tt> or deleting a whole list) invalidate all entries of the stripe instead by incrementing its {@link #epochs epoch}.
+	 * <p>
+	 * As entries are added without any locking, an entry added while its variable is being changed is removed again by the reader that added it (see {@link #versions}).
+	 */
+	private volatile AtomicReferenceArray<CachedVariable> cache = new AtomicReferenceArray<CachedVariable>(MIN_CACHE_SIZE);
+	
+	/**
+	 * The number of variables in all stripes, used to grow the {@link #cache} to at least four times this number of slots. Replacing the cache doesn't need any locking, as a
+	 * new cache is empty and readers that still use the old cache only read entries that were valid after they started reading.
+	 */
+	private final AtomicInteger variables = new AtomicInteger();
+	
+	/**
+	 * Cached variables are only valid if they have the current epoch of their stripe. Only incremented while holding the stripe's write lock.
+	 */
+	private final AtomicIntegerArray epochs = new AtomicIntegerArray(STRIPES);
+	
+	/**
+	 * Incremented before and after every change to a stripe, i.e. odd while a variable of the stripe is being changed. A reader that sees the same even version before and
+	 * after reading a variable and adding it to the cache knows that the variable hasn't been changed in the meantime. Otherwise the variable's cache slot might already
+	 * have been cleared by the change, thus the reader has to remove its entry again.
+	 */
+	private final AtomicIntegerArray versions = new AtomicIntegerArray(STRIPES);
+	
+	StripedVariablesMap() {
+		for (int i = 0; i < STRIPES; i++) {
+			locks[i] = new ReentrantReadWriteLock();
+			maps[i] = new VariablesMap();
+		}
+	}
+	
+	private final static int getCacheSlot(final AtomicReferenceArray<CachedVariable> cache, final String name) {
+		final int h = name.hashCode();
+		return (h ^ (h >>> 16)) & (cache.length() - 1);
+	}
+	
+	private synchronized void growCache() {
+		final int length = cache.length();
+		if (length < MAX_CACHE_SIZE && variables.get() > length / 4)
+			cache = new AtomicReferenceArray<CachedVariable>(length * 2);
+	}
+	
+	/**
+	 * Calculates the stripe of a variable from the first segment of its name without creating a substring.
+	 */
+	final static int getStripe(final String name) {
+		int h = 0;
+		for (int i = 0; i < name.length(); i++) {
+			if (name.startsWith(Variable.SEPARATOR, i))
+				break;
+			h = 31 * h + name.charAt(i);
+		}
+		h ^= (h >>> 20) ^ (h >>> 12);
+		h ^= (h >>> 7) ^ (h >>> 4);
+		return h & (STRIPES - 1);
+	}
+	
+	/**
+	 * Returns the internal value of the requested variable.
+	 * <p>
+	 * <b>Do not modify the returned value!</b>
+	 * 
+	 * @param name
+	 * @return an Object for a normal Variable or a Map<String, Object> for a list variable, or null if the variable is not set.
+	 * @see VariablesMap#getVariable(String)
+	 */
+	@Nullable
+	final Object getVariable(final String name) {
+		final int s = getStripe(name);
+		if (name.endsWith("*"))
+			return maps[s].getVariable(name);
+		final AtomicReferenceArray<CachedVariable> cache = this.cache;
+		final int slot = getCacheSlot(cache, name);
+		final CachedVariable c = cache.get(slot);
+		if (c != null && c.name.equals(name) && c.epoch == epochs.get(c.stripe))
+			return c.value;
+		final int version = versions.get(s), epoch = epochs.get(s);
+		final Object value = maps[s].getVariable(name, true);
+		if (value == VariablesMap.OTHER_NAME)
+			return maps[s].getVariable(name);
+		if ((version & 1) == 0 && (value != null || VariablesMap.isUniqueName(name))) {
+			final CachedVariable added = new CachedVariable(name, value, s, epoch);
+			cache.set(slot, added);
+			if (versions.get(s) != version)
+				cache.compareAndSet(slot, added, null);
+		}
+		return value;
+	}
+	
+	/**
+	 * @see VariablesMap#getNextListIndex(String)
+	 */
+	final int getNextListIndex(final String name) {
+		final int s = getStripe(name);
+		locks[s].readLock().lock();
+		try {
+			return maps[s].getNextListIndex(name);
+		} finally {
+			locks[s].readLock().unlock();
+		}
+	}
+	
+	/**
+	 * @see VariablesMap#getListIterator(String)
+	 */
+	@Nullable
+	final ListVariableIterator getListIterator(final String name) {
+		final int s = getStripe(name);
+		locks[s].readLock().lock();
+		try {
+			return maps[s].getListIterator(name);
+		} finally {
+			locks[s].readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Takes the stripe's write lock as the list's index might have to be created.
+	 * 
+	 * @see VariablesMap#findInList(String, Object, boolean)
+	 */
+	@Nullable
+	final List<String> findInList(final String name, final Object value, final boolean all) {
+		final int s = getStripe(name);
+		locks[s].writeLock().lock();
+		try {
+			return maps[s].findInList(name, value, all);
+		} finally {
+			locks[s].writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Sets a variable.
+	 * 
+	 * @param name The variable's name. Can be a "list variable::*" (<tt>value</tt> must be <tt>null</tt> in this case)
+	 * @param value The variable's value. Use <tt>null</tt> to delete the variable.
+	 * @see VariablesMap#setVariable(String, Object)
+	 */
+	final void setVariable(final String name, final @Nullable Object value) {
+		final int s = getStripe(name);
+		locks[s].writeLock().lock();
+		try {
+			versions.incrementAndGet(s);
+			final int size = maps[s].size;
+			boolean otherNames = true;
+			try {
+				otherNames = maps[s].setVariable(name, value);
+			} finally {
+				if (otherNames) {
+					epochs.incrementAndGet(s);
+				} else {
+					final AtomicReferenceArray<CachedVariable> cache = this.cache;
+					cache.set(getCacheSlot(cache, name), null);
+				}
+				versions.incrementAndGet(s);
+				if (maps[s].size != size && variables.addAndGet(maps[s].size - size) > cache.length() / 4)
+					growCache();
+			}
+		} finally {
+			locks[s].writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * @return The number of variables stored in this map. List variables are not counted, only their elements.
+	 */
+	final int size() {
+		int size = 0;
+		for (final VariablesMap map : maps)
+			size += map.size;
+		return size;
+	}
+	
+	/**
+	 * Creates a consistent view of all variables. The snapshot must be closed after use.
+	 * <p>
+	 * Creating a snapshot only locks all stripes for a moment to freeze their trees (see {@link VariablesMap#freeze()}). Variables can be changed while the snapshot is open, at the
+	 * cost of copying each modified list variable once.
+	 */
+	final Snapshot snapshot() {
+		return new Snapshot();
+	}
+	
+	/**
+	 * A consistent view of all variables, which can be iterated over in the order of their names (per stripe).
+	 */
+	final class Snapshot implements Iterable<NonNullPair<String, Object>>, Closeable {
+		
+		private final VariablesMap.Node[] roots = new VariablesMap.Node[STRIPES];
+		
+		private volatile boolean closed = false;
+		
+		Snapshot() {
+			for (int i = 0; i < STRIPES; i++)
+				locks[i].writeLock().lock();
+			try {
+				for (int i = 0; i < STRIPES; i++)
+					roots[i] = maps[i].freeze();
+			} finally {
+				for (int i = STRIPES - 1; i >= 0; i--)
+					locks[i].writeLock().unlock();
+			}
+		}
+		
+		/**
+		 * Iterates over all variables of this snapshot. List variables are not returned, only their elements.
+		 * <p>
+		 * The returned iterator must not be used anymore after the snapshot has been closed.
+		 */
+		@Override
+		public Iterator<NonNullPair<String, Object>> iterator() {
+			if (closed)
+				throw new IllegalStateException("snapshot has already been closed");
+			return new TreeIterator(roots);
+		}
+		
+		@Override
+		public synchronized void close() {
+			if (closed)
+				return;
+			closed = true;
+			for (int i = 0; i < STRIPES; i++) {
+				locks[i].writeLock().lock();
+				try {
+					maps[i].unfreeze();
+				} finally {
+					locks[i].writeLock().unlock();
+				}
+			}
+		}
+		
+	}
+	
+	/**
+	 * Walks the variable trees depth-first, returning every value together with its full name.
+	 */
+	private final static class TreeIterator implements Iterator<NonNullPair<String, Object>> {
+		
+		private final VariablesMap.Node[] roots;
+		private int nextRoot = 0;
+		
+		private final ArrayList<Iterator<Entry<String, Object>>> iterators = new ArrayList<Iterator<Entry<String, Object>>>();
+		/**
+		 * The name of the list variable of the corresponding iterator with {@link Variable#SEPARATOR} at the end, or "" for a root.
+		 */
+		private final ArrayList<String> prefixes = new ArrayList<String>();
+		
+		@Nullable
+		private NonNullPair<String, Object> next = null;
+		
+		TreeIterator(final VariablesMap.Node[] roots) {
+			this.roots = roots;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			if (next != null)
+				return true;
+			while (true) {
+				if (iterators.isEmpty()) {
+					if (nextRoot == roots.length)
+						return false;
+					iterators.add(roots[nextRoot++].entrySet().iterator());
+					prefixes.add("");
+				}
+				final int last = iterators.size() - 1;
+				final Iterator<Entry<String, Object>> iter = iterators.get(last);
+				if (!iter.hasNext()) {
+					iterators.remove(last);
+					prefixes.remove(last);
+					continue;
+				}
+				final Entry<String, Object> e = iter.next();
+				final Object val = e.getValue();
+				if (val == null)
+					continue;
+				final String prefix = prefixes.get(last);
+				if (val instanceof VariablesMap.Node) {
+					iterators.add(((VariablesMap.Node) val).entrySet().iterator());
+					prefixes.add(prefix + e.getKey() + Variable.SEPARATOR);
+					continue;
+				}
+				final String name = e.getKey() == null ? prefix.substring(0, prefix.length() - Variable.SEPARATOR.length()) : prefix + e.getKey();
+				next = new NonNullPair<String, Object>("" + name, val);
+				return true;
+			}
+		}
+		
+		@Override
+		public NonNullPair<String, Object> next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			final NonNullPair<String, Object> n = next;
+			assert n != null;
+			next = null;
+			return n;
+		}
+		
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+		
+	}
+	
+}
@@ -0,0 +1,215 @@
+/*
+ *   This file is part of Skript.
+ * 
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import ch.njol.skript.SkriptConfig;
+import ch.njol.skript.classes.Comparator;
+import ch.njol.skript.registrations.Comparators;
+import ch.njol.util.coll.CollectionUtils;
+
+/**
+ * Maps the values of a list variable to their indices to find the elements equal to a given value without comparing it to every element of the list. Built when a list is
+ * searched for the first time (see {@link VariablesMap#findInList(String, Object, boolean)}) and kept up to date by {@link VariablesMap.Node} afterwards.
+ * <p>
+ * Only values whose equality can be decided by a hash lookup are indexed: texts (ignoring case unless {@link SkriptConfig#caseSensitive} is set), whole numbers, and values of a
+ * few immutable types that are compared with {@link Object#equals(Object)}. If a list contains any other values, or values of different kinds, the index can't be used and the
+ * list has to be searched element by element like before.
+ * <p>
+ * Indexed values must not change while they are in a list, as their entries are found by their keys when they are removed. Other values can be changed in place, e.g. a location
+ * by <tt>set x-coordinate of {_locs::1} to 5</tt>.
+ * 
+ * @author Peter Güttinger
+ */
+final class ValueIndex {
+	
+	/**
+	 * Whole numbers up to this value are represented exactly by doubles, and can thus be compared as longs.
+	 */
+	private final static double MAX_EXACT_DOUBLE = 1L << 53;
+	
+	/**
+	 * Immutable types that are indexed if they are compared with {@link Object#equals(Object)}, in addition to enums
+	 */
+	private final static Class<?>[] IMMUTABLE_TYPES = {Boolean.class, Character.class, UUID.class};
+	
+	private final boolean caseSensitive;
+	
+	/**
+	 * Maps the keys of values (see {@link #getKey(Object)}) to the index of the element, or to a sorted set of indices if the value occurs multiple times in the list.
+	 */
+	private final HashMap<Object, Object> indices = new HashMap<Object, Object>();
+	
+	/**
+	 * The kinds of all indexed values (see {@link #getKind(Object)}) and their amount
+	 */
+	private final HashMap<Class<?>, int[]> kinds = new HashMap<Class<?>, int[]>();
+	
+	/**
+	 * The number of elements that can't be indexed, including sublists
+	 */
+	private int unindexed = 0;
+	
+	ValueIndex(final Map<String, Object> list) {
+		caseSensitive = SkriptConfig.caseSensitive.value();
+		for (final Entry<String, Object> e : list.entrySet()) {
+			final String key = e.getKey();
+			if (key != null)
+				add(key, e.getValue());
+		}
+	}
+	
+	/**
+	 * @return Whether this index still matches the configuration it was created with
+	 */
+	final boolean isValid() {
+		return caseSensitive == SkriptConfig.caseSensitive.value();
+	}
+	
+	/**
+	 * Determines the kind of the given value. Values of different kinds are never indexed together, as they might be considered equal by a {@link Comparator} even though their
+	 * keys are not.
+	 * 
+	 * @param value
+	 * @return {@link String}, {@link Number}, the value's class if it is immutable and compared by {@link Object#equals(Object)}, or null if the value can't be indexed.
+	 */
+	@Nullable
+	private final static Class<?> getKind(final Object value) {
+		if (value instanceof String)
+			return String.class;
+		if (value instanceof Number) {
+			if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+				return Number.class;
+			final double d = ((Number) value).doubleValue();
+			return d == Math.floor(d) && Math.abs(d) < MAX_EXACT_DOUBLE ? Number.class : null; // other numbers are compared with a tolerance of Skript.EPSILON
+		}
+		final Class<?> c = value instanceof Enum ? ((Enum<?>) value).getDeclaringClass() : value.getClass();
+		assert c != null;
+		if (!c.isEnum() && !CollectionUtils.contains(IMMUTABLE_TYPES, c))
+			return null;
+		return Comparators.getComparator(c, c) == Comparator.equalsComparator ? c : null;
+	}
+	
+	private final Object getKey(final Object value) {
+		if (value instanceof String) {
+			if (caseSensitive)
+				return value;
+			// two strings are equal ignoring case iff this is equal for every character, see String.regionMatches(boolean, int, String, int, int)
+			final char[] cs = ((String) value).toCharArray();
+			for (int i = 0; i < cs.length; i++)
+				cs[i] = Character.toLowerCase(Character.toUpperCase(cs[i]));
+			return new String(cs);
+		}
+		if (value instanceof Number)
+			return Long.valueOf(((Number) value).longValue());
+		return value;
+	}
+	
+	@SuppressWarnings("unchecked")
+	final void add(final String key, final Object value) {
+		final Class<?> kind = getKind(value);
+		if (kind == null) {
+			unindexed++;
+			return;
+		}
+		final int[] n = kinds.get(kind);
+		if (n == null)
+			kinds.put(kind, new int[] {1});
+		else
+			n[0]++;
+		final Object k = getKey(value);
+		final Object i = indices.get(k);
+		if (i == null) {
+			indices.put(k, key);
+		} else if (i instanceof String) {
+			final TreeSet<String> s = new TreeSet<String>(VariablesMap.variableNameComparator);
+			s.add((String) i);
+			s.add(key);
+			indices.put(k, s);
+		} else {
+			((TreeSet<String>) i).add(key);
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	final void remove(final String key, final Object value) {
+		final Class<?> kind = getKind(value);
+		if (kind == null) {
+			unindexed--;
+			return;
+		}
+		final int[] n = kinds.get(kind);
+		assert n != null : value;
+		if (--n[0] == 0)
+			kinds.remove(kind);
+		final Object k = getKey(value);
+		final Object i = indices.get(k);
+		if (i instanceof String) {
+			if (i.equals(key))
+				indices.remove(k);
+		} else if (i != null) {
+			final TreeSet<String> s = (TreeSet<String>) i;
+			s.remove(key);
+			if (s.size() == 1)
+				indices.put(k, s.first());
+		}
+	}
+	
+	/**
+	 * Finds the elements of the list that are equal to the given value according to {@link Comparators#compare(Object, Object)}.
+	 * 
+	 * @param value
+	 * @param all Whether to return all matching indices or only the first one
+	 * @return The indices of the matching elements in the order of the list, or null if the list has to be searched manually.
+	 */
+	@SuppressWarnings({"unchecked", "null"})
+	@Nullable
+	final List<String> find(final Object value, final boolean all) {
+		if (unindexed != 0)
+			return null;
+		final Class<?> kind = getKind(value);
+		if (kind == null)
+			return null;
+		if (kinds.isEmpty())
+			return Collections.<String>emptyList();
+		if (kinds.size() != 1 || !kinds.containsKey(kind))
+			return null;
+		final Object i = indices.get(getKey(value));
+		if (i == null)
+			return Collections.<String>emptyList();
+		if (i instanceof String)
+			return Collections.singletonList((String) i);
+		final TreeSet<String> s = (TreeSet<String>) i;
+		return all ? new ArrayList<String>(s) : Collections.singletonList(s.first());
+	}
+	
+}
@@ -22,19 +22,14 @@
 package ch.njol.skript.variables;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.TreeMap;
-import java.util.WeakHashMap;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.regex.Pattern;
 
 import org.bukkit.Bukkit;
 import org.bukkit.configuration.serialization.ConfigurationSerializable;
@@ -53,6 +48,7 @@ import ch.njol.skript.config.SectionNode;
 import ch.njol.skript.lang.Variable;
 import ch.njol.skript.registrations.Classes;
 import ch.njol.skript.registrations.Converters;
+import ch.njol.skript.util.Task;
 import ch.njol.skript.variables.DatabaseStorage.Type;
 import ch.njol.skript.variables.SerializedVariable.Value;
 import ch.njol.util.Closeable;
@@ -106,9 +102,30 @@ public abstract class Variables {
 	
 	static List<VariablesStorage> storages = new ArrayList<VariablesStorage>();
 	
+	/**
+	 * Created once all storages are loaded
+	 */
+	@Nullable
+	private static StorageRouter router = null;
+	
+	/**
+	 * @param name The name of a variable
+	 * @return The storage the variable is saved in, i.e. the first storage that {@link VariablesStorage#accept(String) accepts} it, or null if no storage accepts it
+	 */
+	@Nullable
+	static VariablesStorage getStorage(final String name) {
+		final StorageRouter r = router;
+		if (r != null)
+			return r.getStorage(name);
+		for (final VariablesStorage s : storages) {
+			if (s.accept(name))
+				return s;
+		}
+		return null;
+	}
+	
 	public static boolean load() {
-		assert variables.treeMap.isEmpty();
-		assert variables.hashMap.isEmpty();
+		assert variables.size() == 0;
 		assert storages.isEmpty();
 		
 		final Config c = SkriptConfig.getConfig();
@@ -164,6 +181,8 @@ public abstract class Variables {
 					final VariablesStorage s;
 					if (type.equalsIgnoreCase("csv") || type.equalsIgnoreCase("file") || type.equalsIgnoreCase("flatfile")) {
 						s = new FlatFileStorage(name);
+					} else if (type.equalsIgnoreCase("binary")) {
+						s = new BinaryStorage(name);
 					} else if (type.equalsIgnoreCase("mysql")) {
 						s = new DatabaseStorage(name, Type.MYSQL);
 					} else if (type.equalsIgnoreCase("sqlite")) {
@@ -212,6 +231,8 @@ public abstract class Variables {
 				return false;
 			}
 		} finally {
+			router = new StorageRouter(storages);
+			
 			// make sure to put the loaded variables into the variables map
 			final int n = onStoragesLoaded();
 			if (n != 0) {
@@ -221,70 +242,128 @@ public abstract class Variables {
 			loadingLoggerThread.interrupt();
 			
 			saveThread.start();
+			saveTask = new Task(Skript.getInstance(), saveInterval, saveInterval) {
+				@Override
+				public void run() {
+					saveChanges();
+				}
+			};
 		}
 		return true;
 	}
 	
-	@SuppressWarnings("null")
-	private final static Pattern variableNameSplitPattern = Pattern.compile(Pattern.quote(Variable.SEPARATOR));
-	
+	/**
+	 * Splits a variable name at every {@link Variable#SEPARATOR}. Like {@link String#split(String)}, trailing empty segments are removed.
+	 * 
+	 * @param name
+	 * @return The segments of the given name
+	 */
 	@SuppressWarnings("null")
 	public final static String[] splitVariableName(final String name) {
-		return variableNameSplitPattern.split(name);
+		final String sep = Variable.SEPARATOR;
+		int n = 1;
+		for (int i = name.indexOf(sep); i != -1; i = name.indexOf(sep, i + sep.length()))
+			n++;
+		final String[] split = new String[n];
+		int start = 0;
+		for (int i = 0; i < n - 1; i++) {
+			final int end = name.indexOf(sep, start);
+			split[i] = name.substring(start, end);
+			start = end + sep.length();
+		}
+		split[n - 1] = name.substring(start);
+		if (n == 1)
+			return split;
+		while (n > 0 && split[n - 1].isEmpty())
+			n--;
+		return n == split.length ? split : Arrays.copyOf(split, n);
 	}
 	
-	private final static ReadWriteLock variablesLock = new ReentrantReadWriteLock(true);
 	/**
-	 * must be locked with {@link #variablesLock}.
+	 * Does its own locking, see {@link StripedVariablesMap}.
 	 */
-	private final static VariablesMap variables = new VariablesMap();
+	private final static StripedVariablesMap variables = new StripedVariablesMap();
+	
 	/**
-	 * Not accessed concurrently
+	 * Returns a consistent view of all global variables. Remember to close the snapshot (in a finally block) and to not make any changes to the returned values!
 	 */
-	private final static WeakHashMap<Event, VariablesMap> localVariables = new WeakHashMap<Event, VariablesMap>();
+	static StripedVariablesMap.Snapshot getVariablesSnapshot() {
+		return variables.snapshot();
+	}
 	
 	/**
-	 * Remember to lock with {@link #getReadLock()} and to not make any changes!
+	 * Returns the internal value of the requested variable.
+	 * <p>
+	 * <b>Do not modify the returned value!</b>
+	 * 
+	 * @param name
+	 * @return an Object for a normal Variable or a Map<String, Object> for a list variable, or null if the variable is not set.
 	 */
-	static TreeMap<String, Object> getVariables() {
-		return variables.treeMap;
+	@Nullable
+	public final static Object getVariable(final String name, final @Nullable Event e, final boolean local) {
+		if (local) {
+			return LocalVariables.get(name, e);
+		} else {
+			return variables.getVariable(name);
+		}
 	}
 	
 	/**
-	 * Remember to lock with {@link #getReadLock()}!
+	 * Gets the index a value added to a list variable should be stored at, i.e. the lowest positive index that is not yet set in the list.
+	 * <p>
+	 * This takes constant time as the lists keep track of this index themselves.
+	 * 
+	 * @param name The name of the list variable, ending in "::*"
+	 * @return The next free index of the list, 1 if the list doesn't exist
 	 */
-	@SuppressWarnings("null")
-	static Map<String, Object> getVariablesHashMap() {
-		return Collections.unmodifiableMap(variables.hashMap);
+	public final static int getNextListIndex(final String name, final @Nullable Event e, final boolean local) {
+		if (local) {
+			final VariablesMap map = LocalVariables.getMap(e);
+			if (map == null)
+				return 1;
+			return map.getNextListIndex(name);
+		} else {
+			return variables.getNextListIndex(name);
+		}
 	}
 	
-	@SuppressWarnings("null")
-	static Lock getReadLock() {
-		return variablesLock.readLock();
+	/**
+	 * Creates an iterator over the elements of a list variable. The list is only looked up once, thus this is much faster than getting the list and then every single element.
+	 * 
+	 * @param name The name of the list variable, ending in "::*"
+	 * @return An iterator over the indices and values of the list's elements, or null if the list doesn't exist
+	 */
+	@Nullable
+	public final static ListVariableIterator getListIterator(final String name, final @Nullable Event e, final boolean local) {
+		if (local) {
+			final VariablesMap map = LocalVariables.getMap(e);
+			if (map == null)
+				return null;
+			return map.getListIterator(name);
+		} else {
+			return variables.getListIterator(name);
+		}
 	}
 	
 	/**
-	 * Returns the internal value of the requested variable.
-	 * <p>
-	 * <b>Do not modify the returned value!</b>
+	 * Finds the elements of a list variable that are equal to the given value according to {@link ch.njol.skript.registrations.Comparators#compare(Object, Object)}. Lists keep an index of their values once
+	 * they have been searched, so this usually takes constant time.
 	 * 
-	 * @param name
-	 * @return an Object for a normal Variable or a Map<String, Object> for a list variable, or null if the variable is not set.
+	 * @param name The name of the list variable, ending in "::*"
+	 * @param value
+	 * @param all Whether to find all matching elements or only the first one
+	 * @return The indices of the matching elements in the order of the list, or null if the list doesn't exist or can't be searched this way (e.g. because it contains values of
+	 *         different types), in which case the caller has to compare the value to every element of the list itself.
 	 */
 	@Nullable
-	public final static Object getVariable(final String name, final @Nullable Event e, final boolean local) {
+	public final static List<String> findInList(final String name, final Object value, final boolean all, final @Nullable Event e, final boolean local) {
 		if (local) {
-			final VariablesMap map = localVariables.get(e);
+			final VariablesMap map = LocalVariables.getMap(e);
 			if (map == null)
 				return null;
-			return map.getVariable(name);
+			return map.findInList(name, value, all);
 		} else {
-			try {
-				variablesLock.readLock().lock();
-				return variables.getVariable(name);
-			} finally {
-				variablesLock.readLock().unlock();
-			}
+			return variables.findInList(name, value, all);
 		}
 	}
 	
@@ -297,32 +376,63 @@ public abstract class Variables {
 	public final static void setVariable(final String name, @Nullable Object value, final @Nullable Event e, final boolean local) {
 		if (value != null) {
 			assert !name.endsWith("::*");
-			@SuppressWarnings("null")
-			final ClassInfo<?> ci = Classes.getSuperClassInfo(value.getClass());
-			final Class<?> sas = ci.getSerializeAs();
-			if (sas != null) {
-				value = Converters.convert(value, sas);
-				assert value != null : ci + ", " + sas;
-			}
+			value = getStoredValue(value);
 		}
 		if (local) {
 			assert e != null : name;
-			VariablesMap map = localVariables.get(e);
-			if (map == null)
-				localVariables.put(e, map = new VariablesMap());
-			map.setVariable(name, value);
+			LocalVariables.set(name, value, e);
 		} else {
 			setVariable(name, value);
 		}
 	}
 	
-	final static void setVariable(final String name, @Nullable final Object value) {
-		try {
-			variablesLock.writeLock().lock();
-			variables.setVariable(name, value);
-		} finally {
-			variablesLock.writeLock().unlock();
+	/**
+	 * Converts a value to the type it is stored as in variables, if any.
+	 */
+	private final static Object getStoredValue(final Object value) {
+		@SuppressWarnings("null")
+		final ClassInfo<?> ci = Classes.getSuperClassInfo(value.getClass());
+		final Class<?> sas = ci.getSerializeAs();
+		if (sas != null) {
+			final Object v = Converters.convert(value, sas);
+			assert v != null : ci + ", " + sas;
+			return v;
 		}
+		return value;
+	}
+	
+	/**
+	 * Gets the slot of a local variable, which can be used to access the variable without looking up its name (see {@link #getLocalVariable(int, Event)} and
+	 * {@link #setLocalVariable(int, Object, Event)}). Should only be called when loading scripts, as a new slot is assigned to every new name.
+	 * 
+	 * @param name The name of the variable in lowercase, excluding the local variable token
+	 * @return The variable's slot, or -1 if it is (an element of) a list variable and can only be accessed by its name.
+	 */
+	public final static int getLocalVariableSlot(final String name) {
+		return LocalVariables.getSlot(name);
+	}
+	
+	/**
+	 * @param slot A slot returned by {@link #getLocalVariableSlot(String)}
+	 * @param e
+	 * @return The value of the local variable, or null if it is not set
+	 */
+	@Nullable
+	public final static Object getLocalVariable(final int slot, final @Nullable Event e) {
+		return LocalVariables.get(slot, e);
+	}
+	
+	/**
+	 * @param slot A slot returned by {@link #getLocalVariableSlot(String)}
+	 * @param value The variable's new value, or null to delete it
+	 * @param e
+	 */
+	public final static void setLocalVariable(final int slot, final @Nullable Object value, final Event e) {
+		LocalVariables.set(slot, value == null ? null : getStoredValue(value), e);
+	}
+	
+	final static void setVariable(final String name, @Nullable final Object value) {
+		variables.setVariable(name, value);
 		saveVariableChange(name, value);
 	}
 	
@@ -354,9 +464,13 @@ public abstract class Variables {
 		synchronized (tempVars) {
 			final Map<String, NonNullPair<Object, VariablesStorage>> tvs = tempVars.get();
 			if (tvs != null) {
-				if (value == null)
-					return false;
 				final NonNullPair<Object, VariablesStorage> v = tvs.get(name);
+				if (value == null) {
+					// deleted after being loaded from the same database, e.g. by a later line in a file or by an overflow journal
+					if (v != null && v.getSecond() == source)
+						tvs.remove(name);
+					return false;
+				}
 				if (v != null && v.getSecond() != source) {// variable already loaded from another database
 					loadConflicts++;
 					if (loadConflicts <= MAX_CONFLICT_WARNINGS)
@@ -370,25 +484,18 @@ public abstract class Variables {
 			}
 		}
 		
-		variablesLock.writeLock().lock();
-		try {
-			variables.setVariable(name, value);
-		} finally {
-			variablesLock.writeLock().unlock();
-		}
+		variables.setVariable(name, value);
 		
-		for (final VariablesStorage s : storages) {
-			if (s.accept(name)) {
-				if (s != source) {
-					final Value v = serialize(value);
-					s.save(name, v != null ? v.type : null, v != null ? v.data : null);
-					if (value != null)
-						source.save(name, null, null);
-				}
-				return true;
-			}
+		final VariablesStorage s = getStorage(name);
+		if (s == null)
+			return false;
+		if (s != source) {
+			final Value v = serialize(value);
+			s.save(name, v != null ? v.type : null, v != null ? v.data : null);
+			if (value != null)
+				source.save(name, null, null);
 		}
-		return false;
+		return true;
 	}
 	
 	/**
@@ -406,23 +513,18 @@ public abstract class Variables {
 			final Map<String, NonNullPair<Object, VariablesStorage>> tvs = tempVars.get();
 			tempVars.set(null);
 			assert tvs != null;
-			variablesLock.writeLock().lock();
-			try {
-				int n = 0;
-				for (final Entry<String, NonNullPair<Object, VariablesStorage>> tv : tvs.entrySet()) {
-					if (!variableLoaded(tv.getKey(), tv.getValue().getFirst(), tv.getValue().getSecond()))
-						n++;
-				}
-				
-				for (final VariablesStorage s : storages)
-					s.allLoaded();
-				
-				Skript.debug("Variables set. Queue size = " + queue.size());
-				
-				return n;
-			} finally {
-				variablesLock.writeLock().unlock();
+			int n = 0;
+			for (final Entry<String, NonNullPair<Object, VariablesStorage>> tv : tvs.entrySet()) {
+				if (!variableLoaded(tv.getKey(), tv.getValue().getFirst(), tv.getValue().getSecond()))
+					n++;
 			}
+			
+			for (final VariablesStorage s : storages)
+				s.allLoaded();
+			
+			Skript.debug("Variables set. Queue size = " + queue.size());
+			
+			return n;
 		}
 	}
 	
@@ -438,8 +540,53 @@ public abstract class Variables {
 		return Classes.serialize(value);
 	}
 	
+	/**
+	 * Global variables that changed since the last {@link #saveChanges()}, with their latest values (<tt>null</tt> for deleted variables). A variable that is changed again is
+	 * moved to the end so that the order of the latest changes is kept, which matters if a list variable is deleted as a whole and some of its elements are set afterwards.
+	 * <p>
+	 * Access must be synchronised.
+	 */
+	private final static Map<String, Object> changes = new LinkedHashMap<String, Object>();
+	
+	private static int saveInterval = 1;
+	
+	@Nullable
+	private static Task saveTask = null;
+	
+	/**
+	 * Sets how often changed variables are serialised and passed on to the databases. Set with the option 'variable changes save interval'.
+	 * 
+	 * @param ticks
+	 */
+	public final static void setSaveInterval(final int ticks) {
+		saveInterval = Math.max(ticks, 1);
+		final Task t = saveTask;
+		if (t != null)
+			t.setPeriod(saveInterval);
+	}
+	
+	@SuppressWarnings("null")
 	private final static void saveVariableChange(final String name, final @Nullable Object value) {
-		queue.add(serialize(name, value));
+		synchronized (changes) {
+			changes.remove(name);
+			changes.put(name, value);
+		}
+	}
+	
+	/**
+	 * Serialises all variables changed since the last call of this method, each only once with its latest value, and queues them to be saved. Called every
+	 * {@link #setSaveInterval(int) save interval} and when Skript is disabled.
+	 * <p>
+	 * Must be called on Bukkit's main thread.
+	 */
+	final static void saveChanges() {
+		synchronized (changes) {
+			if (changes.isEmpty())
+				return;
+			for (final Entry<String, Object> c : changes.entrySet())
+				queue.add(serialize(c.getKey(), c.getValue()));
+			changes.clear();
+		}
 	}
 	
 	final static BlockingQueue<SerializedVariable> queue = new LinkedBlockingQueue<SerializedVariable>();
@@ -452,18 +599,20 @@ public abstract class Variables {
 			while (!closed) {
 				try {
 					final SerializedVariable v = queue.take();
-					for (final VariablesStorage s : storages) {
-						if (s.accept(v.name)) {
-							s.save(v);
-							break;
-						}
-					}
+					final VariablesStorage s = getStorage(v.name);
+					if (s != null)
+						s.save(v);
 				} catch (final InterruptedException e) {}
 			}
 		}
 	}, "Skript variable save thread");
 	
 	public static void close() {
+		final Task t = saveTask;
+		if (t != null)
+			t.cancel();
+		saveTask = null;
+		saveChanges();
 		while (queue.size() > 0) {
 			try {
 				Thread.sleep(10);
@@ -474,12 +623,7 @@ public abstract class Variables {
 	}
 	
 	public static int numVariables() {
-		try {
-			variablesLock.readLock().lock();
-			return variables.hashMap.size();
-		} finally {
-			variablesLock.readLock().unlock();
-		}
+		return variables.size();
 	}
 	
 }
@@ -21,11 +21,16 @@
 
 package ch.njol.skript.variables;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
-import java.util.TreeMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.eclipse.jdt.annotation.Nullable;
 
@@ -47,11 +52,9 @@ final class VariablesMap {
 				final char c1 = s1.charAt(i), c2 = s2.charAt(j);
 				if ('0' <= c1 && c1 <= '9' && '0' <= c2 && c2 <= '9') { // TODO negative numbers? what about {blah-%number%}? // '-' < '0'
 					final int i2 = StringUtils.findLastDigit(s1, i), j2 = StringUtils.findLastDigit(s2, j);
-					final long n1 = Utils.parseLong("" + s1.substring(i, i2)), n2 = Utils.parseLong("" + s2.substring(j, j2));
-					if (n1 > n2)
-						return 1;
-					if (n1 < n2)
-						return -1;
+					final int c = compareNumbers(s1, i, i2, s2, j, j2);
+					if (c != 0)
+						return c;
 					i = i2;
 					j = j2;
 					continue;
@@ -72,44 +75,712 @@ final class VariablesMap {
 		}
 	};
 	
-	final HashMap<String, Object> hashMap = new HashMap<String, Object>();
-	final TreeMap<String, Object> treeMap = new TreeMap<String, Object>();
+	/**
+	 * Numbers with more digits than this (excluding leading zeroes) might not fit into a long
+	 */
+	private final static int MAX_SAFE_DIGITS = 18;
+	
+	/**
+	 * Compares two runs of digits by their numerical value without creating any substrings. Like {@link Utils#parseLong(String)}, numbers too large for a long are considered equal.
+	 */
+	final static int compareNumbers(final String s1, int start1, final int end1, final String s2, int start2, final int end2) {
+		while (start1 < end1 - 1 && s1.charAt(start1) == '0')
+			start1++;
+		while (start2 < end2 - 1 && s2.charAt(start2) == '0')
+			start2++;
+		final int l1 = end1 - start1, l2 = end2 - start2;
+		if (l1 > MAX_SAFE_DIGITS || l2 > MAX_SAFE_DIGITS) {
+			final long n1 = Utils.parseLong("" + s1.substring(start1, end1)), n2 = Utils.parseLong("" + s2.substring(start2, end2));
+			return n1 > n2 ? 1 : n1 < n2 ? -1 : 0;
+		}
+		if (l1 != l2)
+			return l1 > l2 ? 1 : -1;
+		for (int k = 0; k < l1; k++) {
+			final char d1 = s1.charAt(start1 + k), d2 = s2.charAt(start2 + k);
+			if (d1 != d2)
+				return d1 > d2 ? 1 : -1;
+		}
+		return 0;
+	}
+	
+	/**
+	 * @param name
+	 * @return Whether the given name is the canonical spelling of its variable, i.e. whether the name doesn't contain any numbers with leading zeroes or numbers that might be
+	 *         too large for a long. Of all names that are considered equal by {@link #variableNameComparator}, at most one is canonical.
+	 */
+	final static boolean isUniqueName(final String name) {
+		return nextLeadingZero(name, 0) == -1 && !hasLargeNumber(name);
+	}
+	
+	/**
+	 * Only looks at the characters around zeroes, as names often consist of many numbers (e.g. UUIDs).
+	 * 
+	 * @param name
+	 * @param from
+	 * @return The index of the first leading zero of a number at or after <tt>from</tt>, or -1 if there is none
+	 */
+	private final static int nextLeadingZero(final String name, final int from) {
+		for (int i = name.indexOf('0', from); i != -1; i = name.indexOf('0', i + 1)) {
+			if ((i == 0 || !isDigit(name.charAt(i - 1))) && i + 1 < name.length() && isDigit(name.charAt(i + 1)))
+				return i;
+		}
+		return -1;
+	}
 	
 	/**
-	 * Returns the internal value of the requested variable.
+	 * Only looks at every (MAX_SAFE_DIGITS + 1)th character, as every number with more than MAX_SAFE_DIGITS digits includes one of these.
+	 * 
+	 * @param name
+	 * @return Whether the given name contains a number with more than MAX_SAFE_DIGITS digits
+	 */
+	private final static boolean hasLargeNumber(final String name) {
+		for (int i = MAX_SAFE_DIGITS; i < name.length(); i += MAX_SAFE_DIGITS + 1) {
+			if (!isDigit(name.charAt(i)))
+				continue;
+			int start = i, end = i + 1;
+			while (start > 0 && isDigit(name.charAt(start - 1)))
+				start--;
+			while (end < name.length() && isDigit(name.charAt(end)))
+				end++;
+			if (end - start > MAX_SAFE_DIGITS)
+				return true;
+		}
+		return false;
+	}
+	
+	private final static boolean isDigit(final char c) {
+		return '0' <= c && c <= '9';
+	}
+	
+	/**
+	 * Must be a power of two
+	 */
+	private final static int SEGMENTS = 1 << 16;
+	
+	/**
+	 * Recently added segments of variable names, used to share equal segments between all lists, e.g. a player's UUID that is used as index in several lists. Segments are
+	 * only shared if they are added again while they are still in this table (i.e. before another segment with the same slot is added), but in return this neither needs
+	 * any locking nor any memory per segment.
+	 */
+	private final static AtomicReferenceArray<String> segments = new AtomicReferenceArray<String>(SEGMENTS);
+	
+	/**
+	 * @param segment
+	 * @return An instance equal to the given segment, shared by all variable maps if an equal segment has been added recently
+	 */
+	final static String internSegment(final String segment) {
+		final int h = segment.hashCode();
+		final int slot = (h ^ (h >>> 16)) & (SEGMENTS - 1);
+		final String s = segments.get(slot);
+		if (segment.equals(s))
+			return s;
+		final String copy = new String(segment); // segments created by splitting a name might share the name's characters
+		segments.set(slot, copy);
+		return copy;
+	}
+	
+	/**
+	 * Calculates a hash code of a variable name or segment that is consistent with {@link #variableNameComparator}, i.e. names considered equal by the comparator have the same
+	 * hash code. This is the name's {@link String#hashCode()} if it is {@link #isUniqueName(String) canonical}, otherwise the hash code of its canonical spelling, i.e. without
+	 * leading zeroes. Numbers that might be too large for a long all have the same hash code.
+	 * 
+	 * @param name
+	 * @return The hash code of the given name
+	 */
+	final static int hashName(final String name) {
+		return isUniqueName(name) ? name.hashCode() : hashCanonical(name);
+	}
+	
+	private final static int LARGE_NUMBER_HASH = 0x7fffffff;
+	
+	private final static int hashCanonical(final String name) {
+		if (hasLargeNumber(name))
+			return hashWithLargeNumbers(name);
+		// hashes the parts between leading zeroes in tight loops, which is considerably faster than checking every character
+		int h = 0, from = 0;
+		for (int z = nextLeadingZero(name, 0); z != -1; z = nextLeadingZero(name, from)) {
+			for (int i = from; i < z; i++)
+				h = 31 * h + name.charAt(i);
+			from = z + 1;
+			while (name.charAt(from) == '0' && from + 1 < name.length() && isDigit(name.charAt(from + 1)))
+				from++;
+		}
+		for (int i = from; i < name.length(); i++)
+			h = 31 * h + name.charAt(i);
+		return h;
+	}
+	
+	private final static int hashWithLargeNumbers(final String name) {
+		int h = 0;
+		int hBeforeNumber = 0, digits = -1; // the number of significant digits of the current number, or -1 if not in a number
+		for (int i = 0; i < name.length(); i++) {
+			final char c = name.charAt(i);
+			if ('0' <= c && c <= '9') {
+				if (digits == -1) {
+					hBeforeNumber = h;
+					digits = 0;
+				}
+				if (digits == 0 && c == '0' && i + 1 < name.length() && '0' <= name.charAt(i + 1) && name.charAt(i + 1) <= '9')
+					continue; // leading zero
+				digits++;
+			} else if (digits != -1) {
+				if (digits > MAX_SAFE_DIGITS)
+					h = 31 * hBeforeNumber + LARGE_NUMBER_HASH;
+				digits = -1;
+			}
+			h = 31 * h + c;
+		}
+		if (digits > MAX_SAFE_DIGITS)
+			h = 31 * hBeforeNumber + LARGE_NUMBER_HASH;
+		return h;
+	}
+	
+	/**
+	 * A node of the variable tree, i.e. a list variable. The node's own value (if any) is available with the key <tt>null</tt>, but is not stored in the node's table.
+	 * <p>
+	 * The elements are stored in a hash table with open addressing, i.e. a single array of alternating keys and values without any objects per element. Keys are hashed with
+	 * {@link VariablesMap#hashName(String)} and compared with {@link VariablesMap#variableNameComparator}, thus e.g. <tt>1</tt> and <tt>01</tt> are the same key like in a
+	 * sorted map. The root node compares its keys exactly instead. The elements are returned in the order of the comparator, which is determined on demand and kept until
+	 * the node's keys change.
+	 * <p>
+	 * Nodes are only modified by one thread at a time, but can be read by any number of threads concurrently without locking: keys are never removed from the table, only
+	 * replaced with {@link #REMOVED} (thus slots are never reused until the table is rebuilt), a key's value is set before the key itself and cleared before the key is removed,
+	 * and every modification ends with writing the volatile {@link #table} field. Iterating a node that is modified concurrently might skip or repeat a change, but never fails.
+	 * <p>
+	 * Nodes are tagged with the generation they were created in to implement copy-on-write snapshots: a node whose generation is not newer than {@link VariablesMap#frozenGeneration}
+	 * is shared with a snapshot and must be copied before it is modified.
+	 * <p>
+	 * Each node also keeps track of its lowest unused positive index to make adding to a list cheap (see {@link #nextIndex}).
+	 */
+	final static class Node extends AbstractMap<String, Object> {
+		
+		/**
+		 * Marks a slot whose element has been removed
+		 */
+		private final static String REMOVED = new String("<removed>");
+		
+		/**
+		 * The initial number of slots, must be a power of two
+		 */
+		private final static int INITIAL_CAPACITY = 4;
+		
+		/**
+		 * Tables with at least this many slots store the hash codes of their keys, see {@link #otherNames}
+		 */
+		private final static int HASHED_CAPACITY = 64;
+		
+		final int generation;
+		
+		/**
+		 * Whether keys are compared with {@link String#equals(Object)} instead of {@link VariablesMap#variableNameComparator}
+		 */
+		private final boolean exact;
+		
+		/**
+		 * The list's own value
+		 */
+		@Nullable
+		private volatile Object value = null;
+		
+		/**
+		 * Alternating keys and values, followed by the hash codes of the keys as an <tt>int[]</tt> if the node has {@link #otherNames} or at least {@link #HASHED_CAPACITY}
+		 * slots (or <tt>null</tt> otherwise). Empty slots have a <tt>null</tt> key.
+		 */
+		private volatile Object[] table;
+		
+		/**
+		 * The number of elements, excluding the list's own value
+		 */
+		private volatile int size = 0;
+		
+		/**
+		 * The number of slots that have a key, including {@link #REMOVED} ones
+		 */
+		private int used = 0;
+		
+		/**
+		 * Incremented whenever a key is added or removed, which invalidates {@link #order}
+		 */
+		private volatile int keyChanges = 0;
+		
+		/**
+		 * Incremented whenever an element of this list is changed, including the own value of a sublist. Used by {@link ListVariableIterator} to detect changes while iterating.
+		 */
+		volatile int modifications = 0;
+		
+		/**
+		 * Set when this node is removed from the variable tree, or replaced by a copy as it's shared with a snapshot. Such a node is never modified again.
+		 */
+		volatile boolean detached = false;
+		
+		@Nullable
+		private volatile Order order = null;
+		
+		/**
+		 * Whether a key that is not {@link VariablesMap#isUniqueName(String) canonical} has been added to this node. If not, a canonical key can only be equal to a key that is
+		 * the same string, thus finding it doesn't have to use the comparator. Otherwise the table also stores the hash codes of its keys, so that the comparator is only used
+		 * for keys with the same hash code. Set before the table containing such a key is published.
+		 * <p>
+		 * Large tables always store the hash codes of their keys, as comparing them avoids loading the keys of other slots, which are most likely not in the CPU's cache.
+		 */
+		private boolean otherNames = false;
+		
+		/**
+		 * The lowest positive index not in use by this list, i.e. all indices from 1 to <tt>nextIndex - 1</tt> are set. Kept up to date by {@link #put(String, Object)} and
+		 * {@link #remove(Object)}, which are the only methods used to modify nodes.
+		 */
+		int nextIndex = 1;
+		
+		/**
+		 * Created when the list is searched for the first time, see {@link VariablesMap#findInList(String, Object, boolean)}
+		 */
+		@Nullable
+		ValueIndex index = null;
+		
+		/**
+		 * The slots of a node's table in the order of their keys. Only valid for the table and {@link Node#keyChanges} it was created for.
+		 * <p>
+		 * Adding a key that sorts after all others (e.g. adding to a list) appends it to the existing array if possible, which doesn't affect older orders as these only use
+		 * the first {@link #length} slots.
+		 */
+		private final static class Order {
+			final Object[] table;
+			final int keyChanges;
+			final int[] slots;
+			final int length;
+			
+			Order(final Object[] table, final int keyChanges, final int[] slots, final int length) {
+				this.table = table;
+				this.keyChanges = keyChanges;
+				this.slots = slots;
+				this.length = length;
+			}
+		}
+		
+		Node(final boolean exact, final int generation) {
+			this.exact = exact;
+			this.generation = generation;
+			table = new Object[2 * INITIAL_CAPACITY + 1];
+		}
+		
+		Node(final Node copy, final int generation) {
+			this.generation = generation;
+			exact = copy.exact;
+			value = copy.value;
+			table = copy.table.clone();
+			final int[] hashes = (int[]) table[table.length - 1];
+			if (hashes != null)
+				table[table.length - 1] = hashes.clone();
+			size = copy.size;
+			used = copy.used;
+			otherNames = copy.otherNames;
+			nextIndex = copy.nextIndex;
+		}
+		
+		/**
+		 * @param table
+		 * @param key
+		 * @return The slot of the given key in the given table, or -1 if the key is not in the table
+		 */
+		private final int find(final Object[] table, final String key) {
+			final boolean unique = exact || isUniqueName(key);
+			final boolean compareNames = !unique || otherNames;
+			final int h = unique ? key.hashCode() : hashCanonical(key);
+			final int[] hashes = (int[]) table[table.length - 1];
+			final int mask = (table.length >> 1) - 1;
+			for (int i = (h ^ (h >>> 16)) & mask;; i = (i + 1) & mask) {
+				final Object k = table[2 * i];
+				if (k == null)
+					return -1;
+				if (k == REMOVED || hashes != null && hashes[i] != h)
+					continue;
+				if (key.equals(k) || compareNames && variableNameComparator.compare(key, (String) k) == 0)
+					return i;
+			}
+		}
+		
+		@Override
+		@Nullable
+		public Object get(final @Nullable Object key) {
+			if (key == null)
+				return value;
+			final Object[] table = this.table;
+			final int i = find(table, (String) key);
+			return i == -1 ? null : table[2 * i + 1];
+		}
+		
+		/**
+		 * Like {@link #get(Object)}, but returns {@link VariablesMap#OTHER_NAME} if the element is stored with a different key that is only considered equal by the comparator.
+		 */
+		@Nullable
+		final Object getExactly(final String key) {
+			final Object[] table = this.table;
+			final int i = find(table, key);
+			if (i == -1)
+				return null;
+			final Object value = table[2 * i + 1];
+			return key.equals(table[2 * i]) ? value : OTHER_NAME;
+		}
+		
+		@Override
+		public boolean containsKey(final @Nullable Object key) {
+			return get(key) != null;
+		}
+		
+		@Override
+		public int size() {
+			return size + (value == null ? 0 : 1);
+		}
+		
+		@Override
+		@Nullable
+		public Object put(final @Nullable String key, final Object value) {
+			if (key == null) {
+				final Object old = this.value;
+				this.value = value;
+				return old;
+			}
+			Object[] table = this.table;
+			final int i = find(table, key);
+			if (i != -1) {
+				final Object old = table[2 * i + 1];
+				table[2 * i + 1] = value;
+				modifications++;
+				this.table = table;
+				final ValueIndex index = this.index;
+				if (index != null) {
+					index.remove((String) table[2 * i], old);
+					index.add((String) table[2 * i], value);
+				}
+				return old;
+			}
+			if (!exact && !otherNames && !isUniqueName(key)) {
+				otherNames = true;
+				table = rehash(table); // stores the hash codes
+			} else if (4 * (used + 1) > 3 * (table.length >> 1)) {
+				table = rehash(table);
+			}
+			final int mask = (table.length >> 1) - 1;
+			final int h = exact ? key.hashCode() : hashName(key);
+			int slot = (h ^ (h >>> 16)) & mask;
+			while (table[2 * slot] != null)
+				slot = (slot + 1) & mask;
+			final int[] hashes = (int[]) table[table.length - 1];
+			if (hashes != null)
+				hashes[slot] = h;
+			table[2 * slot + 1] = value;
+			table[2 * slot] = key;
+			used++;
+			size++;
+			final Order order = this.order;
+			if (order != null && order.table == table && order.keyChanges == keyChanges && order.length > 0 && compare(key, (String) table[2 * order.slots[order.length - 1]]) > 0) {
+				int[] slots = order.slots;
+				if (order.length == slots.length)
+					slots = Arrays.copyOf(slots, 2 * slots.length);
+				slots[order.length] = slot;
+				this.order = new Order(table, keyChanges + 1, slots, order.length + 1);
+			}
+			keyChanges++;
+			modifications++;
+			this.table = table;
+			final ValueIndex index = this.index;
+			if (index != null)
+				index.add(key, value);
+			if (getIndex(key) == nextIndex) {
+				do {
+					nextIndex++;
+				} while (containsKey("" + nextIndex));
+			}
+			return null;
+		}
+		
+		/**
+		 * Creates a new table for the current elements with enough free slots for more elements. Doesn't modify the given table.
+		 */
+		private final Object[] rehash(final Object[] table) {
+			int capacity = INITIAL_CAPACITY;
+			while (2 * (size + 1) > capacity)
+				capacity <<= 1;
+			final Object[] t = new Object[2 * capacity + 1];
+			final int[] hashes = otherNames || capacity >= HASHED_CAPACITY ? new int[capacity] : null;
+			t[2 * capacity] = hashes;
+			final int mask = capacity - 1;
+			for (int i = 0; i < table.length - 1; i += 2) {
+				final Object k = table[i];
+				if (k == null || k == REMOVED)
+					continue;
+				final int h = exact ? k.hashCode() : hashName((String) k);
+				int slot = (h ^ (h >>> 16)) & mask;
+				while (t[2 * slot] != null)
+					slot = (slot + 1) & mask;
+				if (hashes != null)
+					hashes[slot] = h;
+				t[2 * slot] = k;
+				t[2 * slot + 1] = table[i + 1];
+			}
+			used = size;
+			return t;
+		}
+		
+		@Override
+		@Nullable
+		public Object remove(final @Nullable Object key) {
+			if (key == null) {
+				final Object old = value;
+				value = null;
+				return old;
+			}
+			final Object[] table = this.table;
+			final int i = find(table, (String) key);
+			if (i == -1)
+				return null;
+			final String k = (String) table[2 * i];
+			final Object old = table[2 * i + 1];
+			table[2 * i + 1] = null;
+			table[2 * i] = REMOVED;
+			size--;
+			keyChanges++;
+			modifications++;
+			this.table = table;
+			final ValueIndex index = this.index;
+			if (index != null)
+				index.remove(k, old);
+			final int n = getIndex(k);
+			if (n != -1 && n < nextIndex)
+				nextIndex = n;
+			return old;
+		}
+		
+		private final int compare(final String key, final String other) {
+			return exact ? key.compareTo(other) : variableNameComparator.compare(key, other);
+		}
+		
+		/**
+		 * Sorts the keys of this node if they have changed since the last time. Can be called without holding any lock.
+		 */
+		private final Order getOrder() {
+			final int keyChanges = this.keyChanges; // read before the table, see put(String, Object)
+			final Object[] table = this.table;
+			Order order = this.order;
+			if (order != null && order.table == table && order.keyChanges == keyChanges)
+				return order;
+			final String[] keys = new String[size];
+			int n = 0;
+			for (int i = 0; i < table.length - 1 && n < keys.length; i += 2) {
+				final Object k = table[i];
+				if (k != null && k != REMOVED)
+					keys[n++] = (String) k;
+			}
+			if (exact)
+				Arrays.sort(keys, 0, n);
+			else
+				Arrays.sort(keys, 0, n, variableNameComparator);
+			final int[] slots = new int[Math.max(n, 1)];
+			int length = 0;
+			for (int i = 0; i < n; i++) {
+				final int slot = find(table, keys[i]);
+				if (slot != -1)
+					slots[length++] = slot;
+			}
+			order = new Order(table, keyChanges, slots, length);
+			if (this.keyChanges == keyChanges) // an outdated order would be ignored anyway
+				this.order = order;
+			return order;
+		}
+		
+		/**
+		 * Iterates over the list's own value (with the key <tt>null</tt>) and then over all elements in the order of their keys.
+		 */
+		@Override
+		public Set<Entry<String, Object>> entrySet() {
+			return new AbstractSet<Entry<String, Object>>() {
+				@Override
+				public Iterator<Entry<String, Object>> iterator() {
+					return new Iterator<Entry<String, Object>>() {
+						private final Order order = getOrder();
+						@Nullable
+						private Object ownValue = value;
+						private int i = 0;
+						@Nullable
+						private Entry<String, Object> next = null;
+						
+						@Override
+						public boolean hasNext() {
+							if (next != null)
+								return true;
+							final Object v = ownValue;
+							if (v != null) {
+								ownValue = null;
+								next = new SimpleImmutableEntry<String, Object>(null, v);
+								return true;
+							}
+							final Object[] table = order.table;
+							while (i < order.length) {
+								final int slot = order.slots[i++];
+								final Object k = table[2 * slot], val = table[2 * slot + 1];
+								if (k != REMOVED && val != null) {
+									next = new SimpleImmutableEntry<String, Object>((String) k, val);
+									return true;
+								}
+							}
+							return false;
+						}
+						
+						@Override
+						public Entry<String, Object> next() {
+							if (!hasNext())
+								throw new NoSuchElementException();
+							final Entry<String, Object> n = next;
+							assert n != null;
+							next = null;
+							return n;
+						}
+						
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+				
+				@Override
+				public int size() {
+					return Node.this.size();
+				}
+			};
+		}
+		
+		/**
+		 * @param key
+		 * @return The positive integer the given key represents, or -1 if it's not an index of a list. Leading zeroes are allowed as such keys are considered equal by
+		 *         {@link VariablesMap#variableNameComparator}.
+		 */
+		private final static int getIndex(final String key) {
+			if (key.isEmpty() || key.length() > 9)
+				return -1;
+			int i = 0;
+			for (int j = 0; j < key.length(); j++) {
+				final char c = key.charAt(j);
+				if (c < '0' || c > '9')
+					return -1;
+				i = 10 * i + c - '0';
+			}
+			return i == 0 ? -1 : i;
+		}
+	}
+	
+	private volatile Node root = new Node(true, 0);
+	
+	/**
+	 * Returned by {@link #getVariable(String, boolean)} if the variable is stored with a different name, i.e. if the name's segments are only considered equal to the stored
+	 * ones by {@link #variableNameComparator}.
+	 */
+	final static Object OTHER_NAME = new Object();
+	
+	/**
+	 * The number of variables in this map, not counting list variables themselves
+	 */
+	volatile int size = 0;
+	
+	/**
+	 * The generation of newly created nodes
+	 */
+	private int generation = 0;
+	/**
+	 * Nodes of this or an older generation are shared with a snapshot, or -1 if no snapshot is open.
+	 */
+	private int frozenGeneration = -1;
+	private int openSnapshots = 0;
+	
+	/**
+	 * Returns the internal value of the requested variable. Doesn't require exclusive access to this map, and can even be called while the map is being modified by another
+	 * thread (see {@link Node}).
 	 * <p>
 	 * <b>Do not modify the returned value!</b>
 	 * 
 	 * @param name
 	 * @return an Object for a normal Variable or a Map<String, Object> for a list variable, or null if the variable is not set.
 	 */
-	@SuppressWarnings("unchecked")
 	@Nullable
 	final Object getVariable(final String name) {
-		if (!name.endsWith("*")) {
-			return hashMap.get(name);
-		} else {
-			final String[] split = Variables.splitVariableName(name);
-			Map<String, Object> current = treeMap;
-			for (int i = 0; i < split.length; i++) {
-				final String n = split[i];
-				if (n.equals("*")) {
-					assert i == split.length - 1;
-					return current;
-				}
-				final Object o = current.get(n);
-				if (o == null)
-					return null;
-				if (o instanceof Map) {
-					current = (Map<String, Object>) o;
-					assert i != split.length - 1;
-					continue;
-				} else {
-					return null;
-				}
+		return getVariable(name, false);
+	}
+	
+	/**
+	 * @param name
+	 * @param exactName Whether to return {@link #OTHER_NAME} if the variable is stored with a different name
+	 * @return The variable's value, see {@link #getVariable(String)}
+	 */
+	@Nullable
+	final Object getVariable(final String name, final boolean exactName) {
+		final String[] split = Variables.splitVariableName(name);
+		Node current = root;
+		for (int i = 0; i < split.length; i++) {
+			final String n = split[i];
+			if (n.equals("*")) {
+				assert i == split.length - 1;
+				return current;
+			}
+			final Object o = exactName ? current.getExactly(n) : current.get(n);
+			if (o == null || o == OTHER_NAME)
+				return o;
+			if (o instanceof Node) {
+				current = (Node) o;
+				if (i == split.length - 1) // a list variable's own value
+					return current.get(null);
+				continue;
+			} else {
+				return i == split.length - 1 ? o : null;
 			}
-			return null;
 		}
+		return null;
+	}
+	
+	/**
+	 * @param name The name of a list variable, ending in "::*"
+	 * @return The lowest positive index that is not set in the given list, i.e. where a value added to the list should be put.
+	 */
+	final int getNextListIndex(final String name) {
+		assert name.endsWith(Variable.SEPARATOR + "*") : name;
+		final Object o = getVariable(name);
+		return o instanceof Node ? ((Node) o).nextIndex : 1;
+	}
+	
+	/**
+	 * @param name The name of a list variable, ending in "::*"
+	 * @return An iterator over the elements of the list, or null if the list doesn't exist
+	 */
+	@Nullable
+	final ListVariableIterator getListIterator(final String name) {
+		assert name.endsWith(Variable.SEPARATOR + "*") : name;
+		final Object o = getVariable(name);
+		if (!(o instanceof Node))
+			return null;
+		return new ListVariableIterator(this, "" + name.substring(0, name.length() - 1), (Node) o);
+	}
+	
+	/**
+	 * Finds the elements of a list variable that are equal to the given value. Creates an index of the list's values the first time it is searched, thus this requires exclusive
+	 * access to this map.
+	 * 
+	 * @param name The name of a list variable, ending in "::*"
+	 * @param value
+	 * @param all Whether to find all matching elements or only the first one
+	 * @return The indices of the matching elements in the order of the list, or null if the list doesn't exist or can't be searched this way, in which case the caller has to
+	 *         compare the value to every element of the list.
+	 * @see ValueIndex
+	 */
+	@Nullable
+	final List<String> findInList(final String name, final Object value, final boolean all) {
+		assert name.endsWith(Variable.SEPARATOR + "*") : name;
+		final Object o = getVariable(name);
+		if (!(o instanceof Node))
+			return null;
+		final Node node = (Node) o;
+		ValueIndex index = node.index;
+		if (index == null || !index.isValid())
+			node.index = index = new ValueIndex(node);
+		return index.find(value, all);
 	}
 	
 	/**
@@ -117,61 +788,73 @@ final class VariablesMap {
 	 * 
 	 * @param name The variable's name. Can be a "list variable::*" (<tt>value</tt> must be <tt>null</tt> in this case)
 	 * @param value The variable's value. Use <tt>null</tt> to delete the variable.
+	 * @return Whether the change might affect variables with other names than the given one, i.e. whether the variable is stored with a different name or has just been
+	 *         created with a name that is not {@link #isUniqueName(String) canonical}. Changing a list variable affects its elements and thus always returns true.
 	 */
-	@SuppressWarnings("unchecked")
-	final void setVariable(final String name, final @Nullable Object value) {
-		if (!name.endsWith("*")) {
-			if (value == null)
-				hashMap.remove(name);
-			else
-				hashMap.put(name, value);
-		}
+	final boolean setVariable(final String name, final @Nullable Object value) {
 		final String[] split = Variables.splitVariableName(name);
-		TreeMap<String, Object> parent = treeMap;
+		if (frozenGeneration != -1)
+			copyFrozenPath(split);
+		boolean otherNames = name.endsWith("*");
+		Node parent = root;
 		for (int i = 0; i < split.length; i++) {
 			final String n = split[i];
-			Object current = parent.get(n);
+			Object current = parent.getExactly(n);
+			if (current == OTHER_NAME) {
+				otherNames = true;
+				current = parent.get(n);
+			}
 			if (current == null) {
 				if (i == split.length - 1) {
-					if (value != null)
-						parent.put(n, value);
+					if (value != null) {
+						parent.put(internSegment(n), value);
+						size++;
+						otherNames |= !isUniqueName(name);
+					}
 					break;
 				} else if (value != null) {
-					parent.put(n, current = new TreeMap<String, Object>(variableNameComparator));
-					parent = (TreeMap<String, Object>) current;
+					parent.put(internSegment(n), current = new Node(false, generation));
+					parent = (Node) current;
+					otherNames |= !isUniqueName(name);
 					continue;
 				} else {
 					break;
 				}
-			} else if (current instanceof TreeMap) {
+			} else if (current instanceof Node) {
+				final Node node = (Node) current;
 				if (i == split.length - 1) {
-					if (value == null)
-						((TreeMap<String, Object>) current).remove(null);
-					else
-						((TreeMap<String, Object>) current).put(null, value);
+					final Object old = value == null ? node.remove(null) : node.put(null, value);
+					parent.modifications++;
+					if (old == null && value != null)
+						size++;
+					else if (old != null && value == null)
+						size--;
 					break;
 				} else if (i == split.length - 2 && split[i + 1].equals("*")) {
 					assert value == null;
-					deleteFromHashMap(StringUtils.join(split, Variable.SEPARATOR, 0, i + 1), (TreeMap<String, Object>) current);
-					final Object v = ((TreeMap<String, Object>) current).get(null);
+					size -= countElements(node);
+					detach(node);
+					final Object v = node.get(null);
 					if (v == null)
 						parent.remove(n);
 					else
 						parent.put(n, v);
 					break;
 				} else {
-					parent = (TreeMap<String, Object>) current;
+					parent = node;
 					continue;
 				}
 			} else {
 				if (i == split.length - 1) {
-					if (value == null)
+					if (value == null) {
 						parent.remove(n);
-					else
+						size--;
+					} else {
 						parent.put(n, value);
+					}
 					break;
 				} else if (value != null) {
-					final TreeMap<String, Object> c = new TreeMap<String, Object>(variableNameComparator);
+					final Node c = new Node(false, generation);
 					c.put(null, current);
 					parent.put(n, c);
 					parent = c;
@@ -181,19 +864,81 @@ final class VariablesMap {
 				}
 			}
 		}
+		return otherNames;
+	}
+	
+	/**
+	 * Copies all nodes along the path of the given variable that are shared with a snapshot, so that {@link #setVariable(String, Object)} can modify them freely.
+	 */
+	private final void copyFrozenPath(final String[] split) {
+		if (root.generation <= frozenGeneration) {
+			root.detached = true;
+			root = new Node(root, generation);
+		}
+		Node parent = root;
+		for (int i = 0; i < split.length; i++) {
+			final Object o = parent.get(split[i]);
+			if (!(o instanceof Node))
+				return;
+			Node node = (Node) o;
+			if (node.generation <= frozenGeneration) {
+				node.detached = true;
+				parent.put(split[i], node = new Node(node, generation));
+			}
+			parent = node;
+		}
+	}
+	
+	/**
+	 * Freezes the current variable tree, i.e. makes sure that it won't be modified anymore until {@link #unfreeze()} is called. Changes made in the meantime copy the affected
+	 * nodes instead.
+	 * <p>
+	 * Must be called with exclusive access to this map, e.g. while holding its write lock.
+	 * 
+	 * @return The frozen root node
+	 */
+	final Node freeze() {
+		frozenGeneration = generation;
+		generation++;
+		openSnapshots++;
+		return root;
 	}
 	
-	@SuppressWarnings("unchecked")
-	void deleteFromHashMap(final String parent, final TreeMap<String, Object> current) {
-		for (final Entry<String, Object> e : current.entrySet()) {
+	/**
+	 * Releases a tree returned by {@link #freeze()}. Must be called with exclusive access to this map.
+	 */
+	final void unfreeze() {
+		assert openSnapshots > 0;
+		if (--openSnapshots == 0)
+			frozenGeneration = -1;
+	}
+	
+	/**
+	 * Marks the given list and its sublists as {@link Node#detached detached}.
+	 */
+	private final static void detach(final Node list) {
+		list.detached = true;
+		for (final Entry<String, Object> e : list.entrySet()) {
+			if (e.getValue() instanceof Node)
+				detach((Node) e.getValue());
+		}
+	}
+	
+	/**
+	 * @return The number of variables in the given list and its sublists, excluding the list's own value
+	 */
+	private final static int countElements(final Node list) {
+		int n = 0;
+		for (final Entry<String, Object> e : list.entrySet()) {
 			if (e.getKey() == null)
 				continue;
-			hashMap.remove(parent + Variable.SEPARATOR + e.getKey());
 			final Object val = e.getValue();
-			if (val instanceof TreeMap) {
-				deleteFromHashMap(parent + Variable.SEPARATOR + e.getKey(), (TreeMap<String, Object>) val);
-			}
+			if (val instanceof Node)
+				n += (((Node) val).get(null) != null ? 1 : 0) + countElements((Node) val);
+			else
+				n++;
 		}
+		return n;
 	}
 	
 }
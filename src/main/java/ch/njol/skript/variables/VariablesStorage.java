@@ -21,9 +21,22 @@
 
 package ch.njol.skript.variables;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -50,8 +63,65 @@ public abstract class VariablesStorage implements Closeable {
 	
 	private final static int QUEUE_SIZE = 1000, FIRST_WARNING = 300;
 	
+	/**
+	 * The maximum number of changes passed to {@link #saveBatch(Collection)} at once
+	 */
+	private final static int MAX_BATCH_SIZE = 500;
+	
 	final LinkedBlockingQueue<SerializedVariable> changesQueue = new LinkedBlockingQueue<SerializedVariable>(QUEUE_SIZE);
 	
+	/**
+	 * What to do with changed variables if the {@link #changesQueue} is full, i.e. if the database cannot keep up with the changes. Set with the option 'queue overflow'.
+	 */
+	public static enum OverflowPolicy {
+		/**
+		 * Waits up to 'queue overflow timeout' for the queue to have space again, then continues like {@link #COALESCE}.
+		 */
+		WAIT,
+		/**
+		 * Keeps only the latest change to each variable in memory until the queue is empty again.
+		 */
+		COALESCE,
+		/**
+		 * Appends changes to a journal file which is saved once the queue is empty again, and which is loaded again on the next start if the server stops or crashes before.
+		 */
+		SPILL;
+	}
+	
+	private OverflowPolicy overflowPolicy = OverflowPolicy.COALESCE;
+	
+	/**
+	 * Only used with {@link OverflowPolicy#WAIT}, in milliseconds
+	 */
+	private long overflowTimeout = 1000;
+	
+	/**
+	 * Guards {@link #overflow}, {@link #journal} and {@link #replayed}. Must not be held while saving variables.
+	 */
+	private final Object overflowLock = new Object();
+	
+	/**
+	 * Changes that didn't fit into the {@link #changesQueue}. Once this or the journal is not empty all changes are added here (or to the journal) to keep them in order
+	 * until the write thread takes them.
+	 * <p>
+	 * All changes in here are newer than the ones in the journal: changes are only kept here while a journal is open if writing to it failed, and changes from before that
+	 * are moved to the journal when it is opened.
+	 */
+	private final LinkedHashMap<String, SerializedVariable> overflow = new LinkedHashMap<String, SerializedVariable>();
+	
+	@Nullable
+	private DataOutputStream journal = null;
+	
+	/**
+	 * Whether changes from the last run have been loaded into {@link #overflow}, in which case the file they have been collected in can be deleted once that has been saved
+	 */
+	private boolean replayed = false;
+	
+	/**
+	 * The number of changes in {@link #overflow} and the journal
+	 */
+	private volatile int overflowSize = 0;
+	
 	protected volatile boolean closed = false;
 	
 	protected final String databaseName;
@@ -73,15 +143,27 @@ public abstract class VariablesStorage implements Closeable {
 		writeThread = Skript.newThread(new Runnable() {
 			@Override
 			public void run() {
+				final ArrayList<SerializedVariable> drained = new ArrayList<SerializedVariable>(MAX_BATCH_SIZE);
+				final LinkedHashMap<String, SerializedVariable> batch = new LinkedHashMap<String, SerializedVariable>();
 				while (!closed) {
 					try {
-						final SerializedVariable var = changesQueue.take();
-						final Value d = var.value;
-						if (d != null)
-							save(var.name, d.type, d.data);
-						else
-							save(var.name, null, null);
-					} catch (final InterruptedException e) {}
+						// doesn't block indefinitely as an overflow might have started just after the queue was emptied
+						final SerializedVariable var = changesQueue.poll(overflowSize == 0 ? 1 : 0, TimeUnit.SECONDS);
+						if (var == null) {
+							if (overflowSize != 0)
+								saveOverflow();
+							continue;
+						}
+						drained.add(var);
+						changesQueue.drainTo(drained, MAX_BATCH_SIZE - 1);
+						// only the last change to each variable has to be saved
+						for (final SerializedVariable v : drained)
+							batch.put(v.name, v);
+						saveBatch(batch.values());
+					} catch (final InterruptedException e) {} finally {
+						drained.clear();
+						batch.clear();
+					}
 				}
 			}
 		}, "Skript variable save thread for database '" + name + "'");
@@ -123,6 +205,22 @@ public abstract class VariablesStorage implements Closeable {
 			return false;
 		}
 		
+		final String policy = n.getValue("queue overflow");
+		if (policy != null) {
+			try {
+				overflowPolicy = OverflowPolicy.valueOf(policy.trim().toUpperCase(Locale.ENGLISH));
+			} catch (final IllegalArgumentException e) {
+				Skript.error("The entry for 'queue overflow' in the database '" + databaseName + "' must be one of 'wait', 'coalesce' or 'spill'");
+				return false;
+			}
+			if (overflowPolicy == OverflowPolicy.WAIT && n.getValue("queue overflow timeout") != null) {
+				final Timespan t = getValue(n, "queue overflow timeout", Timespan.class);
+				if (t == null)
+					return false;
+				overflowTimeout = t.getMilliSeconds();
+			}
+		}
+		
 		if (requiresFile()) {
 			final String f = getValue(n, "file");
 			if (f == null)
@@ -167,6 +265,8 @@ public abstract class VariablesStorage implements Closeable {
 		if (!load_i(n))
 			return false;
 		
+		replayJournals();
+		
 		writeThread.start();
 		Skript.closeOnDisable(this);
 		
@@ -191,7 +291,7 @@ public abstract class VariablesStorage implements Closeable {
 	protected abstract File getFile(String file);
 	
 	/**
-	 * Must be locked after {@link Variables#getReadLock()} (if that lock is used at all)
+	 * Must not be held while waiting for a variable to be changed, as variables snapshots briefly lock all variables while being created (see {@link Variables#getVariablesSnapshot()}).
 	 */
 	protected final Object connectionLock = new Object();
 	
@@ -237,6 +337,14 @@ public abstract class VariablesStorage implements Closeable {
 		return variablePattern != null ? variablePattern.matcher(var).matches() : true;
 	}
 	
+	/**
+	 * @return The pattern of variables saved in this storage, or null if this storage accepts all variables
+	 */
+	@Nullable
+	final Pattern getVariablePattern() {
+		return variablePattern;
+	}
+	
 	private long lastWarning = Long.MIN_VALUE;
 	private final static int WARNING_INTERVAL = 10;
 	private long lastError = Long.MIN_VALUE;
@@ -250,28 +358,263 @@ public abstract class VariablesStorage implements Closeable {
 			Skript.warning("Cannot write variables to the database '" + databaseName + "' at sufficient speed; server performance may suffer and many variables will be lost if the server crashes. (this warning will be repeated at most once every " + WARNING_INTERVAL + " seconds)");
 			lastWarning = System.currentTimeMillis();
 		}
-		if (!changesQueue.offer(var)) {
+		if (overflowSize == 0) {
+			if (changesQueue.offer(var))
+				return;
+			if (overflowPolicy == OverflowPolicy.WAIT) {
+				try {
+					if (changesQueue.offer(var, overflowTimeout, TimeUnit.MILLISECONDS))
+						return;
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
 			if (lastError < System.currentTimeMillis() - ERROR_INTERVAL * 1000) {
-				Skript.error("Skript cannot save any variables to the database '" + databaseName + "'. The server will hang and may crash if no more variables can be saved.");
+				Skript.error("Skript cannot save variables to the database '" + databaseName + "' fast enough. Further changes will be " + (overflowPolicy == OverflowPolicy.SPILL ? "written to '" + getJournalFile().getName() + "'" : "kept in memory") + " until the database catches up."
+						+ " (this error will be repeated at most once every " + ERROR_INTERVAL + " seconds)");
 				lastError = System.currentTimeMillis();
 			}
-			while (true) {
+		}
+		synchronized (overflowLock) {
+			if (overflowPolicy == OverflowPolicy.SPILL && (journal == null || overflow.isEmpty())) {
 				try {
-					// REMIND add repetitive error and/or stop saving variables altogether?
-					changesQueue.put(var);
-					break;
-				} catch (final InterruptedException e) {}
+					if (!overflow.isEmpty()) {
+						// older changes (e.g. from the last run) have to be in the journal as well as it will be saved first
+						appendToJournal(overflow.values());
+						overflow.clear();
+					}
+					appendToJournal(Collections.singleton(var));
+					overflowSize++;
+					return;
+				} catch (final IOException e) {
+					Skript.exception(e, "Cannot write to the overflow journal of the database '" + databaseName + "', keeping changes in memory until it has been saved");
+				}
 			}
+			if (overflow.put(var.name, var) == null)
+				overflowSize++;
+		}
+	}
+	
+	/**
+	 * Appends the given changes to the journal, opening it if necessary. Must only be called while holding the {@link #overflowLock}.
+	 */
+	private void appendToJournal(final Collection<SerializedVariable> vars) throws IOException {
+		DataOutputStream journal = this.journal;
+		if (journal == null)
+			this.journal = journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getJournalFile(), true)));
+		for (final SerializedVariable var : vars)
+			writeJournalEntry(journal, var);
+		journal.flush();
+	}
+	
+	private File getJournalFile() {
+		return new File(Skript.getInstance().getDataFolder(), "overflow_" + databaseName.replaceAll("[^\\w\\-]", "_") + ".journal");
+	}
+	
+	/**
+	 * The journal while it is being saved
+	 */
+	private File getSavingJournalFile() {
+		return new File(getJournalFile().getPath() + ".saving");
+	}
+	
+	/**
+	 * All unsaved changes from the last run
+	 */
+	private File getReplayedJournalFile() {
+		return new File(getJournalFile().getPath() + ".replayed");
+	}
+	
+	private final static void writeJournalEntry(final DataOutputStream out, final SerializedVariable var) throws IOException {
+		final Value v = var.value;
+		out.writeUTF(var.name);
+		out.writeBoolean(v != null);
+		if (v != null) {
+			out.writeUTF(v.type);
+			out.writeInt(v.data.length);
+			out.write(v.data);
 		}
 	}
 	
+	/**
+	 * @return The next entry of the journal, or null if the end of the journal has been reached (including a partially written last entry)
+	 */
+	@Nullable
+	private final static SerializedVariable readJournalEntry(final DataInputStream in) throws IOException {
+		try {
+			final String name = in.readUTF();
+			if (!in.readBoolean())
+				return new SerializedVariable(name, null);
+			final String type = in.readUTF();
+			final byte[] data = new byte[in.readInt()];
+			in.readFully(data);
+			return new SerializedVariable(name, new Value(type, data));
+		} catch (final EOFException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Called by the write thread once the {@link #changesQueue} is empty. Saves all overflown changes, with new changes being queued normally again in the meantime.
+	 * <p>
+	 * The journal is saved before the changes in {@link #overflow} as the latter are newer.
+	 */
+	private void saveOverflow() {
+		final ArrayList<SerializedVariable> vars;
+		final boolean replayed;
+		File saving = null;
+		synchronized (overflowLock) {
+			vars = new ArrayList<SerializedVariable>(overflow.values());
+			overflow.clear();
+			replayed = this.replayed;
+			this.replayed = false;
+			final DataOutputStream journal = this.journal;
+			if (journal != null) {
+				this.journal = null;
+				try {
+					journal.close();
+				} catch (final IOException e) {}
+				try {
+					saving = FileUtils.move(getJournalFile(), getSavingJournalFile(), false);
+				} catch (final IOException e) {
+					// continues appending to the journal
+					Skript.error("Cannot save the overflow journal of the database '" + databaseName + "', it will be saved on the next start: " + e.getLocalizedMessage());
+					// the newer changes in memory must not be saved before the journal
+					try {
+						appendToJournal(vars);
+						vars.clear();
+					} catch (final IOException e2) {
+						Skript.exception(e2, "Cannot write to the overflow journal of the database '" + databaseName + "'");
+					} finally {
+						final DataOutputStream j = this.journal;
+						this.journal = null;
+						if (j != null) {
+							try {
+								j.close();
+							} catch (final IOException e2) {}
+						}
+					}
+				}
+			}
+			overflowSize = 0;
+		}
+		
+		if (saving != null) {
+			final LinkedHashMap<String, SerializedVariable> batch = new LinkedHashMap<String, SerializedVariable>();
+			DataInputStream in = null;
+			try {
+				in = new DataInputStream(new BufferedInputStream(new FileInputStream(saving)));
+				SerializedVariable var;
+				while ((var = readJournalEntry(in)) != null) {
+					batch.put(var.name, var);
+					if (batch.size() >= MAX_BATCH_SIZE) {
+						saveBatch(batch.values());
+						batch.clear();
+					}
+				}
+				if (!batch.isEmpty())
+					saveBatch(batch.values());
+				in.close();
+				in = null;
+				saving.delete();
+			} catch (final IOException e) {
+				Skript.exception(e, "Cannot read the overflow journal of the database '" + databaseName + "', it will be saved on the next start");
+			} finally {
+				if (in != null) {
+					try {
+						in.close();
+					} catch (final IOException e) {}
+				}
+			}
+		}
+		
+		for (int i = 0; i < vars.size(); i += MAX_BATCH_SIZE)
+			saveBatch(vars.subList(i, Math.min(i + MAX_BATCH_SIZE, vars.size())));
+		if (replayed)
+			getReplayedJournalFile().delete();
+	}
+	
+	/**
+	 * Loads changes that could not be saved in the last run because the server stopped or crashed before the overflow journal was saved. Called on the main thread after the
+	 * variables of this database have been loaded.
+	 * <p>
+	 * All these changes are collected in a single file which is only deleted once they have been saved, so that they are not lost if the server stops again before.
+	 */
+	private void replayJournals() {
+		final File replayedFile = getReplayedJournalFile();
+		final File[] files = {replayedFile, getSavingJournalFile(), getJournalFile()};
+		boolean found = false;
+		for (final File f : files) {
+			if (!f.exists())
+				continue;
+			found = true;
+			DataInputStream in = null;
+			try {
+				in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+				SerializedVariable var;
+				while ((var = readJournalEntry(in)) != null)
+					overflow.put(var.name, var);
+			} catch (final IOException e) {
+				Skript.exception(e, "Cannot read the overflow journal '" + f.getName() + "' of the database '" + databaseName + "'");
+				return;
+			} finally {
+				if (in != null) {
+					try {
+						in.close();
+					} catch (final IOException e) {}
+				}
+			}
+		}
+		if (!found)
+			return;
+		
+		final File temp = new File(replayedFile.getPath() + ".temp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			for (final SerializedVariable var : overflow.values())
+				writeJournalEntry(out, var);
+			out.close();
+			out = null;
+			FileUtils.move(temp, replayedFile, true);
+			for (int i = 1; i < files.length; i++)
+				files[i].delete();
+		} catch (final IOException e) {
+			Skript.exception(e, "Cannot collect the overflow journals of the database '" + databaseName + "'");
+			overflow.clear();
+			return;
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (final IOException e) {}
+			}
+		}
+		
+		for (final SerializedVariable var : overflow.values()) {
+			final Value v = var.value;
+			final Object o = v == null ? null : Classes.deserialize(v.type, v.data);
+			if (v != null && o == null) {
+				Skript.error("Cannot load the value of the variable {" + var.name + "} from the overflow journal of the database '" + databaseName + "'");
+				continue;
+			}
+			Variables.variableLoaded(var.name, o, this);
+		}
+		
+		synchronized (overflowLock) {
+			replayed = true;
+			overflowSize = overflow.size();
+		}
+		Skript.info("Loaded " + overflow.size() + " unsaved variable change" + (overflow.size() == 1 ? "" : "s") + " of the database '" + databaseName + "' from its overflow journal");
+	}
+	
 	/**
 	 * Called when Skript gets disabled. The default implementation will wait for all variables to be saved before setting {@link #closed} to true and stopping the write thread,
 	 * thus <tt>super.close()</tt> must be called if this method is overridden!
 	 */
 	@Override
 	public void close() {
-		while (changesQueue.size() > 0) {
+		while (changesQueue.size() > 0 || overflowSize > 0) {
 			try {
 				Thread.sleep(10);
 			} catch (final InterruptedException e) {}
@@ -285,6 +628,43 @@ public abstract class VariablesStorage implements Closeable {
 	 */
 	protected void clearChangesQueue() {
 		changesQueue.clear();
+		synchronized (overflowLock) {
+			overflow.clear();
+			final DataOutputStream journal = this.journal;
+			if (journal != null) {
+				this.journal = null;
+				try {
+					journal.close();
+				} catch (final IOException e) {}
+				getJournalFile().delete();
+			}
+			overflowSize = 0;
+		}
+	}
+	
+	/**
+	 * @return The number of changes waiting to be saved, including overflown changes
+	 */
+	public int getQueueSize() {
+		return changesQueue.size() + overflowSize;
+	}
+	
+	/**
+	 * Saves several changed variables at once. Called from the {@link #writeThread} with all changes that were queued at the same time (but at most {@value #MAX_BATCH_SIZE}),
+	 * where each variable is only included once with its latest value.
+	 * <p>
+	 * The default implementation calls {@link #save(String, String, byte[])} for each variable.
+	 * 
+	 * @param vars
+	 */
+	protected void saveBatch(final Collection<SerializedVariable> vars) {
+		for (final SerializedVariable var : vars) {
+			final Value d = var.value;
+			if (d != null)
+				save(var.name, d.type, d.data);
+			else
+				save(var.name, null, null);
+		}
 	}
 	
 	/**
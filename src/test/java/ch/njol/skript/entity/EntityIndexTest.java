@@ -0,0 +1,88 @@
+/*
+ *   This file is part of Skript.
+ * 
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.entity;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Zombie;
+import org.bukkit.util.Vector;
+import org.junit.Test;
+
+import ch.njol.skript.entity.EntityIndex.WorldIndex;
+
+/**
+ * @author Peter Güttinger
+ */
+public class EntityIndexTest {
+	
+	@SuppressWarnings("null")
+	private final static Zombie zombie(final Location l) {
+		final Zombie z = createMock(Zombie.class);
+		expect(z.getWorld()).andReturn(l.getWorld()).anyTimes();
+		expect(z.getLocation()).andReturn(l).anyTimes();
+		expect(z.isValid()).andReturn(true).anyTimes();
+		expect(z.getVelocity()).andReturn(new Vector()).anyTimes();
+		replay(z);
+		return z;
+	}
+	
+	@SuppressWarnings("null")
+	@Test
+	public void testOtherWorld() {
+		final World w1 = createMock(World.class), w2 = createMock(World.class);
+		replay(w1, w2);
+		final Zombie here = zombie(new Location(w1, 10, 64, 10)), gone = zombie(new Location(w2, 10, 64, 10));
+		
+		final WorldIndex index = new WorldIndex();
+		index.add(here, EntityIndex.key(0, 0));
+		index.add(gone, EntityIndex.key(0, 0)); // changed worlds without an event
+		
+		final List<Zombie> r = new ArrayList<Zombie>();
+		index.getNearbyEntities(new Location(w1, 0, 64, 0), 30, 10, Zombie.class, null, r);
+		assertEquals(Arrays.asList(here), r);
+		
+		r.clear();
+		index.getEntities(w1, Zombie.class, r);
+		assertEquals(Arrays.asList(here), r);
+	}
+	
+	@SuppressWarnings("null")
+	@Test
+	public void testTeleport() {
+		final World w1 = createMock(World.class), w2 = createMock(World.class);
+		replay(w1, w2);
+		final Zombie z = zombie(new Location(w1, 0, 64, 0));
+		EntityIndex.getIndex(w1).add(z, EntityIndex.key(0, 0));
+		
+		EntityIndex.teleported(z, new Location(w2, 100, 64, -100));
+		assertFalse(EntityIndex.getIndex(w1).positions.containsKey(z));
+		assertEquals(Long.valueOf(EntityIndex.key(6, -7)), EntityIndex.getIndex(w2).positions.get(z));
+	}
+	
+}
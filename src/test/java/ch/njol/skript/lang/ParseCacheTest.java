@@ -0,0 +1,104 @@
+/*
+ *   This file is part of Skript.
+ * 
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.lang;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import ch.njol.skript.lang.ParseCache.Decision;
+
+/**
+ * @author Peter Güttinger
+ */
+public class ParseCacheTest {
+	
+	private final static Decision[] decisions = {
+			new Decision("send \"hello\" to player", 0, ParseContext.DEFAULT, 42, "ch.njol.skript.effects.EffMessage", 0, null, 0),
+			new Decision("\"hello\"", 3, ParseContext.DEFAULT, 7, "ch.njol.skript.expressions.ExprString", 1, null, 0),
+			new Decision("player", 3, ParseContext.DEFAULT, 12, "ch.njol.skript.expressions.ExprPlayer", 0, null, 0),
+			new Decision("foo bar", 0, ParseContext.DEFAULT, -1, null, -1, "can't understand this condition: 'foo bar'", 1),
+			new Decision("baz", 0, ParseContext.DEFAULT, -1, null, -1, null, 0),
+			new Decision("on join", 0, ParseContext.EVENT, 3, "ch.njol.skript.events.SimpleEvent", 2, null, 0),
+	};
+	
+	@SuppressWarnings("null")
+	private final static File save(final String key) throws IOException {
+		final File f = File.createTempFile("skript", ".cache");
+		f.deleteOnExit();
+		final ParseCache c = new ParseCache(f, key);
+		c.start("state");
+		for (final Decision d : decisions)
+			c.set(c.reserve(), d);
+		c.stop(true);
+		return f;
+	}
+	
+	@Test
+	public void testReplay() throws IOException {
+		final File f = save("key");
+		final ParseCache c = ParseCache.load(f, "key");
+		for (final Decision d : decisions) {
+			final Decision r = c.replay(d.expr, d.flags, d.context);
+			assertNotNull(d.expr, r);
+			assert r != null;
+			assertEquals(d.info, r.info);
+			assertEquals(d.c, r.c);
+			assertEquals(d.pattern, r.pattern);
+			assertEquals(d.error, r.error);
+			assertEquals(d.quality, r.quality);
+		}
+		assertNull(c.replay("something else", 0, ParseContext.DEFAULT));
+	}
+	
+	@Test
+	public void testKey() throws IOException {
+		final File f = save("key");
+		assertNull(ParseCache.load(f, "other key").replay(decisions[0].expr, decisions[0].flags, decisions[0].context));
+	}
+	
+	@Test
+	public void testMismatch() throws IOException {
+		final File f = save("key");
+		final ParseCache c = ParseCache.load(f, "key");
+		assertNotNull(c.replay(decisions[0].expr, decisions[0].flags, decisions[0].context));
+		assertNull(c.replay(decisions[1].expr, 0, decisions[1].context));
+		// nothing is replayed after a decision didn't fit
+		assertNull(c.replay(decisions[2].expr, decisions[2].flags, decisions[2].context));
+	}
+	
+	@Test
+	public void testState() throws IOException {
+		final File f = save("key");
+		ParseCache c = ParseCache.load(f, "key");
+		c.start("state");
+		assertNotNull(c.replay(decisions[0].expr, decisions[0].flags, decisions[0].context));
+		c = ParseCache.load(f, "key");
+		c.start("other state");
+		assertNull(c.replay(decisions[0].expr, decisions[0].flags, decisions[0].context));
+		c.stop(false);
+	}
+	
+}
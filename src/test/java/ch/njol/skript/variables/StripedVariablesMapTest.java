@@ -0,0 +1,104 @@
+/*
+ *   This file is part of Skript.
+ * 
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * @author Peter Güttinger
+ */
+public class StripedVariablesMapTest {
+	
+	@Test
+	public void testCache() {
+		final StripedVariablesMap map = new StripedVariablesMap();
+		map.setVariable("a::1", 1);
+		assertEquals(1, map.getVariable("a::1"));
+		assertEquals(1, map.getVariable("a::1")); // cached
+		map.setVariable("a::01", 2);
+		assertEquals(2, map.getVariable("a::1"));
+		map.setVariable("a::*", null);
+		assertNull(map.getVariable("a::1"));
+		assertNull(map.getVariable("a::01"));
+		assertNull(map.getVariable("b::1")); // cached as unset
+		map.setVariable("b::01", 3);
+		assertEquals(3, map.getVariable("b::1"));
+		assertEquals(3, map.getVariable("b::01"));
+		map.setVariable("b::1", 4);
+		assertEquals(4, map.getVariable("b::01"));
+		assertEquals(4, map.getVariable("b::1"));
+		map.setVariable("b::1", null);
+		assertNull(map.getVariable("b::01"));
+	}
+	
+	@Test
+	public void testCacheGrowth() {
+		final StripedVariablesMap map = new StripedVariablesMap();
+		for (int i = 0; i < 10000; i++) {
+			map.setVariable("a::" + i, i);
+			assertEquals(i / 2, map.getVariable("a::" + (i / 2))); // cached before the cache grows
+		}
+		for (int i = 0; i < 10000; i++)
+			assertEquals(i, map.getVariable("a::" + i));
+		map.setVariable("a::5", null);
+		assertNull(map.getVariable("a::5"));
+	}
+	
+	@Test
+	public void testConcurrentReads() throws InterruptedException {
+		final StripedVariablesMap map = new StripedVariablesMap();
+		final int changes = 20000;
+		final Thread[] readers = new Thread[3];
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		for (int i = 0; i < readers.length; i++) {
+			readers[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int j = 0; j < changes; j++) {
+							final Object o = map.getVariable("x::" + (j % 10));
+							if (o != null && !(o instanceof Integer))
+								throw new AssertionError(o);
+							map.getVariable("x::*");
+						}
+					} catch (final Throwable t) {
+						failure.compareAndSet(null, t);
+					}
+				}
+			};
+			readers[i].start();
+		}
+		for (int j = 0; j < changes; j++)
+			map.setVariable("x::" + (j % 10), j);
+		for (final Thread t : readers)
+			t.join();
+		if (failure.get() != null)
+			throw new AssertionError(failure.get());
+		for (int i = 0; i < 10; i++)
+			assertEquals(changes - 10 + i, map.getVariable("x::" + i));
+	}
+	
+}
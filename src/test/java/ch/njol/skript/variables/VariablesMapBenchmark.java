@@ -0,0 +1,113 @@
+/*
+ *   This file is part of Skript.
+ * 
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the latency of getting global variables from a {@link StripedVariablesMap} with many variables like <tt>{stats::%player's uuid%::kills}</tt>. Not a unit test, run
+ * it with <tt>java -cp &lt;test classpath&gt; ch.njol.skript.variables.VariablesMapBenchmark</tt>.
+ * 
+ * @author Peter Güttinger
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VariablesMapBenchmark {
+	
+	private final static String[] STATS = {"kills", "deaths", "joins", "money", "level"};
+	
+	@Param({"1000", "200000"})
+	public int players;
+	
+	private final StripedVariablesMap map = new StripedVariablesMap();
+	private String[] names = new String[0];
+	
+	@Setup
+	public void setup() {
+		final Random random = new Random(1);
+		names = new String[players * STATS.length];
+		for (int p = 0; p < players; p++) {
+			final String uuid = new UUID(random.nextLong(), random.nextLong()).toString();
+			for (int s = 0; s < STATS.length; s++)
+				names[p * STATS.length + s] = "stats::" + uuid + "::" + STATS[s];
+		}
+		for (int i = 0; i < names.length; i++)
+			map.setVariable(names[i], Long.valueOf(i));
+	}
+	
+	@State(Scope.Thread)
+	public static class Index {
+		final Random random = new Random();
+	}
+	
+	// names are built anew for every access in Skript, thus their hash codes are not cached
+	
+	/**
+	 * Random variables, i.e. mostly misses of the CPU's caches and partially of the map's cache.
+	 */
+	@Benchmark
+	public Object getRandom(final Index index) {
+		return map.getVariable(new String(names[index.random.nextInt(names.length)]));
+	}
+	
+	/**
+	 * A few frequently used variables, i.e. hits of the map's cache.
+	 */
+	@Benchmark
+	public Object getHot(final Index index) {
+		return map.getVariable(new String(names[index.random.nextInt(64)]));
+	}
+	
+	/**
+	 * Variables that are not set.
+	 */
+	@Benchmark
+	public Object getUnset(final Index index) {
+		return map.getVariable(new String(names[index.random.nextInt(names.length)]) + "s");
+	}
+	
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(VariablesMapBenchmark.class.getSimpleName()).build()).run();
+	}
+	
+}
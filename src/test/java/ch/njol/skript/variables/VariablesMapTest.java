@@ -0,0 +1,153 @@
+/*
+ *   This file is part of Skript.
+ * 
+ *  Skript is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  Skript is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with Skript.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * 
+ * Copyright 2011-2014 Peter Güttinger
+ * 
+ */
+
+package ch.njol.skript.variables;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * @author Peter Güttinger
+ */
+public class VariablesMapTest {
+	
+	@Test
+	public void testHashName() {
+		final String[][] equal = {
+				{"a1", "a01", "a001"},
+				{"0", "00"},
+				{"x::7::y", "x::0007::y"},
+				{"12345678901234567890", "99999999999999999999"}, // both too large for a long
+		};
+		for (final String[] names : equal) {
+			for (final String name : names) {
+				assertEquals(name, 0, VariablesMap.variableNameComparator.compare(names[0], name));
+				assertEquals(name, VariablesMap.hashName(names[0]), VariablesMap.hashName(name));
+			}
+		}
+	}
+	
+	@SuppressWarnings("null")
+	@Test
+	public void testNode() {
+		// compares a node to a sorted map with random changes
+		final Random random = new Random(1);
+		final VariablesMap.Node node = new VariablesMap.Node(false, 0);
+		final TreeMap<String, Object> expected = new TreeMap<String, Object>(VariablesMap.variableNameComparator);
+		for (int i = 0; i < 20000; i++) {
+			final String key = random.nextBoolean() ? "" + random.nextInt(300) : (random.nextBoolean() ? "0" : "") + random.nextInt(100) + "x" + random.nextInt(5);
+			if (random.nextInt(3) == 0) {
+				assertEquals(key, expected.remove(key), node.remove(key));
+			} else {
+				final Integer value = random.nextInt();
+				assertEquals(key, expected.put(key, value), node.put(key, value));
+			}
+			assertEquals(expected.get(key), node.get(key));
+			if (i % 1000 == 0) {
+				assertEquals(expected.size(), node.size());
+				assertEquals(new ArrayList<Entry<String, Object>>(expected.entrySet()), new ArrayList<Entry<String, Object>>(node.entrySet()));
+				int nextIndex = 1;
+				while (expected.containsKey("" + nextIndex))
+					nextIndex++;
+				assertEquals(nextIndex, node.nextIndex);
+			}
+		}
+		
+		node.put(null, "own value");
+		assertEquals("own value", node.get(null));
+		assertEquals(expected.size() + 1, node.size());
+		assertNull(node.entrySet().iterator().next().getKey());
+	}
+	
+	@Test
+	public void testAppend() {
+		final VariablesMap.Node node = new VariablesMap.Node(false, 0);
+		final List<String> keys = new ArrayList<String>();
+		for (int i = 1; i <= 1000; i++) {
+			node.put("" + i, i);
+			keys.add("" + i);
+			if (i % 7 == 0)
+				assertEquals(keys, new ArrayList<String>(node.keySet()));
+		}
+		node.put("0", 0);
+		keys.add(0, "0");
+		assertEquals(keys, new ArrayList<String>(node.keySet()));
+	}
+	
+	@SuppressWarnings("null")
+	@Test
+	public void testVariables() {
+		final VariablesMap map = new VariablesMap();
+		map.setVariable("a::01", 1);
+		assertEquals(1, map.getVariable("a::1"));
+		map.setVariable("a::1::b", 2);
+		assertEquals(1, map.getVariable("a::001"));
+		assertEquals(2, map.getVariable("a::1::b"));
+		assertEquals(2, map.size);
+		final Map<?, ?> list = (Map<?, ?>) map.getVariable("a::*");
+		assertEquals("01", list.keySet().iterator().next());
+		
+		map.setVariable("a01", 3);
+		assertNull(map.getVariable("a1"));
+		assertEquals(3, map.getVariable("a01"));
+		
+		map.setVariable("a::*", null);
+		assertNull(map.getVariable("a::1"));
+		assertNull(map.getVariable("a::1::b"));
+		assertEquals(1, map.size);
+	}
+	
+	@Test
+	public void testListIterator() {
+		final VariablesMap map = new VariablesMap();
+		for (int i = 1; i <= 5; i++)
+			map.setVariable("l::" + i, i);
+		map.setVariable("l::3::x", 0);
+		ListVariableIterator iter = map.getListIterator("l::*");
+		assertEquals(1, iter.next().getSecond());
+		map.setVariable("other", 1); // doesn't affect the list
+		map.setVariable("l::2", 20);
+		map.setVariable("l::3", 30); // the own value of a sublist
+		map.setVariable("l::4", null);
+		assertEquals(20, iter.next().getSecond());
+		assertEquals(30, iter.next().getSecond());
+		assertEquals("5", iter.next().getFirst());
+		assertFalse(iter.hasNext());
+		
+		iter = map.getListIterator("l::*");
+		iter.next();
+		map.freeze(); // copies the list on the next change
+		map.setVariable("l::2", 200);
+		assertEquals(200, iter.next().getSecond());
+		map.unfreeze();
+		map.setVariable("l::*", null);
+		assertFalse(iter.hasNext());
+	}
+	
+}